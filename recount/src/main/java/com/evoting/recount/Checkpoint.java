@@ -0,0 +1,104 @@
+package com.evoting.recount;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Progress of a recount: how many ballots of the board have been counted and the counts so far.
+ * It is tied to one election and one board by the elections UUID and a hash of the ballots,
+ * so a checkpoint is never resumed against a different board
+ */
+public class Checkpoint {
+
+    private static final int VERSION = 1;   //checkpoint file format version
+
+    private final String eid;   //UUID of the election
+    private final byte[] boardHash; //SHA-256 of the ballots being counted
+    private final long[] counts;    //votes for each candidate, then blank ballots, then invalid ballots
+    private int next;   //index of the first ballot not yet counted
+
+    public Checkpoint(String id, byte[] hash, int candidates) {
+        eid = id;
+        boardHash = hash;
+        counts = new long[candidates + 2];
+    }
+
+    /**
+     * Add method
+     * Adds the counts of a finished block of ballots
+     * @param block counts for the block
+     * @param end index of the first ballot after the block
+     */
+    public void add(long[] block, int end) {
+        for(int i=0; i<counts.length; i++) {
+            counts[i] += block[i];
+        }
+        next = end;
+    }
+
+    /**
+     * Save method
+     * Writes the checkpoint next to its file first, then moves it over, so a crash leaves the last good one
+     * @param f checkpoint file
+     */
+    public void save(File f) throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(VERSION);
+            out.writeUTF(eid);
+            out.writeInt(boardHash.length);
+            out.write(boardHash);
+            out.writeInt(next);
+            out.writeInt(counts.length);
+            for(long c : counts) {
+                out.writeLong(c);
+            }
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load method
+     * Reads a checkpoint if it exists and belongs to this election and board
+     * @param f checkpoint file
+     * @param id UUID of the election
+     * @param hash SHA-256 of the ballots being counted
+     * @param candidates number of candidates
+     * @return saved checkpoint, or null to start from the first ballot
+     */
+    public static Checkpoint load(File f, String id, byte[] hash, int candidates) throws IOException {
+        if(!f.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if(in.readInt() != VERSION || !in.readUTF().equals(id)) {
+                return null;
+            }
+            byte[] savedHash = new byte[in.readInt()];
+            in.readFully(savedHash);
+            if(!Arrays.equals(savedHash, hash)) {
+                return null;
+            }
+
+            Checkpoint cp = new Checkpoint(id, hash, candidates);
+            cp.next = in.readInt();
+            if(in.readInt() != cp.counts.length) {
+                return null;
+            }
+            for(int i=0; i<cp.counts.length; i++) {
+                cp.counts[i] = in.readLong();
+            }
+            return cp;
+        }
+    }
+
+    public int getNext() {
+        return next;
+    }
+
+    public long[] getCounts() {
+        return counts;
+    }
+}
@@ -0,0 +1,181 @@
+package com.evoting.recount;
+
+import com.evoting.models.Election;
+import com.evoting.models.Proof;
+import com.evoting.resources.ElectionArchive;
+import com.evoting.resources.KeySealer;
+import com.evoting.resources.MixNet;
+import com.evoting.resources.TallyEngine;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Offline recount of an exported election.
+ * Every ballot is decrypted on its own and each candidate it selects is counted,
+ * in blocks spread over the tally engines threads.
+ * Progress is checkpointed after each block so an interrupted recount resumes where it stopped.
+ *
+ * With --verify-mix the last mixes proof of shuffle is checked before counting.
+ * Exported and archived files have their private key sealed, it is opened with the secret in EVOTING_ARCHIVE_SECRET.
+ *
+ * Usage: recount election.evote.gz [--checkpoint file] [--threads n] [--verify-mix]
+ */
+public class Recount {
+
+    private static final int BLOCK = 65536; //ballots counted between checkpoints
+
+    public static void main(String[] args) throws Exception {
+        File input = null;  //exported election
+        File checkpointFile = null; //progress file, defaults to next to the input
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean verifyMix = false;  //check the proof of shuffle too
+
+        for(int i=0; i<args.length; i++) {
+            if(args[i].equals("--checkpoint") && i + 1 < args.length) {
+                checkpointFile = new File(args[++i]);
+            } else if(args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("--verify-mix")) {
+                verifyMix = true;
+            } else if(input == null && !args[i].startsWith("--")) {
+                input = new File(args[i]);
+            } else {
+                usage();
+            }
+        }
+        if(input == null) {
+            usage();
+        }
+        if(checkpointFile == null) {
+            checkpointFile = new File(input.getPath() + ".checkpoint");
+        }
+
+        //the secret the node sealed the key with, files written without one hold it in the clear
+        String secret = System.getenv("EVOTING_ARCHIVE_SECRET");
+        KeySealer sealer = secret == null || secret.isEmpty() ? null : new KeySealer(secret.getBytes(StandardCharsets.UTF_8));
+
+        Election election;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(input))))) {
+            election = ElectionArchive.read(in, sealer);
+        }
+
+        //count the mixed ballots if the election was mixed, as the tally does
+        List<BigInteger> ballots = election.getBoard().getShuffledBallots();
+        if(ballots == null) {
+            ballots = election.getBoard().getBallots();
+        }
+
+        if(verifyMix && !verifyMix(election)) {
+            System.exit(1);
+        }
+
+        int candidates = election.getCandidates().size();
+        byte[] boardHash = hash(ballots);
+
+        Checkpoint checkpoint = Checkpoint.load(checkpointFile, election.getEid(), boardHash, candidates);
+        if(checkpoint == null) {
+            checkpoint = new Checkpoint(election.getEid(), boardHash, candidates);
+        } else {
+            System.out.println("Resuming from ballot " + checkpoint.getNext() + " of " + ballots.size());
+        }
+
+        System.out.println("Recounting " + election.getTitle() + " (" + election.getEid() + "), "
+                + ballots.size() + " ballots on " + threads + " threads");
+
+        TallyEngine engine = new TallyEngine(threads);
+        int start = checkpoint.getNext();
+        long began = System.nanoTime();
+
+        for(int from=start; from<ballots.size(); from+=BLOCK) {
+            int to = Math.min(from + BLOCK, ballots.size());
+            checkpoint.add(engine.count(election, ballots, from, to).getTotals(), to);
+            checkpoint.save(checkpointFile);
+
+            double seconds = (System.nanoTime() - began) / 1e9;
+            System.out.printf("Counted %d of %d ballots, %.0f ballots/s%n", to, ballots.size(), (to - start) / seconds);
+        }
+
+        double seconds = (System.nanoTime() - began) / 1e9;
+        if(ballots.size() > start) {
+            System.out.printf("Counted %d ballots in %.1fs, %.0f ballots/s%n", ballots.size() - start, seconds,
+                    (ballots.size() - start) / seconds);
+        }
+
+        //print the recount next to the recorded results
+        long[] counts = checkpoint.getCounts();
+        Map<String, String> recorded = election.getResults();
+        boolean matches = true;
+        for(int i=0; i<candidates; i++) {
+            String name = election.getCandidates().get(i);
+            String was = recorded == null ? null : recorded.get(name);
+            System.out.println(name + ": " + counts[i] + (was == null ? "" : " (recorded " + was + ")"));
+            if(was != null && !was.equals(Long.toString(counts[i]))) {
+                matches = false;
+            }
+        }
+        System.out.println("Blank: " + counts[candidates]);
+        System.out.println("Invalid: " + counts[candidates + 1]);
+
+        //the checkpoint is only needed until the recount finishes
+        if(!checkpointFile.delete()) {
+            System.err.println("Could not delete checkpoint " + checkpointFile);
+        }
+
+        if(recorded != null) {
+            System.out.println(matches ? "Recount matches the recorded results" : "Recount DOES NOT match the recorded results");
+        }
+        System.exit(matches ? 0 : 1);
+    }
+
+    /**
+     * Verify mix method
+     * Checks the last mixes proof against the ballots on the board and the mixed ballots,
+     * earlier mixes outputs aren't kept so their proofs can't be checked
+     * @param election election read from the export
+     * @return true if the proof holds or there was no mix
+     */
+    private static boolean verifyMix(Election election) {
+        List<BigInteger> output = election.getBoard().getShuffledBallots();
+        List<List<Proof>> mixes = new ArrayList<>(election.getProofs());
+        if(output == null || mixes.isEmpty() || mixes.get(mixes.size() - 1).isEmpty()) {
+            System.out.println("No mix to verify");
+            return true;
+        }
+        List<Proof> rounds = mixes.get(mixes.size() - 1);
+
+        //the mix took every ballot cast before it
+        List<BigInteger> input = election.getBoard().getBallots();
+        input = input.subList(0, Math.min(input.size(), rounds.get(0).getShadow().size()));
+
+        long began = System.nanoTime();
+        boolean valid = MixNet.verify(election.getCipher(), input, output, rounds);
+        System.out.printf("Proof of shuffle with %d rounds %s in %.1fs%n", rounds.size(),
+                valid ? "holds" : "DOES NOT hold", (System.nanoTime() - began) / 1e9);
+        return valid;
+    }
+
+    //SHA-256 over every ballot, ties a checkpoint to the board it was taken from
+    private static byte[] hash(List<BigInteger> ballots) throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        for(BigInteger b : ballots) {
+            byte[] bytes = b.toByteArray();
+            md.update((byte) (bytes.length >>> 8));
+            md.update((byte) bytes.length);
+            md.update(bytes);
+        }
+        return md.digest();
+    }
+
+    private static void usage() {
+        System.err.println("Usage: recount election.evote.gz [--checkpoint file] [--threads n] [--verify-mix]");
+        System.exit(2);
+    }
+}
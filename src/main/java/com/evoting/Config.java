@@ -2,19 +2,164 @@ package com.evoting;
 
 import com.evoting.models.Election;
 import com.evoting.models.User;
+import com.evoting.resources.ApiTokens;
+import com.evoting.resources.ClusterRing;
+import com.evoting.resources.ClusterRouter;
+import com.evoting.resources.ElectionArchive;
+import com.evoting.resources.KeySealer;
+import com.evoting.resources.MemoryBudget;
+import com.evoting.resources.MixPipeline;
+import com.evoting.resources.MixScheduler;
+import com.evoting.resources.ShardedTally;
+import com.evoting.resources.TallyEngine;
+import com.evoting.resources.VoteAdmission;
+import com.evoting.resources.PayloadConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.boot.web.server.Compression;
+import org.springframework.boot.web.server.ConfigurableWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.RestTemplate;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Configuration
 public class Config {
+    private static final Logger log = LoggerFactory.getLogger(Config.class);
+
+    @Bean
+    public ConcurrentHashMap<String, User> users() {
+        return new ConcurrentHashMap<>();
+    }
+    @Bean
+    public ConcurrentHashMap<String, Election> elections() {
+        return new ConcurrentHashMap<>();
+    }
+    @Bean
+    public ShardedTally shardedTally(@Value("${evoting.tally.workers:}") String workers,
+                                     @Value("${evoting.tally.partition-size:10000}") int partitionSize,
+                                     @Value("${evoting.tally.connect-timeout-ms:2000}") long connectTimeoutMs,
+                                     @Value("${evoting.tally.read-timeout-ms:60000}") long readTimeoutMs,
+                                     RestTemplateBuilder restTemplateBuilder) {
+        //comma separated base urls of local worker instances, empty tallies in this process.
+        //a worker that doesn't connect or answer in time is treated as gone
+        RestTemplate rest = restTemplateBuilder
+                .setConnectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .setReadTimeout(Duration.ofMillis(readTimeoutMs))
+                .build();
+        return new ShardedTally(urls(workers), partitionSize, rest);
+    }
+    @Bean
+    public TallyEngine tallyEngine(@Value("${evoting.tally.threads:0}") int threads) {
+        //threads decrypting ballots, defaults to one per core
+        return new TallyEngine(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+    }
+    @Bean
+    public ElectionArchive electionArchive(@Value("${evoting.archive.dir:archive}") String dir,
+                                           @Value("${evoting.archive.cache-size:8}") int cacheSize,
+                                           @Value("${evoting.archive.secret:}") String secret,
+                                           @Value("${evoting.api.jwt-secret:}") String apiSecret) {
+        //closed elections are kept on disk, with the most recently viewed ones cached.
+        //private keys are sealed under the archive secret, or the api secret cluster nodes share already,
+        //and archives only live as long as the process, so a random key does when neither is set
+        String keySecret = secret.isEmpty() ? apiSecret : secret;
+        byte[] key = keySecret.getBytes(StandardCharsets.UTF_8);
+        if(keySecret.isEmpty()) {
+            key = new byte[32];
+            new SecureRandom().nextBytes(key);
+        }
+        return new ElectionArchive(new File(dir), cacheSize, new KeySealer(key));
+    }
+    @Bean
+    public MemoryBudget memoryBudget(@Value("${evoting.memory.budget-mb:0}") long budgetMb, ElectionArchive electionArchive) {
+        //defaults to the max heap, which is also the default limit on the direct memory ballots are kept in
+        long budget = budgetMb > 0 ? budgetMb * 1024 * 1024 : Runtime.getRuntime().maxMemory();
+        return new MemoryBudget(budget, elections(), electionArchive);
+    }
     @Bean
-    public ConcurrentHashMap users() {
-        return new ConcurrentHashMap<String, User>();
+    public MixScheduler mixScheduler(@Value("${evoting.mix.threads:0}") int threads) {
+        //threads shared by every elections mix, defaults to one per core
+        return new MixScheduler(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
     }
     @Bean
-    public ConcurrentHashMap elections() {
-        return new ConcurrentHashMap<String, Election>();
+    public MixPipeline mixPipeline(MixScheduler mixScheduler, MemoryBudget memoryBudget,
+                                   @Value("${evoting.mix.proof-rounds:80}") int rounds,
+                                   @Value("${evoting.mix.batch-size:4096}") int batchSize) {
+        //seals batches of ballots for the next mix while voting is open, a batch size of 0 turns it off
+        return new MixPipeline(mixScheduler, memoryBudget, Math.max(1, rounds), batchSize);
+    }
+    @Bean
+    public VoteAdmission voteAdmission(@Value("${evoting.vote.max-concurrency:0}") int limit,
+                                       @Value("${evoting.vote.max-queue:200}") int queue,
+                                       @Value("${evoting.vote.max-waiting:0}") int waiting,
+                                       @Value("${evoting.vote.max-wait-ms:2000}") long waitMs,
+                                       @Value("${server.tomcat.max-threads:200}") int threads) {
+        //a waiting vote holds a request thread, so all of them together take a quarter of the threads by default,
+        //and never all of them
+        int total = waiting > 0 ? Math.min(waiting, threads / 2) : threads / 4;
+        //votes encrypting at once per election, defaults to two per core
+        return new VoteAdmission(limit > 0 ? limit : 2 * Runtime.getRuntime().availableProcessors(),
+                Math.min(queue, total), total, waitMs);
+    }
+    @Bean
+    public ApiTokens apiTokens(@Value("${evoting.api.jwt-secret:}") String secret) {
+        //without a configured secret, only tokens minted by this process are accepted
+        if(secret.isEmpty()) {
+            log.warn("evoting.api.jwt-secret is not set, using a random key for this run");
+            byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            return new ApiTokens(key);
+        }
+        return new ApiTokens(secret.getBytes(StandardCharsets.UTF_8));
+    }
+    @Bean
+    public ClusterRing clusterRing(@Value("${evoting.cluster.self:}") String self,
+                                   @Value("${evoting.cluster.nodes:}") String nodes,
+                                   @Value("${evoting.api.jwt-secret:}") String secret) {
+        //without this nodes own url it runs alone and holds every election
+        if(!self.isEmpty() && secret.isEmpty()) {
+            throw new IllegalStateException("evoting.api.jwt-secret must be set so cluster nodes can trust each other");
+        }
+        return new ClusterRing(self.trim(), urls(nodes));
+    }
+    @Bean
+    public WebServerFactoryCustomizer<ConfigurableWebServerFactory> compression(@Value("${evoting.http.compress-min-bytes:2048}") int minBytes) {
+        //gzip for clients that accept it, the JDK has no brotli encoder
+        Compression compression = new Compression();
+        compression.setEnabled(minBytes > 0);
+        compression.setMinResponseSize(DataSize.ofBytes(minBytes));
+        compression.setMimeTypes(new String[]{"application/json", PayloadConverter.CBOR_VALUE, "text/html", "text/css",
+                "application/javascript", "text/plain"});
+        return factory -> factory.setCompression(compression);
+    }
+    @Bean
+    public ClusterRouter clusterRouter(ClusterRing clusterRing, ApiTokens apiTokens, ElectionArchive electionArchive,
+                                       @Value("${evoting.cluster.connect-timeout-ms:2000}") int connectTimeoutMs,
+                                       @Value("${evoting.cluster.read-timeout-ms:60000}") int readTimeoutMs,
+                                       @Value("${evoting.cluster.listing-timeout-ms:1000}") int listingTimeoutMs) {
+        //a node that doesn't connect or answer in time is treated as unavailable
+        return new ClusterRouter(clusterRing, apiTokens, electionArchive, connectTimeoutMs, readTimeoutMs, listingTimeoutMs);
+    }
+
+    //splits a comma separated list of base urls
+    private static ArrayList<String> urls(String list) {
+        ArrayList<String> urls = new ArrayList<>();
+        for(String url : Arrays.asList(list.split(","))) {
+            if(!url.trim().isEmpty()) {
+                urls.add(url.trim());
+            }
+        }
+        return urls;
     }
 }
@@ -1,15 +1,40 @@
 package com.evoting;
 
+import com.evoting.resources.ClusterRouter;
+import com.evoting.resources.PayloadConverter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import javax.annotation.Resource;
+import java.util.List;
+
 @Configuration
 @EnableWebMvc
 public class MvcConfig implements WebMvcConfigurer {
 
+    @Resource
+    private ClusterRouter clusterRouter;    //sends requests to the node holding their election
+
+    @Value("${evoting.http.compress-min-bytes:2048}")
+    private int compressMinBytes;   //smaller payloads are sent whole, with their length, and not compressed
+
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
         registry.addResourceHandler("/**").addResourceLocations("classpath:/static/");
     }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(clusterRouter).addPathPatterns("/election/**", "/api/elections/**", "/join");
+    }
+
+    //ahead of jackson, so payloads go out as JSON or CBOR by the Accept header
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(0, new PayloadConverter(compressMinBytes));
+    }
 }
@@ -1,9 +1,21 @@
 package com.evoting;
 
+import com.evoting.models.User;
+import com.evoting.resources.ApiTokens;
+import com.evoting.resources.ClusterIdentityFilter;
+import com.evoting.resources.ClusterRouter;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.web.authentication.AnonymousAuthenticationFilter;
 import org.springframework.security.web.csrf.CookieCsrfTokenRepository;
+import org.springframework.security.web.util.matcher.RequestHeaderRequestMatcher;
+
+import javax.annotation.Resource;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Configuration
 public class SecurityConfig extends WebSecurityConfigurerAdapter {
@@ -13,6 +25,15 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
         http.authorizeRequests()
                 .antMatchers("/oauth_login")
                 .permitAll()
+                //tally workers only take partitions from a coordinator on the same machine
+                .antMatchers("/worker/**")
+                .access("hasIpAddress('127.0.0.1') or hasIpAddress('::1')")
+                //memory use and the like, for operators on the same machine
+                .antMatchers("/manage/**")
+                .access("hasIpAddress('127.0.0.1') or hasIpAddress('::1')")
+                //only other cluster nodes, through the cluster chain
+                .antMatchers("/cluster/**")
+                .denyAll()
                 .anyRequest()
                 .authenticated()
                 .and()
@@ -27,4 +48,67 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
                 .csrf().disable();
    }
 
-}
\ No newline at end of file
+    /**
+     * Stateless api for kiosks and integration clients, authenticated with bearer tokens
+     * checked against the local key instead of a login session
+     */
+    @Configuration
+    @Order(1)
+    public static class ApiSecurityConfig extends WebSecurityConfigurerAdapter {
+
+        @Autowired
+        private ApiTokens apiTokens;
+
+        @Override
+        protected void configure(HttpSecurity http) throws Exception {
+            http.antMatcher("/api/**")
+                    .authorizeRequests()
+                    .anyRequest()
+                    .authenticated()
+                    .and()
+                    .sessionManagement()
+                    .sessionCreationPolicy(SessionCreationPolicy.STATELESS)
+                    .and()
+                    .oauth2ResourceServer()
+                    .jwt()
+                    .decoder(apiTokens)
+                    .and()
+                    .and()
+                    .csrf().disable();
+        }
+    }
+
+    /**
+     * Requests forwarded by another cluster node, or calls between nodes.
+     * They carry a cluster token instead of a login session, so no session is made for them
+     */
+    @Configuration
+    @Order(2)
+    public static class ClusterSecurityConfig extends WebSecurityConfigurerAdapter {
+
+        @Autowired
+        private ApiTokens apiTokens;
+
+        @Resource
+        private ConcurrentHashMap<String, User> users;
+
+        @Override
+        protected void configure(HttpSecurity http) throws Exception {
+            http.requestMatcher(new RequestHeaderRequestMatcher(ClusterRouter.TOKEN_HEADER))
+                    .addFilterBefore(new ClusterIdentityFilter(apiTokens, users), AnonymousAuthenticationFilter.class)
+                    .authorizeRequests()
+                    .antMatchers("/worker/**")
+                    .access("hasIpAddress('127.0.0.1') or hasIpAddress('::1')")
+                    .antMatchers("/cluster/**")
+                    .hasRole("CLUSTER_NODE")
+                    .anyRequest()
+                    .authenticated()
+                    .and()
+                    .sessionManagement()
+                    .sessionCreationPolicy(SessionCreationPolicy.STATELESS)
+                    .and()
+                    .csrf().disable();
+        }
+    }
+
+}
@@ -0,0 +1,561 @@
+package com.evoting.controllers;
+
+import com.evoting.models.Election;
+import com.evoting.models.User;
+import com.evoting.resources.ApiTokens;
+import com.evoting.resources.MixPipeline;
+import com.evoting.resources.Payload;
+import com.evoting.resources.PayloadConverter;
+import com.evoting.resources.VoteAdmission;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+@Controller
+public class ApiController {
+
+    private static final int BATCH = 4096;  //uploaded ballots checked and appended together
+    private static final int MAX_ERRORS = 1000; //rejected ballots listed in the response
+    private static final int MAX_LINE = 1024;   //longest voter roll line read, the rest of a longer one is skipped
+    private static final int MAX_EMAIL = 254;   //longest email address
+
+    @Resource
+    private ConcurrentHashMap<String, User> users;  //users hashmap
+
+    @Resource
+    private ConcurrentHashMap<String, Election> elections;  //elections hashmap
+
+    @Resource
+    private VoteAdmission voteAdmission;    //limits votes being cast at once
+
+    @Resource
+    private ElectionController electionController;  //for encrypting votes
+
+    @Resource
+    private MixPipeline mixPipeline;    //gets elections ready to mix while voting is open
+
+    /**
+     * Method for getting an elections info
+     * @param eid UUID of the election
+     * @param jwt bearer token of the client
+     * @return title, candidates, most selections and whether the election is closed
+     */
+    @GetMapping(value = "/api/elections/{eid}", produces = "application/json")
+    @ResponseBody
+    public ResponseEntity<HashMap<String, Object>> election(@PathVariable String eid, @AuthenticationPrincipal Jwt jwt) {
+
+        Election election = elections.get(eid); //selected election
+
+        if(election == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        HashMap<String, Object> info = new HashMap<>(); //election info
+        info.put("eid", election.getEid());
+        info.put("title", election.getTitle());
+        info.put("candidates", election.getCandidates());
+        info.put("maxSelections", election.getMaxSelections());
+        info.put("closed", election.isClosed());
+
+        return ResponseEntity.ok(info);
+    }
+
+    /**
+     * Method for casting a vote without a session
+     * @param eid UUID of the election
+     * @param jwt bearer token of the voter
+     * @param request http request, with a choice parameter for each selected candidate
+     * @return status of the vote
+     */
+    @PostMapping(value = "/api/elections/{eid}/votes", produces = "application/json")
+    @ResponseBody
+    public ResponseEntity<HashMap<String, String>> vote(@PathVariable String eid, @AuthenticationPrincipal Jwt jwt,
+                                                        HttpServletRequest request) {
+
+        Election election = elections.get(eid); //selected election
+        User voter = users.get(ApiTokens.email(jwt));   //voter from the token
+
+        if(election == null) {
+            return status(HttpStatus.NOT_FOUND, "No such election");
+        }
+        if(voter == null || !election.getParticipants().containsKey(voter)) {
+            return status(HttpStatus.FORBIDDEN, "Not a participant in this election");
+        }
+        if(election.isClosed()) {
+            return status(HttpStatus.CONFLICT, "Election is closed");
+        }
+
+        BigInteger plainText;   //every selected candidates slot set
+        try {
+            plainText = election.encodeBallot(election.selections(request.getParameterValues("choice")));
+        } catch (IllegalArgumentException e) {
+            return status(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+
+        //wait for room to encrypt, or tell the client when to try again
+        VoteAdmission.Permit permit = voteAdmission.acquire(eid);
+        if(permit == null) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header("Retry-After", Long.toString(voteAdmission.retryAfter(eid)))
+                    .body(message("Too many votes being cast, try again shortly"));
+        }
+
+        try {
+            //the voter is marked before the ballot goes on so two requests can't both cast
+            String refused = election.cast(voter, electionController.encryptVote(plainText, eid));
+            //once moved, the retry is sent on to the node that holds it
+            if(Election.MOVING.equals(refused)) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header("Retry-After", Integer.toString(Election.MOVING_RETRY))
+                        .body(message(refused));
+            }
+            if(refused != null) {
+                return status(HttpStatus.CONFLICT, refused);
+            }
+            mixPipeline.ballotsAdded(election);
+        } finally {
+            permit.release();
+        }
+
+        return status(HttpStatus.OK, "Vote cast");
+    }
+
+    /**
+     * Method for getting the results of a closed election
+     * @param eid UUID of the election
+     * @param jwt bearer token of the client
+     * @param request http request, for If-None-Match
+     * @return results of the election, or 304 if the client has them
+     */
+    @GetMapping(value = "/api/elections/{eid}/results", produces = {"application/json", PayloadConverter.CBOR_VALUE})
+    @ResponseBody
+    public ResponseEntity<Payload> results(@PathVariable String eid, @AuthenticationPrincipal Jwt jwt, HttpServletRequest request) {
+
+        Election election = elections.get(eid); //selected election
+
+        if(election == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new Payload(message("No such election")));
+        }
+        if(election.getResults() == null) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new Payload(message("Election has not been tallied")));
+        }
+
+        return electionController.resultsResponse(election, request);
+    }
+
+    /**
+     * Method for paging through the bulletin board
+     * @param eid UUID of the election
+     * @param cursor index of the first ballot on the page, from the previous pages next
+     * @param request http request, for If-None-Match
+     * @return page of ballots, in hex for JSON or as bytes for CBOR, and the cursor of the next page
+     */
+    @GetMapping(value = "/api/elections/{eid}/board", produces = {"application/json", PayloadConverter.CBOR_VALUE})
+    @ResponseBody
+    public ResponseEntity<Payload> board(@PathVariable String eid, @RequestParam(defaultValue = "0") int cursor,
+                                         HttpServletRequest request) {
+        return electionController.boardPage(eid, cursor, request);
+    }
+
+    /**
+     * Method for uploading ballots that were encrypted by a polling station.
+     * The body is a stream of records, each a 2 byte length and the voters email in UTF-8,
+     * then a 2 byte length and the unsigned big endian ciphertext. Records are read in batches,
+     * each batch is checked in parallel and its accepted ballots are appended to the board together
+     * @param eid UUID of the election
+     * @param jwt bearer token of the owner or a client with the ballots:upload scope for this election
+     * @param request http request with the ballot stream
+     * @return number of ballots accepted, and the rejected records with reasons
+     */
+    @PostMapping(value = "/api/elections/{eid}/ballots", consumes = "application/octet-stream", produces = "application/json")
+    @ResponseBody
+    public ResponseEntity<HashMap<String, Object>> uploadBallots(@PathVariable String eid, @AuthenticationPrincipal Jwt jwt,
+                                                                 HttpServletRequest request) throws IOException {
+
+        Election election = elections.get(eid); //selected election
+        HashMap<String, Object> summary = new HashMap<>();  //upload summary
+
+        if(election == null) {
+            summary.put("status", "No such election");
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(summary);
+        }
+
+        boolean proxy = ApiTokens.hasScope(jwt, ApiTokens.uploadScope(eid));
+        if(!proxy && !election.getOwner().equals(ApiTokens.email(jwt))) {
+            summary.put("status", "Not allowed to upload ballots");
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(summary);
+        }
+        if(election.isClosed()) {
+            summary.put("status", "Election is closed");
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(summary);
+        }
+        if(!electionController.acceptsClientBallots(election)) {
+            summary.put("status", "This election only takes ballots it encrypts itself");
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(summary);
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(request.getInputStream()));
+        HashMap<Integer, String> errors = new HashMap<>();  //record number to reason
+        int accepted = 0;
+        int rejected = 0;
+        int read = 0;
+        boolean done = false;
+        String stopped = null;  //why the election stopped taking ballots part way through
+
+        while(!done) {
+            List<Submission> batch = new ArrayList<>();
+
+            //read up to a batch of records
+            try {
+                while(batch.size() < BATCH) {
+                    int hi = in.read();
+                    if(hi < 0) {
+                        done = true;
+                        break;
+                    }
+                    byte[] email = new byte[(hi << 8) | in.readUnsignedByte()];
+                    in.readFully(email);
+                    byte[] cipher = new byte[in.readUnsignedShort()];
+                    in.readFully(cipher);
+                    batch.add(new Submission(read++, new String(email, StandardCharsets.UTF_8), new BigInteger(1, cipher)));
+                }
+            } catch (EOFException e) {
+                summary.put("status", "Stream ended inside record " + read);
+                summary.put("accepted", accepted);
+                summary.put("rejected", rejected);
+                summary.put("errors", errors);
+                return ResponseEntity.badRequest().body(summary);
+            }
+
+            //a tally may have closed the election since the last batch
+            if(election.isClosed() || election.isArchived()) {
+                for(Submission sub : batch) {
+                    sub.error = Election.CLOSED;
+                }
+                stopped = Election.CLOSED;
+                done = true;
+            } else {
+                //check the batch in parallel then append what passed in one go
+                batch.parallelStream().forEach(sub -> check(election, sub));
+                List<Submission> passed = batch.stream().filter(sub -> sub.error == null).collect(Collectors.toList());
+                boolean[] added = election.addVotes(passed.stream().map(sub -> sub.cipherText).collect(Collectors.toList()));
+                String refused = added == null ? (election.isMoving() ? Election.MOVING : Election.CLOSED) : null;
+
+                //copies of ballots on the board are refused, and their voter can vote again,
+                //as can every voter of a batch the election closed or moved before taking
+                for(int i=0; i<passed.size(); i++) {
+                    if(added == null || !added[i]) {
+                        passed.get(i).error = added == null ? refused : "Ballot is already on the board";
+                        election.uncast(users.get(passed.get(i).email));
+                    }
+                }
+                if(added == null) {
+                    stopped = refused;
+                    done = true;
+                } else {
+                    mixPipeline.ballotsAdded(election);
+                }
+            }
+
+            for(Submission sub : batch) {
+                if(sub.error == null) {
+                    accepted++;
+                } else {
+                    rejected++;
+                    if(errors.size() < MAX_ERRORS) {
+                        errors.put(sub.record, sub.error);
+                    }
+                }
+            }
+        }
+
+        summary.put("status", stopped != null ? stopped + ", the rest of the upload was not read" : "Upload complete");
+        summary.put("accepted", accepted);
+        summary.put("rejected", rejected);
+        summary.put("errors", errors);
+        if(Election.MOVING.equals(stopped)) {
+            //ballots that made it are on the board that moves, the rest can be sent again once it has
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", Integer.toString(Election.MOVING_RETRY)).body(summary);
+        }
+        return ResponseEntity.status(stopped != null ? HttpStatus.CONFLICT : HttpStatus.OK).body(summary);
+    }
+
+    /**
+     * Method for importing a voter roll.
+     * The body is CSV, with the emails in the first column or the one headed email, or ndjson, each line
+     * a JSON string or an object with an email field. Lines are read in batches, each batch is added
+     * to the election under one lock, and a progress line is sent back after each one. Only a batch is
+     * held at a time, so any size of roll is imported in the same memory
+     * @param eid UUID of the election
+     * @param jwt bearer token of the owner
+     * @param request http request with the roll
+     * @param response ndjson progress lines, then a summary with the rejected lines and reasons
+     */
+    @PostMapping(value = "/api/elections/{eid}/voters", consumes = {"text/csv", "application/x-ndjson", "application/ndjson"},
+            produces = "application/x-ndjson")
+    public void importVoters(@PathVariable String eid, @AuthenticationPrincipal Jwt jwt, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+
+        Election election = elections.get(eid); //selected election
+        Payload summary = new Payload();    //import summary
+
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        OutputStream out = response.getOutputStream();
+
+        if(election == null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            summary.put("status", "No such election");
+            line(out, summary);
+            return;
+        }
+        if(!election.getOwner().equals(ApiTokens.email(jwt))) {
+            response.setStatus(HttpStatus.FORBIDDEN.value());
+            summary.put("status", "Only the owner can import voters");
+            line(out, summary);
+            return;
+        }
+        if(election.isClosed()) {
+            response.setStatus(HttpStatus.CONFLICT.value());
+            summary.put("status", "Election is closed");
+            line(out, summary);
+            return;
+        }
+
+        boolean csv = request.getContentType().startsWith("text/csv");
+        Reader in = new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8));
+        StringBuilder text = new StringBuilder();   //current line
+        Payload errors = new Payload(); //line number to reason
+        int column = 0; //csv column holding the email
+        int lines = 0;
+        int joined = 0;
+        int rejected = 0;
+        boolean done = false;
+
+        while(!done) {
+            List<Integer> numbers = new ArrayList<>();  //line number of each email in the batch
+            List<String> batch = new ArrayList<>();
+
+            //read up to a batch of voters
+            while(batch.size() < BATCH) {
+                int length = readLine(in, text);
+                if(length < 0) {
+                    done = true;
+                    break;
+                }
+                lines++;
+                String line = text.toString().trim();
+                if(line.isEmpty()) {
+                    continue;
+                }
+                if(length > MAX_LINE) {
+                    rejected++;
+                    reject(errors, lines, "Line too long");
+                    continue;
+                }
+                //a csv header names the email column
+                if(csv && lines == 1 && line.indexOf('@') < 0) {
+                    column = Math.max(0, Arrays.asList(csvFields(line)).indexOf("email"));
+                    continue;
+                }
+                String email = csv ? csvEmail(line, column) : ndjsonEmail(line);
+                if(email == null || !isEmail(email)) {
+                    rejected++;
+                    reject(errors, lines, "Not an email");
+                    continue;
+                }
+                batch.add(email);
+                numbers.add(lines);
+            }
+
+            //voters who haven't logged in yet are known by their email until they do, made only once they join
+            User[] added = election.joinAll(batch, email -> users.computeIfAbsent(email, k -> new User(k, k, "")));
+            for(int i=0; i<batch.size(); i++) {
+                if(added[i] != null) {
+                    added[i].addJoined(election);
+                    joined++;
+                } else {
+                    User known = users.get(batch.get(i));
+                    rejected++;
+                    reject(errors, numbers.get(i), known != null && election.getParticipants().containsKey(known)
+                            ? "Already a participant" : election.isMoving() ? Election.MOVING : "Election is full");
+                }
+            }
+
+            if(!done) {
+                Payload progress = new Payload();
+                progress.put("lines", lines);
+                progress.put("joined", joined);
+                progress.put("rejected", rejected);
+                line(out, progress);
+            }
+        }
+
+        summary.put("status", "Import complete");
+        summary.put("lines", lines);
+        summary.put("joined", joined);
+        summary.put("rejected", rejected);
+        summary.put("participants", election.getParticipants().size());
+        summary.put("errors", errors);
+        line(out, summary);
+    }
+
+    /**
+     * Check method
+     * Checks an uploaded ballot is a valid ciphertext for the election and its voter can still vote,
+     * then marks the voter as voted
+     * @param election election being uploaded to
+     * @param sub uploaded ballot, its error is set if it is rejected
+     */
+    private void check(Election election, Submission sub) {
+        if(!election.isCiphertext(sub.cipherText)) {
+            sub.error = "Ciphertext out of range";
+            return;
+        }
+
+        User voter = users.get(sub.email);
+        if(voter == null || !election.getParticipants().containsKey(voter)) {
+            sub.error = "Not a participant";
+            return;
+        }
+        if(!election.castOnce(voter)) {
+            sub.error = "Already voted";
+        }
+    }
+
+    //one record from a ballot upload
+    private static class Submission {
+        private final int record;
+        private final String email;
+        private final BigInteger cipherText;
+        private String error;
+
+        Submission(int r, String e, BigInteger c) {
+            record = r;
+            email = e;
+            cipherText = c;
+        }
+    }
+
+    //one ndjson line, sent straight away so the client sees progress
+    private static void line(OutputStream out, Payload payload) throws IOException {
+        PayloadConverter.writeJson(payload, out);
+        out.write('\n');
+        out.flush();
+    }
+
+    private static void reject(Payload errors, int line, String reason) {
+        if(errors.size() < MAX_ERRORS) {
+            errors.put(Integer.toString(line), reason);
+        }
+    }
+
+    /**
+     * Read line method
+     * Reads one line into text, keeping at most MAX_LINE + 1 characters of it so a huge line can't use up memory
+     * @param in roll being imported
+     * @param text cleared and filled with the line
+     * @return length of the whole line, or -1 at the end of the roll
+     */
+    private static int readLine(Reader in, StringBuilder text) throws IOException {
+        text.setLength(0);
+        int length = 0;
+        int c = in.read();
+        if(c < 0) {
+            return -1;
+        }
+        while(c >= 0 && c != '\n') {
+            if(c != '\r' && length++ <= MAX_LINE) {
+                text.append((char) c);
+            }
+            c = in.read();
+        }
+        return length;
+    }
+
+    //fields of a csv line with any quotes around them removed, commas inside quotes aren't expected in a roll
+    private static String[] csvFields(String line) {
+        String[] fields = line.split(",", -1);
+        for(int i=0; i<fields.length; i++) {
+            String f = fields[i].trim();
+            if(f.length() >= 2 && f.startsWith("\"") && f.endsWith("\"")) {
+                f = f.substring(1, f.length() - 1);
+            }
+            fields[i] = f.toLowerCase().equals("email") ? "email" : f;
+        }
+        return fields;
+    }
+
+    private static String csvEmail(String line, int column) {
+        String[] fields = csvFields(line);
+        return column < fields.length ? fields[column] : null;
+    }
+
+    //a JSON string, or the email field of a JSON object
+    private static String ndjsonEmail(String line) {
+        int start = 0;
+        if(line.startsWith("{")) {
+            int key = line.indexOf("\"email\"");
+            if(key < 0) {
+                return null;
+            }
+            int colon = line.indexOf(':', key + 7);
+            if(colon < 0) {
+                return null;
+            }
+            start = colon + 1;
+            while(start < line.length() && Character.isWhitespace(line.charAt(start))) {
+                start++;
+            }
+        }
+        if(start >= line.length() || line.charAt(start) != '"') {
+            return null;
+        }
+        int end = line.indexOf('"', start + 1);
+        //escapes aren't expected in an email
+        if(end < 0 || line.lastIndexOf('\\', end) > start) {
+            return null;
+        }
+        return line.substring(start + 1, end);
+    }
+
+    private static boolean isEmail(String email) {
+        int at = email.indexOf('@');
+        if(at <= 0 || at != email.lastIndexOf('@') || at == email.length() - 1 || email.length() > MAX_EMAIL) {
+            return false;
+        }
+        for(int i=0; i<email.length(); i++) {
+            if(Character.isWhitespace(email.charAt(i)) || Character.isISOControl(email.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ResponseEntity<HashMap<String, String>> status(HttpStatus status, String msg) {
+        return ResponseEntity.status(status).body(message(msg));
+    }
+
+    private static HashMap<String, String> message(String msg) {
+        HashMap<String, String> body = new HashMap<>();
+        body.put("status", msg);
+        return body;
+    }
+}
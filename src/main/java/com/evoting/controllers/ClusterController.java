@@ -0,0 +1,255 @@
+package com.evoting.controllers;
+
+import com.evoting.models.Election;
+import com.evoting.models.User;
+import com.evoting.resources.ClusterRing;
+import com.evoting.resources.ClusterRouter;
+import com.evoting.resources.ElectionArchive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Controller
+public class ClusterController {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterController.class);
+
+    @Resource
+    private ConcurrentHashMap<String, User> users;  //users hashmap
+
+    @Resource
+    private ConcurrentHashMap<String, Election> elections;  //elections held on this node
+
+    @Resource
+    private ClusterRing clusterRing;    //which node holds each election
+
+    @Resource
+    private ClusterRouter clusterRouter;    //calls to other nodes
+
+    @Resource
+    private ElectionArchive electionArchive;    //closed elections on disk
+
+    //moves elections one membership change at a time, off the request that caused it
+    private final ExecutorService rebalancer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "cluster-rebalance");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Start method
+     * Once this node is serving, tells every configured node it has joined, learns of any nodes
+     * they know that this one doesn't, and hands over elections that now belong elsewhere
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if(!clusterRing.isEnabled()) {
+            return;
+        }
+        for(String peer : clusterRing.getPeers()) {
+            for(String member : clusterRouter.announce(peer, "join")) {
+                clusterRing.join(member);
+            }
+        }
+        rebalancer.submit(this::rebalance);
+    }
+
+    /**
+     * Stop method
+     * Hands every election to the nodes that hold them without this one, then tells them it has left
+     */
+    @PreDestroy
+    public void stop() {
+        if(!clusterRing.isEnabled()) {
+            return;
+        }
+        List<String> peers = clusterRing.getPeers();
+        clusterRing.leave(clusterRing.getSelf());
+        rebalance();
+        for(String peer : peers) {
+            clusterRouter.announce(peer, "leave");
+        }
+    }
+
+    /**
+     * Method for listing the nodes in the cluster
+     * @return base urls of every node this node knows of
+     */
+    @GetMapping(value = "/cluster/members", produces = "application/json")
+    @ResponseBody
+    public List<String> members() {
+        return clusterRing.getNodes();
+    }
+
+    /**
+     * Method for another node to join or leave the cluster
+     * @param node base url of the node
+     * @param action join or leave
+     * @return base urls of every node this node knows of, 400 for any other action
+     */
+    @PostMapping(value = "/cluster/members", produces = "application/json")
+    @ResponseBody
+    public ResponseEntity<List<String>> membership(@RequestParam String node, @RequestParam String action) {
+        if(!action.equals("join") && !action.equals("leave")) {
+            return ResponseEntity.badRequest().build();
+        }
+        boolean changed = action.equals("leave") ? clusterRing.leave(node) : clusterRing.join(node);
+
+        //elections next to the nodes points on the ring move to or from it
+        if(changed) {
+            rebalancer.submit(this::rebalance);
+        }
+        return ResponseEntity.ok(clusterRing.getNodes());
+    }
+
+    /**
+     * Method for receiving an election moved from another node
+     * Only elections the ring gives to this node are taken, so one sent on a stale view of the cluster
+     * is refused and stays with its sender
+     * @param request http request with the election in the live archive format
+     * @return status of the move, 409 if this node doesn't hold the election
+     */
+    @PostMapping(value = "/cluster/elections", consumes = "application/octet-stream", produces = "text/plain")
+    @ResponseBody
+    public ResponseEntity<String> receive(HttpServletRequest request) throws IOException {
+        Election election;
+        try (BufferedInputStream body = new BufferedInputStream(request.getInputStream())) {
+            String eid = ElectionArchive.peekEid(body);
+            if(!clusterRing.isLocal(eid)) {
+                log.warn("Refused election {}, it belongs to {}", eid, clusterRing.owner(eid));
+                return ResponseEntity.status(HttpStatus.CONFLICT).body("Election belongs to " + clusterRing.owner(eid));
+            }
+            election = electionArchive.readLive(new DataInputStream(body), users);
+        }
+        elections.put(election.getEid(), election);
+
+        //a closed election goes straight to this nodes archive
+        if(election.isClosed()) {
+            electionArchive.archive(election);
+        }
+        //the sender drops its copy on this answer
+        return ResponseEntity.ok(ClusterRouter.received(election.getEid()));
+    }
+
+    /**
+     * Method for another node to list a users elections held here
+     * @param email email of the user
+     * @return eid, owner, code, title and whether they have voted, for each election
+     */
+    @GetMapping(value = "/cluster/users/elections", produces = "application/json")
+    @ResponseBody
+    public List<HashMap<String, String>> userElections(@RequestParam String email) {
+        List<HashMap<String, String>> listings = new ArrayList<>();
+        User user = users.get(email);
+        if(user == null) {
+            return listings;
+        }
+        for(Election e : localElections(user)) {
+            HashMap<String, String> listing = new HashMap<>();
+            listing.put("eid", e.getEid());
+            listing.put("owner", e.getOwner());
+            listing.put("code", e.getCode());
+            listing.put("title", e.getTitle());
+            listing.put("voted", Boolean.toString(Boolean.TRUE.equals(e.getParticipants().get(user))));
+            listings.add(listing);
+        }
+        return listings;
+    }
+
+    /**
+     * Local elections method
+     * @param user user to look up
+     * @return elections the user owns or has joined that are held on this node
+     */
+    public List<Election> localElections(User user) {
+        List<Election> local = new ArrayList<>();
+        for(Election e : user.getOwnedElections()) {
+            if(elections.get(e.getEid()) == e) {
+                local.add(e);
+            }
+        }
+        for(Election e : user.getJoinedElections()) {
+            if(elections.get(e.getEid()) == e && !local.contains(e)) {
+                local.add(e);
+            }
+        }
+        return local;
+    }
+
+    /**
+     * Remote elections method
+     * Every other node is asked at once, and one that is down or slow is left off rather than holding the page
+     * @param email email of the user
+     * @return listings of the users elections held on every other node that answered in time
+     */
+    public List<HashMap<String, String>> remoteElections(String email) {
+        if(!clusterRing.isEnabled()) {
+            return new ArrayList<>();
+        }
+        return clusterRouter.listings(clusterRing.getPeers(), email);
+    }
+
+    /**
+     * Hand off method
+     * Moves an election to the node that holds it, keeping it here if that node can't take it.
+     * The election stops taking casts, joins and tallies before it is copied, so nothing it accepts
+     * is left behind, and this copy is only dropped once the new owner says it has the election
+     * @param e election, or archived stub
+     * @return true if the election moved
+     */
+    public boolean handOff(Election e) {
+        String owner = clusterRing.owner(e.getEid());
+        e.setMoving(true);
+        boolean moved = false;
+        try {
+            //resolved after moving is set, a tally under way may have archived it
+            moved = clusterRouter.transfer(electionArchive.resolve(e), owner);
+        } finally {
+            if(!moved) {
+                e.setMoving(false);
+            }
+        }
+        if(!moved) {
+            return false;
+        }
+        //requests refused while it moved are retried, and are now forwarded to the new owner
+        elections.remove(e.getEid(), e);
+        if(e.isArchived() && !electionArchive.file(e.getEid()).delete()) {
+            log.warn("Could not delete moved archive {}", e.getEid());
+        }
+        return true;
+    }
+
+    /**
+     * Rebalance method
+     * Hands over every election this node no longer holds.
+     * Casts, joins and tallies of an election are refused with 503 and a Retry-After while it moves,
+     * and requests that reach the new owner before the election does find nothing there,
+     * so membership is best changed while elections are quiet
+     */
+    private void rebalance() {
+        for(Election e : new ArrayList<>(elections.values())) {
+            if(!clusterRing.isLocal(e.getEid())) {
+                handOff(e);
+            }
+        }
+    }
+}
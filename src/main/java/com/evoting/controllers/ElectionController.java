@@ -1,33 +1,123 @@
 package com.evoting.controllers;
 
+import com.evoting.models.BulletinBoard;
 import com.evoting.models.Election;
 import com.evoting.models.Proof;
 import com.evoting.models.User;
-import com.evoting.resources.PaillierCipher;
+import com.evoting.resources.ElectionArchive;
+import com.evoting.resources.ElectionEvents;
+import com.evoting.resources.MemoryBudget;
+import com.evoting.resources.MerkleTree;
+import com.evoting.resources.MixNet;
+import com.evoting.resources.MixPipeline;
+import com.evoting.resources.MixScheduler;
+import com.evoting.resources.Cryptosystem;
 import com.evoting.resources.PaillierPubKey;
+import com.evoting.resources.Payload;
+import com.evoting.resources.PayloadConverter;
+import com.evoting.resources.ShardedTally;
+import com.evoting.resources.TallyEngine;
+import com.evoting.resources.VoteAdmission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 @Controller
 public class ElectionController {
 
+    private static final Logger log = LoggerFactory.getLogger(ElectionController.class);
+
+    private static final int BOARD_PAGE = 100;  //ballots per board page
+
     @Resource
     private ConcurrentHashMap<String, User> users;  //users hashmap
 
     @Resource
     private ConcurrentHashMap<String, Election> elections;  //elections hashmap
 
+    @Resource
+    private ShardedTally shardedTally;  //tally across worker processes
+
+    @Resource
+    private TallyEngine tallyEngine;    //decrypts and counts ballots one by one
+
+    @Value("${evoting.tally.decrypt-each:true}")
+    private boolean decryptEach;    //count each ballot so invalid ones are caught, instead of one homomorphic sum
+
+    @Value("${evoting.vote.client-ballots:true}")
+    private boolean clientBallots;  //take ballots encrypted in the browser or uploaded, which are only range checked
+
+    @Resource
+    private ElectionArchive electionArchive;    //closed elections on disk
+
+    @Resource
+    private MixScheduler mixScheduler;  //shares mixing threads fairly between elections
+
+    @Resource
+    private MixPipeline mixPipeline;    //gets elections ready to mix while voting is open
+
+    @Resource
+    private VoteAdmission voteAdmission;    //limits votes being cast at once
+
+    @Resource
+    private MemoryBudget memoryBudget;  //memory elections may hold
+
+    /**
+     * Check tally mode method
+     * A ballot encrypted elsewhere carries no proof it holds a valid vote, only a range check. Decrypting
+     * each ballot leaves out one with a count in several slots or more than one in a slot, but in a
+     * homomorphic sum it would add all of them, so the two can't be turned on together
+     */
+    @PostConstruct
+    public void checkTallyMode() {
+        if(clientBallots && !decryptEach) {
+            throw new IllegalStateException("evoting.tally.decrypt-each=false needs evoting.vote.client-ballots=false, "
+                    + "a ballot encrypted elsewhere could add any number of votes to the sum");
+        }
+    }
+
+    /**
+     * Decrypts each method
+     * @param election election to tally
+     * @return true if its ballots are decrypted one by one, so invalid ones are left out
+     */
+    public boolean decryptsEach(Election election) {
+        return decryptEach || !election.getCipher().decryptsSums();  //only some cryptosystems can decrypt the sum
+    }
+
+    /**
+     * Accepts client ballots method
+     * @param election election being voted in
+     * @return true if it takes ballots encrypted in the browser or uploaded
+     */
+    public boolean acceptsClientBallots(Election election) {
+        return clientBallots && decryptsEach(election);
+    }
+
     /**
      * Method to display selected elections page
      * @param eid UUID of the election
@@ -66,8 +156,7 @@ public class ElectionController {
             model.addAttribute("curId", election.getEid());
         }
 
-        //model for bulletin board
-        model.addAttribute("ballots", election.getBoard().getBallots());
+        //the bulletin board is loaded by the page a page at a time
 
         return "election";
     }
@@ -76,62 +165,172 @@ public class ElectionController {
      * Mix method to mix ballots upon button click
      * @param eid UUID of the election
      * @param auth token for the logged in user
+     * @param response http response, for refusing a mix that doesn't fit in memory
      * @return election page
      */
     @GetMapping(value = "/election/{eid}/mix")
     @ResponseBody
-    public String mix(@PathVariable String eid, OAuth2AuthenticationToken auth) {
+    public String mix(@PathVariable String eid, OAuth2AuthenticationToken auth, HttpServletResponse response) throws IOException {
 
         String currentUser = auth.getPrincipal().getAttributes().get("email").toString();   //current logged in user
         Election election = elections.get(eid); //current election
 
-        //set the mix net ballots
-        election.getMixNet().setBallots(election.getBoard().getBallots());
-
-        //mix once, more causes heap error
-        election.getBoard().setShuffledBallots(election.getMixNet().mix());
+        //nothing to mix once the election is closed
+        if(election.isClosed()) {
+            return "election";
+        }
 
-        //add the proof to the election
-        election.addProof(election.getMixNet().getProofs());
+        //a tally may close it while the mix waits, then there is nothing to do either
+        if(!mixWithinBudget(election, false) && !election.isClosed()) {
+            response.sendError(507, "Not enough memory to mix this election, try again once other mixes finish");
+            return null;
+        }
 
         return "election";
     }
 
     /**
-     * Tally method for tallying ballots upon button click
+     * Mix within budget method
+     * The output and every shadow of the proof must fit in the memory budget
+     * @param election election to mix
+     * @param closing true for the tally's last mix of a closed election
+     * @return false if the mix doesn't fit, or the election closed or was archived, and it wasn't run
+     */
+    private boolean mixWithinBudget(Election election, boolean closing) {
+        int rounds = mixPipeline.getRounds();
+        Cryptosystem cipher = election.getCipher();
+        BulletinBoard board = election.getBoard();
+        if(cipher == null || board == null) {
+            return false;
+        }
+        long estimate = MixNet.estimateBytes(cipher, board.getBallots().size(), rounds);
+        if(!memoryBudget.reserve(estimate)) {
+            return false;
+        }
+
+        try {
+            return election.mix(mixScheduler, rounds, closing);
+        } finally {
+            memoryBudget.release(estimate);
+        }
+    }
+
+    /**
+     * Tally method for tallying ballots upon button click.
+     * The ballots are counted once, and the frozen results are served from then on
      * @param eid UUID of the election
      * @param auth token for the logged in user
-     * @return results of the election
+     * @param request http request, for If-None-Match
+     * @param response http response, for refusing a tally that doesn't fit in memory or of a moving election
+     * @return results of the election, or 304 if the client has them
      */
-    @GetMapping(value = "/election/{eid}/tally", produces = "application/json")
+    @GetMapping(value = "/election/{eid}/tally", produces = {"application/json", PayloadConverter.CBOR_VALUE})
     @ResponseBody
-    public HashMap<String, String> tally(@PathVariable String eid, OAuth2AuthenticationToken auth) {
+    public ResponseEntity<Payload> tally(@PathVariable String eid, OAuth2AuthenticationToken auth,
+                                         HttpServletRequest request, HttpServletResponse response) throws IOException {
 
         String currentUser = auth.getPrincipal().getAttributes().get("email").toString();   //current logged in user
         Election election = elections.get(eid); //current election
 
-        PaillierCipher cipher = election.getPaillier(); //election cipher
+        //a tally under way is waited for, and a finished one is never counted again
+        Map<String, String> results = election.tallyOnce(() -> count(election), () -> {
+            //move the closed election out of memory, leaving the title and results
+            electionArchive.archive(election);
+            voteAdmission.forget(eid);
+        });
+
+        if(results == null && election.isMoving()) {
+            response.setHeader("Retry-After", Integer.toString(Election.MOVING_RETRY));
+            response.sendError(503, Election.MOVING);
+            return null;
+        }
+        if(results == null) {
+            response.sendError(507, "Not enough memory to tally this election, try again once other mixes finish");
+            return null;
+        }
+
+        return resultsResponse(election, request);
+    }
+
+    /**
+     * Results response method
+     * Results are frozen once tallied, so they are cached for good and revalidated by their tag
+     * @param election tallied election
+     * @param request http request, for If-None-Match
+     * @return results or 304 if the client has them
+     */
+    public ResponseEntity<Payload> resultsResponse(Election election, HttpServletRequest request) {
+        String etag = election.getResultsTag();
+        CacheControl cache = CacheControl.maxAge(365, TimeUnit.DAYS).cachePrivate();
+
+        if(etag.equals(request.getHeader("If-None-Match"))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cache).build();
+        }
 
-        HashMap<String, String> results = new HashMap<>();  //results map
+        return ResponseEntity.ok().eTag(etag).cacheControl(cache).varyBy("Accept").body(new Payload(election.getResults()));
+    }
 
-        CopyOnWriteArrayList<BigInteger> encBallots = election.getBoard().getShuffledBallots(); //encrypted ballots
-        ArrayList<BigInteger> decBallots = new ArrayList<>();   //decrypted ballots
+    /**
+     * Count method
+     * Decrypts and counts the mixed ballots, one by one or as one homomorphic sum
+     * @param election election to count
+     * @return votes for each candidate, or null if mixing or counting doesn't fit in the memory budget
+     */
+    private HashMap<String, String> count(Election election) {
 
-        //for each ballot, decrypt and add the list
-        for(int i=0; i<encBallots.size(); i++) {
-            decBallots.add(cipher.decrypt(encBallots.get(i)));
+        //the election is closed, so ballots cast since the last mix are the last ones and are mixed in now
+        List<BigInteger> shuffled = election.getBoard().getShuffledBallots();
+        if(shuffled == null || shuffled.size() != election.getBoard().getBallots().size()) {
+            if(!mixWithinBudget(election, true)) {
+                return null;
+            }
         }
 
-        //for each candidate get their name and number of votes
-        for(int j=0; j<election.getCandidates().size(); j++) {
-            results.put(election.getCandidates().get(j), Integer.toString(Collections.frequency(decBallots, BigInteger.valueOf(j))));
+        Cryptosystem cipher = election.getCipher(); //election cipher
+        boolean each = decryptsEach(election);  //one by one, or one homomorphic sum
+
+        List<BigInteger> encBallots = election.getBoard().getShuffledBallots(); //encrypted ballots
+
+        long estimate = TallyEngine.estimateBytes(encBallots.size());
+        if(!memoryBudget.reserve(estimate)) {
+            return null;
         }
 
-        //close the election
-        election.setClosed(true);
+        ElectionEvents.Tally event = new ElectionEvents.Tally();
+        event.begin();
+        long invalid = 0;   //ballots left out of the count
+
+        HashMap<String, String> results;    //votes for each candidate
+        try {
+            if(each) {
+                //decrypt every mixed ballot across the tally threads, leaving out any that aren't valid
+                TallyEngine.Counts counts = tallyEngine.count(election, encBallots);
+                if(counts.getInvalid() > 0) {
+                    log.warn("Election {} has {} invalid ballots, at mixed positions {}", election.getEid(), counts.getInvalid(),
+                            counts.getInvalidAt().subList(0, Math.min(100, counts.getInvalidAt().size())));
+                }
+                results = counts.results(election);
+                invalid = counts.getInvalid();
+            } else {
+                //multiply the ballots across the tally workers, the product encrypts the sum of every ballot
+                BigInteger product = shardedTally.product(encBallots, ((PaillierPubKey) cipher.getKeys().getPublic()).getNsqr());
+
+                //decrypt once and split the sum into each candidates votes
+                results = election.decodeTally(cipher.decrypt(product));
+            }
+        } finally {
+            memoryBudget.release(estimate);
+        }
 
-        //set the elections results
-        election.setResults(results);
+        event.end();
+        if(event.shouldCommit()) {
+            event.eid = election.getEid();
+            event.mode = each ? "decrypt-each" : "homomorphic";
+            event.ballots = encBallots.size();
+            event.invalid = invalid;
+            event.bytes = MemoryBudget.bytes(encBallots);
+            event.commit();
+        }
 
         return results;
     }
@@ -161,6 +360,8 @@ public class ElectionController {
 
             model.addAttribute("candidates", cands);
 
+            model.addAttribute("maxSelections", election.getMaxSelections());
+
             model.addAttribute("eid", election.getEid());
 
             return "vote";
@@ -170,34 +371,247 @@ public class ElectionController {
 
     /**
      * Vote method for casting a vote
+     * Votes over the elections concurrency limit wait in a bounded queue, and are turned away
+     * with 429 and Retry-After when the queue is full or they wait too long
      * @param eid UUID of the election
      * @param auth token for logged in user
      * @param request form data from http request
+     * @param response http response, for turning the vote away
      * @return vote page, redirecting to election
      */
     @GetMapping(value = "/election/{eid}/vote/cast")
-    public String vote(@PathVariable String eid, OAuth2AuthenticationToken auth, HttpServletRequest request) {
+    public String vote(@PathVariable String eid, OAuth2AuthenticationToken auth, HttpServletRequest request,
+                       HttpServletResponse response) throws IOException {
 
         String currentUser = auth.getPrincipal().getAttributes().get("email").toString();   //current logged in user
         Election election = elections.get(eid); //current election
 
-        Map<String, String[]> input = request.getParameterMap();    //map of inputs
-        String selection = input.get("choice")[0];  //option user selected
+        //no more ballots once the election is closed
+        if(election.isClosed()) {
+            return "vote";
+        }
 
-        int index = election.getCandidates().indexOf(selection);    //index of selected candidate
-        BigInteger plainText = BigInteger.valueOf(index);   //make into big int
+        User voter = users.get(currentUser);    //participant casting
+        if(voter == null || !election.getParticipants().containsKey(voter)) {
+            response.sendError(403, "Not a participant in this election");
+            return null;
+        }
+
+        //wait for room to encrypt, or tell the client when to try again
+        VoteAdmission.Permit permit = voteAdmission.acquire(eid);
+        if(permit == null) {
+            response.setHeader("Retry-After", Long.toString(voteAdmission.retryAfter(eid)));
+            response.sendError(429, "Too many votes being cast, try again shortly");
+            return null;
+        }
 
-        BigInteger cipherText = encryptVote(plainText, eid);    //encrypt big int based on election id
+        try {
+            Map<String, String[]> input = request.getParameterMap();    //map of inputs
+            BigInteger cipherText;  //ballot to add
+
+            //ballot encrypted in the browser, only needs checking
+            if(input.containsKey("ciphertext")) {
+                if(!acceptsClientBallots(election)) {
+                    response.sendError(403, "This election only takes ballots it encrypts itself");
+                    return null;
+                }
+                try {
+                    cipherText = new BigInteger(input.get("ciphertext")[0], 16);
+                } catch (NumberFormatException e) {
+                    cipherText = BigInteger.ZERO;
+                }
+                if(!election.isCiphertext(cipherText)) {
+                    response.sendError(400, "Ciphertext out of range");
+                    return null;
+                }
+            }
+            //else encrypt the selected candidates here
+            else {
+                BigInteger plainText;   //every selected candidates slot set
+                try {
+                    plainText = election.encodeBallot(election.selections(input.get("choice")));
+                } catch (IllegalArgumentException e) {
+                    response.sendError(400, e.getMessage());
+                    return null;
+                }
 
-        //add the vote to the bulletin board
-        election.getBoard().addVote(cipherText);
+                cipherText = encryptVote(plainText, eid);    //encrypt big int based on election id
+            }
 
-        //set the current user to already voted
-        election.hasCasted(users.get(currentUser));
+            //mark the user as voted and add the vote to the bulletin board,
+            //refusing a second vote or a copy of a ballot already on it
+            String refused = election.cast(voter, cipherText);
+            //once moved, the retry is sent on to the node that holds it
+            if(Election.MOVING.equals(refused)) {
+                response.setHeader("Retry-After", Integer.toString(Election.MOVING_RETRY));
+                response.sendError(503, refused);
+                return null;
+            }
+            if(refused != null) {
+                response.sendError(409, refused);
+                return null;
+            }
+            mixPipeline.ballotsAdded(election);
+        } finally {
+            permit.release();
+        }
 
         return "vote";
     }
 
+    /**
+     * Method for getting an elections public key so votes can be encrypted in the browser.
+     * The key never changes, so it is served with a strong ETag and cached for a year
+     * @param eid UUID of the election
+     * @param request http request, for If-None-Match
+     * @return public key, slot width, most selections and whether the browser may encrypt, or 304 if the client has it
+     */
+    @GetMapping(value = "/election/{eid}/key", produces = {"application/json", PayloadConverter.CBOR_VALUE})
+    @ResponseBody
+    public ResponseEntity<Payload> publicKey(@PathVariable String eid, HttpServletRequest request) {
+
+        Election election = elections.get(eid); //current election
+
+        if(election == null || election.isArchived()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        Cryptosystem cipher = election.getCipher();   //holds the pub key
+        boolean client = acceptsClientBallots(election);    //whether the browser encrypts
+        String etag = "\"" + election.getEid() + "-" + cipher.getKeyId().toString(36) + (client ? "" : "-s") + "\"";  //key identifies itself
+        CacheControl cache = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic();
+
+        if(etag.equals(request.getHeader("If-None-Match"))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cache).build();
+        }
+
+        Payload keyInfo = new Payload(cipher.describe());  //map for key info
+        keyInfo.put("algorithm", cipher.getAlgorithm());
+        keyInfo.put("slotBits", Integer.toString(election.getSlotBits()));
+        keyInfo.put("maxSelections", Integer.toString(election.getMaxSelections()));
+        keyInfo.put("clientBallots", Boolean.toString(client));
+
+        return ResponseEntity.ok().eTag(etag).cacheControl(cache).body(keyInfo);
+    }
+
+    /**
+     * Method for getting one page of the bulletin board
+     * @param eid UUID of the election
+     * @param cursor index of the first ballot on the page, from the previous pages next
+     * @param request http request, for If-None-Match
+     * @return page of ballots, in hex for JSON or as bytes for CBOR, and the cursor of the next page
+     */
+    @GetMapping(value = "/election/{eid}/board", produces = {"application/json", PayloadConverter.CBOR_VALUE})
+    @ResponseBody
+    public ResponseEntity<Payload> board(@PathVariable String eid, @RequestParam(defaultValue = "0") int cursor,
+                                         HttpServletRequest request) {
+        return boardPage(eid, cursor, request);
+    }
+
+    /**
+     * Board page method
+     * The board only grows, so a full page never changes and is cached forever. The last page
+     * is tagged with its size and revalidated, until the election closes and it is final too
+     * @param eid UUID of the election
+     * @param cursor index of the first ballot on the page
+     * @param request http request, for If-None-Match
+     * @return page of ballots or 304 if the client has it
+     */
+    public ResponseEntity<Payload> boardPage(String eid, int cursor, HttpServletRequest request) {
+        Election election = elections.get(eid); //current election
+
+        if(election == null || cursor < 0 || cursor % BOARD_PAGE != 0) {
+            return ResponseEntity.notFound().build();
+        }
+
+        List<BigInteger> ballots = electionArchive.resolve(election).getBoard().getBallots();   //board, loaded if archived
+        int end = Math.min(cursor + BOARD_PAGE, ballots.size());
+        boolean full = end - cursor == BOARD_PAGE;
+        boolean fixed = full || election.isClosed();    //page can't change any more
+
+        String etag = "\"" + eid + "-" + cursor + (fixed ? "" : "-" + Math.max(0, end - cursor)) + "\"";
+        CacheControl cache = fixed ? CacheControl.maxAge(365, TimeUnit.DAYS).cachePrivate() : CacheControl.noCache().cachePrivate();
+
+        if(etag.equals(request.getHeader("If-None-Match"))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cache).build();
+        }
+
+        //copied one by one up to the size read above, the board may grow while the page is written out
+        //and a view or iterator over it would fail on the growth
+        List<BigInteger> page = new ArrayList<>(Math.max(0, end - cursor));
+        for(int i=cursor; i<end; i++) {
+            page.add(ballots.get(i));
+        }
+
+        Payload body = new Payload();
+        body.put("ballots", page);
+        body.put("cursor", cursor);
+        body.put("next", full ? Integer.valueOf(end) : null);
+
+        //the same page is sent as JSON or CBOR, so caches have to keep them apart
+        return ResponseEntity.ok().eTag(etag).cacheControl(cache).varyBy("Accept").body(body);
+    }
+
+    /**
+     * Method for getting the published Merkle root of the bulletin board
+     * @param eid UUID of the election
+     * @return number of ballots covered and the root in hex
+     */
+    @GetMapping(value = "/election/{eid}/board/root", produces = {"application/json", PayloadConverter.CBOR_VALUE})
+    @ResponseBody
+    public Payload boardRoot(@PathVariable String eid) {
+
+        BulletinBoard board = electionArchive.resolve(elections.get(eid)).getBoard(); //board, loaded if archived
+
+        Payload rootInfo = new Payload();
+        rootInfo.put("size", Integer.toString(board.getPublishedSize()));
+        rootInfo.put("root", board.getPublishedRoot());
+
+        return rootInfo;
+    }
+
+    /**
+     * Method for proving a ballot is on the bulletin board.
+     * Hash the ballot as SHA-256(0x00 || ballot bytes), then for each step hash
+     * SHA-256(0x01 || left || right) with the sibling on the given side, and compare with the root
+     * @param eid UUID of the election
+     * @param ballot ciphertext in hex
+     * @return root, tree size and sibling hashes from the ballot up, or 404 if it isn't on the board
+     */
+    @GetMapping(value = "/election/{eid}/board/proof", produces = {"application/json", PayloadConverter.CBOR_VALUE})
+    @ResponseBody
+    public ResponseEntity<Payload> boardProof(@PathVariable String eid, @RequestParam String ballot) {
+
+        BulletinBoard board = electionArchive.resolve(elections.get(eid)).getBoard(); //board, loaded if archived
+
+        BigInteger c;
+        try {
+            c = new BigInteger(ballot, 16);
+        } catch (NumberFormatException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        MerkleTree.Proof inclusion = board.inclusionProof(c);
+        if(inclusion == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        ArrayList<Payload> path = new ArrayList<>();
+        for(MerkleTree.Step step : inclusion.getSteps()) {
+            Payload node = new Payload();
+            node.put("hash", step.getSibling());
+            node.put("side", step.isLeft() ? "left" : "right");
+            path.add(node);
+        }
+
+        Payload proof = new Payload();
+        proof.put("size", inclusion.getSize());
+        proof.put("root", inclusion.getRoot());
+        proof.put("path", path);
+
+        return ResponseEntity.ok(proof);
+    }
+
     /**
      * Verify method for verifying encryption
      * @param eid UUID of election
@@ -205,35 +619,29 @@ public class ElectionController {
      * @param request form data from http request
      * @return map of key info to display
      */
-    @GetMapping(value = "/election/{eid}/vote/verify", produces = "application/json")
+    @GetMapping(value = "/election/{eid}/vote/verify", produces = {"application/json", PayloadConverter.CBOR_VALUE})
     @ResponseBody
-    public HashMap<String, String> verify(@PathVariable String eid, OAuth2AuthenticationToken auth, HttpServletRequest request) {
+    public Payload verify(@PathVariable String eid, OAuth2AuthenticationToken auth, HttpServletRequest request) {
 
         String currentUser = auth.getPrincipal().getAttributes().get("email").toString();   //current logged in user
-        Election election = elections.get(eid); //selected election
+        Election election = electionArchive.resolve(elections.get(eid)); //selected election
 
         Map<String, String[]> input = request.getParameterMap();    //map of inputs
-        String selection = input.get("choice")[0];  //set selection to the user's choice
-
-        int index = election.getCandidates().indexOf(selection);    //get the index from list
-        BigInteger plainText = BigInteger.valueOf(index);   //make into big int
+        BigInteger plainText = election.encodeBallot(election.selections(input.get("choice")));  //set the selected candidates slots
 
-        PaillierCipher cipher = election.getPaillier(); //get cipher
+        Cryptosystem cipher = election.getCipher(); //get cipher
 
-        BigInteger cipherText = encryptVote(plainText, eid);    //encrypt vote
+        Cryptosystem.Encryption enc = cipher.encryptWithRandomness(plainText);  //encrypt vote, keeping its random
+        BigInteger cipherText = enc.getCipherText();
+        BigInteger rand = enc.getRandomness();
 
-        PaillierPubKey pk = election.getPaillierPubKey();   //get pub key
-        BigInteger rand = election.getPaillier().getR();    //get random
+        Payload keyInfo = new Payload(cipher.describe());  //public key, in hex
 
-        HashMap<String, String> keyInfo = new HashMap<>();  //map for key info
-
-        //add all the key info to the hashmap
-        keyInfo.put("encryption", cipherText.toString());
-        keyInfo.put("n", pk.getN().toString());
-        keyInfo.put("nsqr", pk.getNsqr().toString());
-        keyInfo.put("g", pk.getG().toString());
-        keyInfo.put("rand", rand.toString());
-        keyInfo.put("dec", cipher.decrypt(cipherText).toString());
+        //add the rest of the key info, big integers go out in hex or as bytes
+        keyInfo.put("algorithm", cipher.getAlgorithm());
+        keyInfo.put("encryption", cipherText);
+        keyInfo.put("rand", rand);
+        keyInfo.put("dec", String.valueOf(election.decodeBallot(cipher.decrypt(cipherText))));
 
         return keyInfo;
     }
@@ -265,56 +673,75 @@ public class ElectionController {
      * @param auth token for logged in user
      * @return map of proof for each mix
      */
-    @GetMapping("/election/{eid}/outputProof")
+    @GetMapping(value = "/election/{eid}/outputProof", produces = {"application/json", PayloadConverter.CBOR_VALUE})
     @ResponseBody
-    public HashMap<String, String> loadProof(@PathVariable String eid, OAuth2AuthenticationToken auth) {
+    public Payload loadProof(@PathVariable String eid, OAuth2AuthenticationToken auth) {
 
         String currentUser = auth.getPrincipal().getAttributes().get("email").toString();   //current logged in user
-        Election election = elections.get(eid); //current election
+        Election election = electionArchive.resolve(elections.get(eid)); //current election, loaded if archived
 
-        HashMap<String, String> proofInfo = new HashMap<>();    //map for proof info
+        Payload proofInfo = new Payload();    //map for proof info, in mix order
         CopyOnWriteArrayList<CopyOnWriteArrayList<Proof>> proofs = election.getProofs();    //proofs for the election
-        String curProof;    //string to hold proof
+        StringBuilder curProof;    //string to hold proof
 
-        //for each proof
+        //for each mix
         for(int i=0; i<proofs.size(); i++) {
-            //reset the string
-            curProof = "";
-            //get the tmp selected list
-            CopyOnWriteArrayList<Proof> tmpData = proofs.get(i);
-            //get the SHA hash of the selected proof
-            BigInteger tmpHash = tmpData.get(i).getHash();
-
-            //for 10 bits (could change for more lines)
-            for(int j=0; j<10; j++) {
-                //test the bit, if its a 1
-                if(tmpHash.testBit(j)) {
-                    //create proof for bit 1, including both randoms and permutation data
-                    curProof += "Bit: 1. \n";
-                    curProof += "Primary Random: " + tmpData.get(i).getPrimaryR() + ". \n";
-                    curProof += "Secondary Random: " + tmpData.get(i).getSecondaryR() + ". \n";
-                    for(int x=0; x<tmpData.get(i).getPrimaryShuffle().size(); x++) {
-                        curProof += "Primary Swap: " + tmpData.get(i).getPrimaryShuffle().get(x) + ". Secondary Swap: "
-                                + tmpData.get(i).getSecondaryShuffle().get(x) + ". \n";
-                    }
-                }
-                //else the bit is a 0
-                else {
-                    //create proof for bit 0, including secondary random and permutation data
-                    curProof += "Bit: 0. \n";
-                    curProof += "Secondary Random: " + tmpData.get(i).getSecondaryR() + ". \n";
-                    for(int y=0; y<tmpData.get(i).getSecondaryShuffle().size(); y++) {
-                        curProof += "Swap: " + tmpData.get(i).getSecondaryShuffle().get(y) + ". \n";
-                    }
-                }
+            CopyOnWriteArrayList<Proof> rounds = proofs.get(i);
+            curProof = new StringBuilder();
+            if(rounds.isEmpty()) {
+                proofInfo.put(Integer.toString(i), "No proof");
+                continue;
+            }
+            curProof.append("Challenge: ").append(rounds.get(0).getHash().toString(16)).append(". \n");
+            curProof.append("Rounds: ").append(rounds.size()).append(". \n");
+
+            //each round opens its shadow from the input for a 0, or the output from its shadow for a 1
+            for(Proof round : rounds) {
+                curProof.append("Round ").append(round.getRound() + 1).append(": bit ").append(round.isBit() ? 1 : 0)
+                        .append(round.isBit() ? ", shadow opened to the output" : ", shadow opened from the input").append(". \n");
             }
             //add the proof to the map
-            proofInfo.put(Integer.toString(i), curProof);
+            proofInfo.put(Integer.toString(i), curProof.toString());
         }
         //return map
         return proofInfo;
     }
 
+    /**
+     * Export method for downloading an election for an offline recount, in the same format as the archive.
+     * Only the owner may export, and only once the election is tallied, so no export shows ballots still being cast.
+     * The private key stays sealed as in the archive: the board is in cast order, so whoever can open the key
+     * can link ballots to voters, and only those holding the archive secret can
+     * @param eid UUID for election
+     * @param auth token of logged in user
+     * @param response http response to write the election to
+     */
+    @GetMapping("/election/{eid}/export")
+    public void export(@PathVariable String eid, OAuth2AuthenticationToken auth, HttpServletResponse response) throws IOException {
+
+        String currentUser = auth.getPrincipal().getAttributes().get("email").toString();   //current logged in user
+        Election election = electionArchive.resolve(elections.get(eid)); //current election, loaded if archived
+
+        if(election == null) {
+            response.sendError(404, "No such election");
+            return;
+        }
+        if(!election.getOwner().equals(currentUser)) {
+            response.sendError(403, "Only the owner can export an election");
+            return;
+        }
+        if(election.getResults() == null) {
+            response.sendError(409, "An election can only be exported once it is tallied");
+            return;
+        }
+
+        response.setContentType("application/octet-stream");
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + eid + ".evote.gz\"");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(response.getOutputStream())))) {
+            electionArchive.export(election, out);
+        }
+    }
+
     /**
      * Encrypt vote method for taking a vote and election and encrypting the vote
      * @param p plaintext Big int
@@ -322,9 +749,9 @@ public class ElectionController {
      * @return ciphertext
      */
     public BigInteger encryptVote(BigInteger p, String eid) {
-        Election election = elections.get(eid);
+        Election election = electionArchive.resolve(elections.get(eid));
 
-        PaillierCipher cipher = election.getPaillier();
+        Cryptosystem cipher = election.getCipher();
 
         return cipher.encrypt(p);
     }
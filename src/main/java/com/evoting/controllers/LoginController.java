@@ -21,6 +21,7 @@ public class LoginController {
     private ClientRegistrationRepository clientRegistrationRepository;
 
     @GetMapping("/oauth_login")
+    @SuppressWarnings("unchecked")  //the cast is checked against the resolved generic type first
     public String getLoginPage(Model model) {
 
         Iterable<ClientRegistration> clientRegistrations = null;
@@ -2,6 +2,12 @@ package com.evoting.controllers;
 
 import com.evoting.models.User;
 import com.evoting.models.Election;
+import com.evoting.resources.ClusterRing;
+import com.evoting.resources.PaillierCipher;
+import com.evoting.resources.TallyEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -10,18 +16,31 @@ import org.springframework.web.bind.annotation.PostMapping;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
 
 @Controller
 public class MainController {
 
+    private static final Logger log = LoggerFactory.getLogger(MainController.class);
+
     @Resource
     private ConcurrentHashMap<String, User> users;  //users that have logged in before
 
     @Resource
     private ConcurrentHashMap<String, Election> elections;  //created elections
 
+    @Resource
+    private ClusterRing clusterRing;    //which node holds each election
+
+    @Resource
+    private ClusterController clusterController;    //for elections held on other nodes
+
+    @Value("${evoting.crypto.cryptosystem:Paillier}")
+    private String cryptosystem;    //cryptosystem for elections whose owner doesn't pick one
+
     /**
      * Method for displaying users home page
      * @param model thymeleaf model for displaying info
@@ -54,16 +73,32 @@ public class MainController {
         usrOwnedElec = users.get(email).getOwnedElections();
         usrJoinedElec = users.get(email).getJoinedElections();
 
-        //for each of their elections, get it and if they have voted
+        //for each of their elections held here, get it and if they have voted
+        List<Election> local = clusterController.localElections(users.get(email));
         for(int i=0; i<usrOwnedElec.size(); i++) {
-            ownedElections.put(usrOwnedElec.get(i), usrOwnedElec.get(i).hasVoted(users.get(currentUser)));
+            if(local.contains(usrOwnedElec.get(i))) {
+                ownedElections.put(usrOwnedElec.get(i), usrOwnedElec.get(i).hasVoted(users.get(currentUser)));
+            }
         }
         for(int j=0; j<usrJoinedElec.size(); j++) {
-            joinedElections.put(usrJoinedElec.get(j), usrJoinedElec.get(j).hasVoted(users.get(currentUser)));
+            if(local.contains(usrJoinedElec.get(j))) {
+                joinedElections.put(usrJoinedElec.get(j), usrJoinedElec.get(j).hasVoted(users.get(currentUser)));
+            }
+        }
+
+        //and the ones held on other nodes
+        for(HashMap<String, String> listing : clusterController.remoteElections(email)) {
+            Election remote = new Election(listing.get("eid"), listing.get("owner"), listing.get("code"), listing.get("title"));
+            boolean voted = Boolean.parseBoolean(listing.get("voted"));
+            if(remote.getOwner().equals(email)) {
+                ownedElections.put(remote, voted);
+            } else {
+                joinedElections.put(remote, voted);
+            }
         }
 
         //for each of their owned elections display them or display message saying they dont have any
-        if(!usrOwnedElec.isEmpty()) {
+        if(!ownedElections.isEmpty()) {
             model.addAttribute("owned", ownedElections);
 
         } else {
@@ -71,7 +106,7 @@ public class MainController {
         }
 
         //for each of their joined elections display them or display message saying they dont have any
-        if(!usrJoinedElec.isEmpty()) {
+        if(!joinedElections.isEmpty()) {
             model.addAttribute("joined", joinedElections);
 
         } else {
@@ -85,10 +120,12 @@ public class MainController {
      * Method for creating an election
      * @param request form data from page
      * @param auth token for logged in user
+     * @param response http response, for refusing candidate names the results can't tell apart, or a cryptosystem
+     * that can't count these ballots
      * @return index page
      */
     @PostMapping("/create")
-    public String createElection(HttpServletRequest request, OAuth2AuthenticationToken auth) {
+    public String createElection(HttpServletRequest request, OAuth2AuthenticationToken auth, HttpServletResponse response) throws IOException {
 
         String currentUser = auth.getPrincipal().getAttributes().get("email").toString();   //get current user
 
@@ -102,14 +139,48 @@ public class MainController {
             cands.add(input.get("candidate")[i]);
         }
 
+        //the results map each name to its votes, next to the invalid ballots entry, so names can't repeat or take that one
+        Set<String> names = new HashSet<>();
+        for(String cand : cands) {
+            if(cand.equals(TallyEngine.INVALID) || !names.add(cand)) {
+                response.sendError(400, "Candidate names must be different, and \"" + TallyEngine.INVALID + "\" is taken");
+                return null;
+            }
+        }
+
+        //how many candidates a ballot may select, and how many voters the slots must count
+        int maxSelections = intParam(input, "maxSelections", 1);
+        int maxVoters = intParam(input, "maxVoters", Election.NO_VOTER_CAP);
+
+        String[] picked = input.get("cryptosystem");
+        boolean chosen = picked != null && !picked[0].trim().isEmpty();
+        String algorithm = chosen ? picked[0].trim() : cryptosystem;
+
         //create election, add the user to it
-        Election e = new Election(currentUser, title, cands);
+        Election e;
+        try {
+            e = new Election(currentUser, title, cands, maxSelections, maxVoters, algorithm);
+        } catch (IllegalArgumentException ex) {
+            //an owner who picked the cryptosystem is told it can't be used, rather than given another
+            if(chosen) {
+                response.sendError(400, ex.getMessage());
+                return null;
+            }
+            //paillier can count any ballot
+            log.warn("Creating {} with {}: {}", title, PaillierCipher.ALGORITHM, ex.getMessage());
+            e = new Election(currentUser, title, cands, maxSelections, maxVoters, PaillierCipher.ALGORITHM);
+        }
         e.joinElection(users.get(currentUser));
         users.get(currentUser).addOwned(e);
 
         //add election to elections concurrent hash map
         elections.put(e.getEid(), e);
 
+        //move it to the node that holds its eid
+        if(!clusterRing.isLocal(e.getEid())) {
+            clusterController.handOff(e);
+        }
+
         return "index";
     }
 
@@ -133,11 +204,10 @@ public class MainController {
 
             //if the code entered matches any
             if(entryElec.getCode().equals(inputCode)) {
-                //if the user is not already in the election
-                if(!entryElec.getParticipants().containsKey(users.get(currentUser))) {
-                    //add the user to the election and add the election to the users joined elections
+                //add the user to the election if they aren't in it and it has room,
+                //and add the election to the users joined elections
+                if(entryElec.join(users.get(currentUser))) {
                     users.get(currentUser).addJoined(entryElec);
-                    elections.get(entryElec.getEid()).joinElection(users.get(currentUser));
                 }
             }
         }
@@ -145,4 +215,17 @@ public class MainController {
         return "index";
     }
 
+    //optional whole number form field, the default if it is missing or not a number
+    private static int intParam(Map<String, String[]> input, String name, int def) {
+        String[] values = input.get(name);
+        if(values == null || values[0].trim().isEmpty()) {
+            return def;
+        }
+        try {
+            return Integer.parseInt(values[0].trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
 }
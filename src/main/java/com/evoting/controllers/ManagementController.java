@@ -0,0 +1,65 @@
+package com.evoting.controllers;
+
+import com.evoting.models.Election;
+import com.evoting.resources.ElectionArchive;
+import com.evoting.resources.MemoryBudget;
+import com.evoting.resources.MixNet;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Controller
+public class ManagementController {
+
+    @Resource
+    private ConcurrentHashMap<String, Election> elections;  //elections held on this node
+
+    @Resource
+    private ElectionArchive electionArchive;    //closed elections on disk
+
+    @Resource
+    private MemoryBudget memoryBudget;  //memory elections may hold
+
+    /**
+     * Method for reporting memory use, for operators on the same machine
+     * @return budget, reserved and used bytes, with the bytes each election holds, largest first.
+     * An elections total is its board, proofs and factors sealed for its next mix, as MemoryBudget counts it
+     */
+    @GetMapping(value = "/manage/memory", produces = "application/json")
+    @ResponseBody
+    public LinkedHashMap<String, Object> memory() {
+        List<LinkedHashMap<String, Object>> usage = new ArrayList<>();
+        for(Election e : elections.values()) {
+            long board = e.getBoard() == null ? 0 : e.getBoard().memoryBytes();
+            long proofs = e.proofBytes();
+            MixNet mixNet = e.getMixNet();
+
+            LinkedHashMap<String, Object> entry = new LinkedHashMap<>();
+            entry.put("eid", e.getEid());
+            entry.put("title", e.getTitle());
+            entry.put("archived", e.isArchived());
+            entry.put("ballots", e.getBoard() == null ? 0 : e.getBoard().getBallots().size());
+            entry.put("boardBytes", board);
+            entry.put("proofBytes", proofs);
+            entry.put("sealedBytes", mixNet == null ? 0L : mixNet.sealedBytes());
+            //the same count the budget holds it to
+            entry.put("totalBytes", e.memoryBytes());
+            usage.add(entry);
+        }
+        usage.sort((a, b) -> Long.compare((Long) b.get("totalBytes"), (Long) a.get("totalBytes")));
+
+        LinkedHashMap<String, Object> report = new LinkedHashMap<>();
+        report.put("budgetBytes", memoryBudget.getBudget());
+        report.put("usedBytes", memoryBudget.used());
+        report.put("reservedBytes", memoryBudget.getReserved());
+        report.put("archiveCacheBytes", electionArchive.cachedBytes());
+        report.put("elections", usage);
+        return report;
+    }
+}
@@ -0,0 +1,34 @@
+package com.evoting.controllers;
+
+import com.evoting.resources.ShardedTally;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+
+@Controller
+public class WorkerController {
+
+    /**
+     * Method for a tally worker to multiply a partition of ballots for a coordinator
+     * @param body n^2 followed by the ballots, one hex value per line
+     * @return product of the ballots in hex
+     */
+    @PostMapping(value = "/worker/product", consumes = "text/plain", produces = "text/plain")
+    @ResponseBody
+    public String product(@RequestBody String body) {
+
+        String[] lines = body.split("\n");  //hex values
+        BigInteger nsqr = new BigInteger(lines[0].trim(), 16);  //modulus
+        ArrayList<BigInteger> ballots = new ArrayList<>(); //ballots in this partition
+
+        for(int i=1; i<lines.length; i++) {
+            ballots.add(new BigInteger(lines[i].trim(), 16));
+        }
+
+        return ShardedTally.multiply(ballots, nsqr).toString(16);
+    }
+}
@@ -1,33 +1,165 @@
 package com.evoting.models;
 
+import com.evoting.resources.CiphertextArena;
+import com.evoting.resources.ElectionEvents;
+import com.evoting.resources.FingerprintIndex;
+import com.evoting.resources.MemoryBudget;
+import com.evoting.resources.MerkleTree;
+
 import java.math.BigInteger;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.List;
 
 public class BulletinBoard {
-    private CopyOnWriteArrayList<BigInteger> ballots;   //ballots encrypted once
-    private CopyOnWriteArrayList<BigInteger> shuffledBallots;   //ballots shuffled and re-encrypted
+    private List<BigInteger> ballots;   //ballots encrypted once
+    private List<BigInteger> shuffledBallots;   //ballots shuffled and re-encrypted
+
+    private FingerprintIndex index; //fingerprints of the ballots, for catching copies
+
+    private MerkleTree tree;    //commitment to the ballots in order
+    private volatile int publishedSize; //ballots covered by the published root
+    private volatile byte[] publishedRoot;  //root published after the last batch
+
+    private final String eid;   //election the board belongs to, for flight recorder events
+
+    public BulletinBoard(String id, BigInteger bound) {
+        eid = id;
+        //ballots are kept off heap in fixed width slots, sized to the largest ciphertext
+        ballots = new CiphertextArena(bound);
+        index = new FingerprintIndex();
+        tree = new MerkleTree();
+        publish();
+    }
 
-    public BulletinBoard() {
-        ballots = new CopyOnWriteArrayList<>();
+    /**
+     * Add vote method
+     * Adds a ballot unless the exact ciphertext is already on the board
+     * @param v encrypted ballot
+     * @return false if the ballot is a copy
+     */
+    public synchronized boolean addVote(BigInteger v) {
+        ElectionEvents.BallotCast event = new ElectionEvents.BallotCast();
+        event.begin();
+        boolean added = append(v);
+        if(added) {
+            publish();
+        }
+        record(event, 1, added ? 1 : 0);
+        return added;
     }
 
-    public void addVote(BigInteger v) {
+    /**
+     * Add votes method
+     * Appends a batch of already checked ballots in one operation, leaving out copies
+     * @param votes encrypted ballots
+     * @return which ballots were added, false for copies
+     */
+    public synchronized boolean[] addVotes(List<BigInteger> votes) {
+        ElectionEvents.BallotCast event = new ElectionEvents.BallotCast();
+        event.begin();
+        boolean[] added = new boolean[votes.size()];
+        int accepted = 0;
+        for(int i=0; i<votes.size(); i++) {
+            added[i] = append(votes.get(i));
+            if(added[i]) {
+                accepted++;
+            }
+        }
+        //one root for the whole batch
+        publish();
+        record(event, votes.size(), accepted);
+        return added;
+    }
+
+    //commits a ballot cast event if a recording wants it
+    private void record(ElectionEvents.BallotCast event, int ballots, int accepted) {
+        event.end();
+        if(event.shouldCommit()) {
+            event.eid = eid;
+            event.ballots = ballots;
+            event.accepted = accepted;
+            event.boardSize = this.ballots.size();
+            event.bytes = MemoryBudget.bytes(this.ballots);
+            event.commit();
+        }
+    }
+
+    //puts a ballot on the board, the index and the tree unless it is a copy
+    private boolean append(BigInteger v) {
+        if(index.contains(v, ballots)) {
+            return false;
+        }
         ballots.add(v);
+        index.add(v, ballots.size() - 1);
+        tree.append(v);
+        return true;
     }
 
-    public CopyOnWriteArrayList<BigInteger> getBallots() {
+    //publishes the root over every ballot so far
+    private void publish() {
+        int size = tree.size();
+        publishedRoot = tree.root(size);
+        publishedSize = size;
+    }
+
+    /**
+     * Inclusion proof method
+     * Proves a ballot is on the board under the published root
+     * @param v encrypted ballot
+     * @return published root and sibling hashes from the ballot up, null if the ballot isn't covered by it
+     */
+    public MerkleTree.Proof inclusionProof(BigInteger v) {
+        int size;
+        int position;
+        MerkleTree t;
+        synchronized (this) {
+            size = publishedSize;
+            position = index.indexOf(v, ballots);
+            t = tree;
+        }
+        if(position < 0 || position >= size) {
+            return null;
+        }
+        return t.proof(position, size);
+    }
+
+    public int getPublishedSize() {
+        return publishedSize;
+    }
+
+    public byte[] getPublishedRoot() {
+        return publishedRoot;
+    }
+
+    /**
+     * Memory bytes method
+     * @return bytes held by the ballots, mixed ballots, fingerprints and tree
+     */
+    public synchronized long memoryBytes() {
+        return MemoryBudget.bytes(ballots) + MemoryBudget.bytes(shuffledBallots) + index.memoryBytes() + tree.memoryBytes();
+    }
+
+    public List<BigInteger> getBallots() {
         return ballots;
     }
 
-    public void setBallots(CopyOnWriteArrayList<BigInteger> ballots) {
+    public synchronized void setBallots(List<BigInteger> ballots) {
         this.ballots = ballots;
+
+        //rebuild the fingerprints and tree for the new ballots
+        index = new FingerprintIndex();
+        tree = new MerkleTree();
+        for(int i=0; i<ballots.size(); i++) {
+            index.add(ballots.get(i), i);
+            tree.append(ballots.get(i));
+        }
+        publish();
     }
 
-    public void setShuffledBallots(CopyOnWriteArrayList<BigInteger> sballots) {
+    public void setShuffledBallots(List<BigInteger> sballots) {
         this.shuffledBallots = sballots;
     }
 
-    public CopyOnWriteArrayList<BigInteger> getShuffledBallots() {
+    public List<BigInteger> getShuffledBallots() {
         return shuffledBallots;
     }
 }
@@ -1,42 +1,88 @@
 package com.evoting.models;
 
+import com.evoting.resources.Cryptosystem;
+import com.evoting.resources.ElGamalCipher;
 import com.evoting.resources.MixNet;
+import com.evoting.resources.MixScheduler;
 import com.evoting.resources.PaillierCipher;
-import com.evoting.resources.PaillierKeyPair;
-import com.evoting.resources.PaillierPubKey;
 
 import java.io.IOException;
+import java.math.BigInteger;
 import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class Election {
+    public static final String CLOSED = "Election is closed";   //why a cast was refused
+    public static final String MOVING = "Election is moving to another node";
+    public static final int MOVING_RETRY = 5;   //seconds to wait before retrying a request refused while moving
+    public static final int NO_VOTER_CAP = 0;   //maxVoters when the owner sets none, the cap then comes from the key
+    private static final int MIN_KEY_BITS = 256;    //smallest key, used when the slots fit in it
+    private static final int MIN_SLOT_BITS = 16;    //narrowest slot when the owner sets no cap, counts 65535 voters
+
     private String owner, code, title;  //election owner, code and name
 
     private String eid; //election id
 
-    private boolean isClosed;
+    private volatile boolean isClosed;
+    private volatile boolean isArchived; //heavy data moved to the archive, only a stub is kept
+    private volatile boolean isMoving;  //being handed to another node, casts, joins and tallies are refused until it has gone or stays
+    private final ReentrantReadWriteLock castGate = new ReentrantReadWriteLock();   //casts and joins share it, closing, moving and evicting take it alone
 
     private CopyOnWriteArrayList<String> candidates;    //election candidates
     private ConcurrentHashMap<User, Boolean> participants;  //election participants
-    private HashMap<String, String> results;  //election results
+    private volatile Map<String, String> results;  //election results, frozen once tallied
+    private String resultsTag;  //etag of the frozen results
+    private final Object tallyLock = new Object();  //lets one tally run at a time
 
     private CopyOnWriteArrayList<CopyOnWriteArrayList<Proof>> proofs;
 
-    private PaillierKeyPair pkp;    //election paillier key pair
-    private PaillierCipher paillier;    //election cipher
-    private KeyPair paillierKeys;   //election key pair
-    private PaillierPubKey paillierPubKey;
+    private Cryptosystem cipher;    //election cryptosystem, holding its key pair
+
+    private int slotBits;   //bits given to each candidate in a packed ballot
+    private int maxVoters;  //most participants, slots are wide enough to count a vote from each
+    private int maxSelections;  //most candidates a ballot may select
 
     private BulletinBoard board; //election bulletin board
 
     private MixNet mixNet;  //ections mixnet
 
     public Election(String owner, String title, CopyOnWriteArrayList<String> candidates) {
+        this(owner, title, candidates, 1, NO_VOTER_CAP);
+    }
+
+    /**
+     * Election constructor for ballots that may select several candidates, such as approval
+     * ballots or a list of yes or no questions. A ballot is one plaintext with a slot per candidate,
+     * each wide enough to hold the count of every voter, and the key is made big enough to fit them
+     * @param maxSelections most candidates a ballot may select
+     * @param maxVoters most participants, NO_VOTER_CAP to take as many as the slots can count
+     */
+    public Election(String owner, String title, CopyOnWriteArrayList<String> candidates, int maxSelections, int maxVoters) {
+        this(owner, title, candidates, maxSelections, maxVoters, PaillierCipher.ALGORITHM);
+    }
+
+    /**
+     * Election constructor for a chosen cryptosystem.
+     * EC-ElGamal ballots are counted by decrypting each one, so a slot only ever holds one selection,
+     * and decryption looks each ballot up among every ballot that could be cast
+     * @param algorithm PaillierCipher.ALGORITHM or ElGamalCipher.ALGORITHM
+     */
+    public Election(String owner, String title, CopyOnWriteArrayList<String> candidates, int maxSelections, int maxVoters,
+                    String algorithm) {
         this.owner = owner;
         this.title = title;
         this.candidates = candidates;
+        this.maxSelections = Math.max(1, Math.min(maxSelections, candidates.size()));
 
         //create new UUID
         eid = UUID.randomUUID().toString();
@@ -50,14 +96,276 @@ public class Election {
 
         proofs = new CopyOnWriteArrayList<>();
 
-        pkp = new PaillierKeyPair();
-        paillierKeys = pkp.generateKeys();
-        paillier = new PaillierCipher(paillierKeys);
-        paillierPubKey = pkp.getPubKey();
+        if(ElGamalCipher.ALGORITHM.equals(algorithm)) {
+            slotBits = 1;
+            if(countBallots(candidates.size(), this.maxSelections) > ElGamalCipher.MAX_PLAINTEXTS) {
+                throw new IllegalArgumentException("Too many possible ballots to count with " + algorithm);
+            }
+            //ballots are decrypted one at a time, so slots never fill
+            this.maxVoters = maxVoters > 0 ? maxVoters : Integer.MAX_VALUE;
+        } else if(maxVoters > 0) {
+            //a slot holds up to maxVoters, so the sum of every ballot never carries into the next slot
+            this.maxVoters = maxVoters;
+            slotBits = BigInteger.valueOf(maxVoters).bitLength();
+        } else {
+            //no cap set, so the slots split the smallest key between them and count as many voters as they hold
+            slotBits = Math.max(MIN_SLOT_BITS, Math.min(Integer.SIZE - 1, (MIN_KEY_BITS - 2) / candidates.size()));
+            this.maxVoters = (int) ((1L << slotBits) - 1);
+        }
+
+        //n needs more bits than all the slots so a packed plaintext stays below it
+        int keyBits = Math.max(MIN_KEY_BITS, (candidates.size() * slotBits + 2 + 63) / 64 * 64);
+
+        cipher = open(Cryptosystem.generateKeys(algorithm, keyBits));
+
+        board = new BulletinBoard(eid, cipher.getCiphertextBound());
+
+        mixNet = new MixNet(cipher, this.eid);
+    }
+
+    /**
+     * Constructor for restoring a closed election from the archive
+     */
+    public Election(String eid, String owner, String code, String title, CopyOnWriteArrayList<String> candidates,
+                    HashMap<String, String> results, Cryptosystem cipher, int slotBits, int maxVoters, int maxSelections,
+                    BulletinBoard board, CopyOnWriteArrayList<CopyOnWriteArrayList<Proof>> proofs) {
+        this.eid = eid;
+        this.owner = owner;
+        this.code = code;
+        this.title = title;
+        this.candidates = candidates;
+        if(results != null) {
+            freeze(results);
+        }
+        this.slotBits = slotBits;
+        this.maxVoters = maxVoters;
+        this.maxSelections = maxSelections;
+        this.board = board;
+        this.proofs = proofs;
+
+        isClosed = true;
+
+        participants = new ConcurrentHashMap<>();
+
+        this.cipher = cipher;
+
+        //an election moved between cluster nodes may still be mixed
+        mixNet = new MixNet(cipher, this.eid);
+    }
+
+    /**
+     * Listing constructor
+     * Just enough of an election held on another cluster node to list it on a users home page
+     */
+    public Election(String eid, String owner, String code, String title) {
+        this.eid = eid;
+        this.owner = owner;
+        this.code = code;
+        this.title = title;
+
+        participants = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Evict method
+     * Drops the keys, ballots, mix net and proofs once they are in the archive,
+     * leaving the title, candidates, participants and results.
+     * A mix under way is waited for, and any mix after this finds the election archived
+     */
+    public void evict() {
+        MixNet net = mixNet;
+        if(net == null) {
+            return;
+        }
+        synchronized (net) {
+            castGate.writeLock().lock();
+            try {
+                cipher = null;
+                board = null;
+                mixNet = null;
+                proofs = null;
+                isArchived = true;
+            } finally {
+                castGate.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Encode vote method
+     * Encodes a single candidate index as a one in that candidate's slot of the plaintext
+     * @param index index of the selected candidate, -1 for a blank ballot
+     * @return plaintext ballot
+     */
+    public BigInteger encodeVote(int index) {
+        return index < 0 ? BigInteger.ZERO : encodeBallot(Collections.singletonList(index));
+    }
+
+    /**
+     * Selections method
+     * @param names names of the selected candidates, null for none
+     * @return index of each selected candidate
+     */
+    public List<Integer> selections(String[] names) {
+        List<Integer> selections = new ArrayList<>();
+        if(names != null) {
+            for(String name : names) {
+                int index = candidates.indexOf(name);
+                if(index < 0) {
+                    throw new IllegalArgumentException("No such candidate");
+                }
+                selections.add(index);
+            }
+        }
+        return selections;
+    }
+
+    /**
+     * Encode ballot method
+     * Packs every selected candidate into one plaintext, a one in each selected candidate's slot
+     * @param selections indexes of the selected candidates
+     * @return plaintext ballot
+     */
+    public BigInteger encodeBallot(List<Integer> selections) {
+        if(selections.size() > maxSelections) {
+            throw new IllegalArgumentException("A ballot may select at most " + maxSelections + " candidates");
+        }
+        BigInteger plainText = BigInteger.ZERO;
+        for(int index : selections) {
+            if(index < 0 || index >= candidates.size()) {
+                throw new IllegalArgumentException("No such candidate");
+            }
+            if(plainText.testBit(index * slotBits)) {
+                throw new IllegalArgumentException("Candidate selected twice");
+            }
+            plainText = plainText.setBit(index * slotBits);
+        }
+        return plainText;
+    }
+
+    /**
+     * Decode ballot method
+     * Unpacks a single decrypted ballot into the candidates it selects
+     * @param plainText decrypted ballot
+     * @return indexes of the selected candidates, empty if blank, null if encodeBallot couldn't have made it
+     */
+    public List<Integer> decodeBallot(BigInteger plainText) {
+        List<Integer> selections = new ArrayList<>();
+        if(plainText.signum() < 0 || plainText.bitLength() > candidates.size() * slotBits) {
+            return null;
+        }
+        while(plainText.signum() > 0) {
+            int bit = plainText.getLowestSetBit();
+            //each set bit must be the bottom of a slot
+            if(bit % slotBits != 0 || selections.size() == maxSelections) {
+                return null;
+            }
+            selections.add(bit / slotBits);
+            plainText = plainText.clearBit(bit);
+        }
+        return selections;
+    }
+
+    /**
+     * Plaintexts method
+     * @param candidates number of candidates
+     * @param slotBits bits in each candidates slot
+     * @param maxSelections most candidates a ballot may select
+     * @return every plaintext encodeBallot can make, blank first
+     */
+    public static List<BigInteger> plaintexts(int candidates, int slotBits, int maxSelections) {
+        List<BigInteger> plaintexts = new ArrayList<>();
+        addPlaintexts(plaintexts, BigInteger.ZERO, 0, candidates, slotBits, maxSelections);
+        return plaintexts;
+    }
+
+    //adds m and every ballot that selects more candidates from index next on
+    private static void addPlaintexts(List<BigInteger> out, BigInteger m, int next, int candidates, int slotBits, int left) {
+        out.add(m);
+        if(left > 0) {
+            for(int i=next; i<candidates; i++) {
+                addPlaintexts(out, m.setBit(i * slotBits), i + 1, candidates, slotBits, left - 1);
+            }
+        }
+    }
+
+    /**
+     * Count ballots method
+     * @param candidates number of candidates
+     * @param maxSelections most candidates a ballot may select
+     * @return number of different ballots, stopping once it passes Integer.MAX_VALUE
+     */
+    public static long countBallots(int candidates, int maxSelections) {
+        long count = 0;
+        long choose = 1;    //candidates choose k
+        for(int k=0; k<=maxSelections && k<=candidates && count<=Integer.MAX_VALUE; k++) {
+            count += choose;
+            choose = Math.min(choose * (candidates - k) / (k + 1), Integer.MAX_VALUE + 1L);
+        }
+        return count;
+    }
 
-        board = new BulletinBoard();
+    /**
+     * Decode vote method
+     * Gets the candidate index back from a single decrypted single choice ballot
+     * @param plainText decrypted ballot
+     * @return index of the selected candidate, -1 if blank or not a single choice
+     */
+    public int decodeVote(BigInteger plainText) {
+        List<Integer> selections = decodeBallot(plainText);
+        return selections == null || selections.size() != 1 ? -1 : selections.get(0);
+    }
+
+    /**
+     * Ciphertext check method
+     * Checks a ciphertext encrypted elsewhere is one the elections cryptosystem could have made
+     * @param c ciphertext to check
+     * @return true if it is well formed
+     */
+    public boolean isCiphertext(BigInteger c) {
+        return cipher.isCiphertext(c);
+    }
+
+    /**
+     * Decode tally method
+     * Splits the decrypted sum of all ballots into the count for each candidate
+     * @param sum decrypted product of every ballot
+     * @return map of candidate name to number of votes
+     */
+    public HashMap<String, String> decodeTally(BigInteger sum) {
+        HashMap<String, String> counts = new HashMap<>();
+        BigInteger mask = BigInteger.ONE.shiftLeft(slotBits).subtract(BigInteger.ONE);
+
+        //for each candidate, read their slot out of the sum
+        for(int i=0; i<candidates.size(); i++) {
+            counts.put(candidates.get(i), sum.shiftRight(i * slotBits).and(mask).toString());
+        }
+        return counts;
+    }
 
-        mixNet = new MixNet(paillierKeys, paillier, this.eid);
+    /**
+     * Memory bytes method
+     * Archived elections and listings of elections on other nodes hold nothing worth counting
+     * @return bytes held by the board, proofs and factors sealed for the next mix
+     */
+    public long memoryBytes() {
+        return (board == null ? 0 : board.memoryBytes()) + proofBytes() + (mixNet == null ? 0 : mixNet.sealedBytes());
+    }
+
+    /**
+     * Proof bytes method
+     * @return bytes held by the proofs of every mix
+     */
+    public long proofBytes() {
+        long bytes = 0;
+        if(proofs != null) {
+            for(List<Proof> mix : proofs) {
+                for(Proof p : mix) {
+                    bytes += p.memoryBytes();
+                }
+            }
+        }
+        return bytes;
     }
 
     public void addProof(CopyOnWriteArrayList<Proof> m) {
@@ -68,26 +376,286 @@ public class Election {
         return proofs;
     }
 
-    public void setResults(HashMap<String, String> results) {
-        this.results = results;
+    /**
+     * Tally once method
+     * The first caller closes the election, waiting for casts under way to land, then counts the ballots
+     * and freezes the results. Callers that arrive while it counts wait for it rather than counting again,
+     * and every later caller gets the frozen results straight away
+     * @param count counts the ballots, returning null if it couldn't
+     * @param onClose run once, after the results are frozen, by the caller that counted
+     * @return frozen results, or null if the election is moving or counting failed,
+     * in which case the election may be tallied again
+     */
+    public Map<String, String> tallyOnce(Supplier<? extends Map<String, String>> count, Runnable onClose) {
+        Map<String, String> frozen = results;
+        if(frozen != null) {
+            return frozen;
+        }
+        synchronized (tallyLock) {
+            if(results == null) {
+                //a moving election is counted by the node it goes to, or here once it stays
+                if(isMoving) {
+                    return null;
+                }
+                //no ballot may land once counting starts, it would never be counted
+                setClosed(true);
+                Map<String, String> counted = count.get();
+                if(counted == null) {
+                    return null;
+                }
+                freeze(counted);
+                //no mix may change the board or its proofs while the archive copies them
+                synchronized (mixNet) {
+                    onClose.run();
+                }
+            }
+            return results;
+        }
+    }
+
+    //unmodifiable copy, tagged by its contents
+    private void freeze(Map<String, String> counted) {
+        resultsTag = "\"" + eid + "-" + Integer.toHexString(counted.hashCode()) + "\"";
+        results = Collections.unmodifiableMap(new LinkedHashMap<>(counted));
     }
 
-    public HashMap<String, String> getResults() {
+    public Map<String, String> getResults() {
         return results;
     }
 
+    //etag of the results, null until tallied
+    public String getResultsTag() {
+        return resultsTag;
+    }
+
     public boolean isClosed() {
         return isClosed;
     }
 
+    //waits for casts under way, so none lands after the election closes
     public void setClosed(boolean closed) {
-        isClosed = closed;
+        castGate.writeLock().lock();
+        try {
+            isClosed = closed;
+        } finally {
+            castGate.writeLock().unlock();
+        }
+    }
+
+    public boolean isArchived() {
+        return isArchived;
+    }
+
+    public boolean isMoving() {
+        return isMoving;
+    }
+
+    /**
+     * Set moving method
+     * Turns casts, joins and tallies away while the election is copied to another node, after waiting
+     * for casts and joins under way and for a count under way to be frozen, so the copy has every ballot
+     * and participant the election accepted and the results if it was tallied
+     * @param moving true before the copy is taken, false if it stays here
+     */
+    public void setMoving(boolean moving) {
+        synchronized (tallyLock) {
+            castGate.writeLock().lock();
+            try {
+                isMoving = moving;
+            } finally {
+                castGate.writeLock().unlock();
+            }
+        }
+    }
+
+
+    public int getSlotBits() {
+        return slotBits;
+    }
+
+    public int getMaxVoters() {
+        return maxVoters;
+    }
+
+    public int getMaxSelections() {
+        return maxSelections;
+    }
+
+    /**
+     * Is full method
+     * @return true if the election has as many participants as its slots can count
+     */
+    public boolean isFull() {
+        return participants.size() >= maxVoters;
     }
 
     public void hasCasted(User u) {
         participants.put(u, true);
     }
 
+    /**
+     * Cast once method
+     * Marks a participant as voted only if they haven't yet, atomically
+     * @param u participant casting
+     * @return true if this call marked them
+     */
+    public boolean castOnce(User u) {
+        return participants.replace(u, false, true);
+    }
+
+    /**
+     * Uncast method
+     * Lets a participant vote again after their ballot didn't make it onto the board
+     * @param u participant
+     */
+    public void uncast(User u) {
+        participants.replace(u, true, false);
+    }
+
+    /**
+     * Cast method
+     * Marks the participant as voted before their ballot goes on the board, so two requests
+     * from one participant can't both cast, and takes the mark back if the ballot is refused
+     * @param u participant casting
+     * @param cipherText their encrypted ballot
+     * @return null once cast, otherwise why the ballot wasn't cast
+     */
+    public String cast(User u, BigInteger cipherText) {
+        castGate.readLock().lock();
+        try {
+            String shut = shut();
+            if(shut != null) {
+                return shut;
+            }
+            if(!castOnce(u)) {
+                return "Already voted";
+            }
+            try {
+                if(!board.addVote(cipherText)) {
+                    uncast(u);
+                    return "Ballot is already on the board";
+                }
+            } catch (RuntimeException e) {
+                uncast(u);
+                throw e;
+            }
+            return null;
+        } finally {
+            castGate.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add votes method
+     * Appends a batch of ballots whose voters are already marked, unless the election has closed or is moving
+     * @param cipherTexts ballots to append
+     * @return which were added, or null if the election took none of them and the voters should be unmarked
+     */
+    public boolean[] addVotes(List<BigInteger> cipherTexts) {
+        castGate.readLock().lock();
+        try {
+            return shut() != null ? null : board.addVotes(cipherTexts);
+        } finally {
+            castGate.readLock().unlock();
+        }
+    }
+
+    //why the election takes no ballots right now, null if it does
+    private String shut() {
+        if(isClosed || isArchived) {
+            return CLOSED;
+        }
+        return isMoving ? MOVING : null;
+    }
+
+    /**
+     * Join method
+     * Adds a participant if they aren't in the election and it has room, checked and added together
+     * so the election can't take more participants than its slots can count
+     * @param u user joining
+     * @return true if they joined, false if they were in already, there was no room or the election is moving
+     */
+    public boolean join(User u) {
+        castGate.readLock().lock();
+        try {
+            synchronized (participants) {
+                if(isMoving || participants.containsKey(u) || isFull()) {
+                    return false;
+                }
+                participants.put(u, false);
+                return true;
+            }
+        } finally {
+            castGate.readLock().unlock();
+        }
+    }
+
+    /**
+     * Join all method
+     * Adds a batch of participants under one lock, in order, until the election is full.
+     * Each email is only turned into a user once there is room for them, so users that would
+     * be turned away are never made
+     * @param emails emails of the users to add
+     * @param resolve finds or makes the user for an email
+     * @return for each email, the user if they joined, null if they were in already, there was no room
+     * or the election is moving
+     */
+    public User[] joinAll(List<String> emails, Function<String, User> resolve) {
+        User[] joined = new User[emails.size()];
+        castGate.readLock().lock();
+        try {
+            synchronized (participants) {
+                for(int i=0; i<emails.size() && !isMoving && !isFull(); i++) {
+                    User u = resolve.apply(emails.get(i));
+                    if(!participants.containsKey(u)) {
+                        participants.put(u, false);
+                        joined[i] = u;
+                    }
+                }
+            }
+        } finally {
+            castGate.readLock().unlock();
+        }
+        return joined;
+    }
+
+    /**
+     * Mix method
+     * Mixes every ballot cast so far while the election is open
+     * @param scheduler scheduler shared by every elections mix, may be null
+     * @param rounds rounds of cut and choose in the proof
+     * @return false if the election was closed before the mix could start
+     */
+    public boolean mix(MixScheduler scheduler, int rounds) {
+        return mix(scheduler, rounds, false);
+    }
+
+    /**
+     * Mix method
+     * Mixes every ballot cast so far and publishes the output with its proof.
+     * Mixes of one election run one at a time so an output is never paired with another mixes proof,
+     * and the election is checked again once no other mix can run, as a tally may have closed or archived it meanwhile
+     * @param scheduler scheduler shared by every elections mix, may be null
+     * @param rounds rounds of cut and choose in the proof
+     * @param closing true for the tally's last mix of a closed election
+     * @return false if the election was closed or archived before the mix could start
+     */
+    public boolean mix(MixScheduler scheduler, int rounds, boolean closing) {
+        MixNet net = mixNet;
+        if(net == null) {
+            return false;
+        }
+        synchronized (net) {
+            if(isArchived || (isClosed && !closing)) {
+                return false;
+            }
+            net.setBallots(board.getBallots());
+            board.setShuffledBallots(net.mix(scheduler, rounds));
+            proofs.add(net.getProofs());
+            return true;
+        }
+    }
+
     public void joinElection(User u) {
         participants.put(u, false);
     }
@@ -108,12 +676,8 @@ public class Election {
         return candidates;
     }
 
-    public PaillierPubKey getPaillierPubKey(){
-        return paillierPubKey;
-    }
-
-    public PaillierCipher getPaillier() {
-        return paillier;
+    public Cryptosystem getCipher() {
+        return cipher;
     }
 
     public BulletinBoard getBoard(){
@@ -135,4 +699,9 @@ public class Election {
     public String getEid() {
         return eid;
     }
+
+    //the elections cryptosystem, ec-elgamal decryptions are looked up among every possible ballot
+    private Cryptosystem open(KeyPair keys) {
+        return Cryptosystem.open(keys, eid, () -> plaintexts(candidates.size(), slotBits, maxSelections));
+    }
 }
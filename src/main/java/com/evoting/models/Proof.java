@@ -1,28 +1,41 @@
 package com.evoting.models;
 
+import com.evoting.resources.MemoryBudget;
+
 import java.math.BigInteger;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.List;
 
+/**
+ * One round of a mixes cut and choose proof.
+ * The permutation and randoms open the shadow from the input when the bit is 0,
+ * or the output from the shadow when it is 1
+ */
 public class Proof {
-    private BigInteger hash;
+    private BigInteger hash;    //fiat-shamir challenge of the mix
+
+    private int round;  //which round of the mix this answers
+    private boolean bit;    //challenge bit of this round
 
-    private BigInteger primaryR, secondaryR;    //randoms used in mix
+    private List<BigInteger> shadow;    //shadow shuffle of the input ballots
 
-    private CopyOnWriteArrayList<Integer> primaryShuffle;   //primary shuffle of ballots
-    private CopyOnWriteArrayList<Integer> secondaryShuffle; //secondary shuffle of ballots
+    private int[] permutation;  //where each ballot of the opened side goes
+    private List<BigInteger> randoms;   //random each ballot of the opened side was re-encrypted with
 
-    public Proof(BigInteger p, BigInteger s, CopyOnWriteArrayList<Integer> ps, CopyOnWriteArrayList<Integer> ss, BigInteger h) {
-        primaryR = p;
-        secondaryR = s;
-        primaryShuffle = ps;
-        secondaryShuffle = ss;
+    public Proof(BigInteger h, int r, boolean b, List<BigInteger> s, int[] p, List<BigInteger> rs) {
         hash = h;
+        round = r;
+        bit = b;
+        shadow = s;
+        permutation = p;
+        randoms = rs;
     }
 
-    public Proof(BigInteger s, CopyOnWriteArrayList<Integer> ss, BigInteger h) {
-        secondaryR = s;
-        secondaryShuffle = ss;
-        hash = h;
+    /**
+     * Memory bytes method
+     * @return bytes held by the shadow, permutation and randoms
+     */
+    public long memoryBytes() {
+        return MemoryBudget.bytes(shadow) + MemoryBudget.bytes(randoms) + (permutation == null ? 0 : (long) permutation.length * Integer.BYTES);
     }
 
     public BigInteger getHash() {
@@ -33,35 +46,43 @@ public class Proof {
         this.hash = hash;
     }
 
-    public void setPrimaryR(BigInteger primaryR) {
-        this.primaryR = primaryR;
+    public int getRound() {
+        return round;
+    }
+
+    public void setRound(int round) {
+        this.round = round;
+    }
+
+    public boolean isBit() {
+        return bit;
     }
 
-    public void setSecondaryR(BigInteger secondaryR) {
-        this.secondaryR = secondaryR;
+    public void setBit(boolean bit) {
+        this.bit = bit;
     }
 
-    public void setPrimaryShuffle(CopyOnWriteArrayList<Integer> primaryShuffle) {
-        this.primaryShuffle = primaryShuffle;
+    public List<BigInteger> getShadow() {
+        return shadow;
     }
 
-    public void setSecondaryShuffle(CopyOnWriteArrayList<Integer> secondaryShuffle) {
-        this.secondaryShuffle = secondaryShuffle;
+    public void setShadow(List<BigInteger> shadow) {
+        this.shadow = shadow;
     }
 
-    public BigInteger getPrimaryR() {
-        return primaryR;
+    public int[] getPermutation() {
+        return permutation;
     }
 
-    public BigInteger getSecondaryR() {
-        return secondaryR;
+    public void setPermutation(int[] permutation) {
+        this.permutation = permutation;
     }
 
-    public CopyOnWriteArrayList<Integer> getPrimaryShuffle() {
-        return primaryShuffle;
+    public List<BigInteger> getRandoms() {
+        return randoms;
     }
 
-    public CopyOnWriteArrayList<Integer> getSecondaryShuffle() {
-        return secondaryShuffle;
+    public void setRandoms(List<BigInteger> randoms) {
+        this.randoms = randoms;
     }
 }
@@ -0,0 +1,159 @@
+package com.evoting.resources;
+
+import com.nimbusds.jose.*;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jose.jwk.source.ImmutableSecret;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.JWTParser;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import org.springframework.security.oauth2.core.OAuth2TokenValidator;
+import org.springframework.security.oauth2.core.OAuth2TokenValidatorResult;
+import org.springframework.security.oauth2.jwt.*;
+
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+public class ApiTokens implements JwtDecoder {
+
+    private final byte[] secret;    //shared HS256 key
+    private final DefaultJWTProcessor<SecurityContext> processor;   //checks signature and expiry
+    private final MappedJwtClaimSetConverter claimConverter;    //turns nimbus claims into spring claims
+    private final OAuth2TokenValidator<Jwt> validator;  //timestamp checks
+
+    public ApiTokens(byte[] key) {
+        if(key.length < 32) {
+            throw new IllegalArgumentException("API token secret must be at least 32 bytes");
+        }
+        secret = key;
+        processor = new DefaultJWTProcessor<>();
+        processor.setJWSKeySelector(new JWSVerificationKeySelector<>(JWSAlgorithm.HS256, new ImmutableSecret<>(secret)));
+        claimConverter = MappedJwtClaimSetConverter.withDefaults(Collections.emptyMap());
+        validator = JwtValidators.createDefault();
+    }
+
+    /**
+     * Decode method
+     * Checks a bearer token against the local key, it must be HS256 signed and have an expiry
+     * @param token encoded token
+     * @return decoded token
+     */
+    @Override
+    public Jwt decode(String token) throws JwtException {
+        try {
+            JWT parsed = JWTParser.parse(token);
+            JWTClaimsSet claimsSet = processor.process(parsed, null);
+
+            if(claimsSet.getExpirationTime() == null) {
+                throw new JwtException("Token has no expiry");
+            }
+
+            Map<String, Object> claims = claimConverter.convert(claimsSet.getClaims());
+            Jwt jwt = new Jwt(token, (Instant) claims.get(JwtClaimNames.IAT), (Instant) claims.get(JwtClaimNames.EXP),
+                    parsed.getHeader().toJSONObject(), claims);
+
+            OAuth2TokenValidatorResult result = validator.validate(jwt);
+            if(result.hasErrors()) {
+                throw new JwtValidationException("Invalid token", result.getErrors());
+            }
+            return jwt;
+        } catch (ParseException | BadJOSEException | JOSEException e) {
+            throw new JwtException("Invalid token: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Mint method
+     * Signs a token for a voter, for kiosks, integration clients and testing
+     * @param email email of the voter
+     * @param ttlSeconds seconds until the token expires
+     * @return encoded token
+     */
+    public String mint(String email, long ttlSeconds) {
+        return mint(email, ttlSeconds, null);
+    }
+
+    /**
+     * Mint method
+     * Signs a token with scopes, such as uploadScope(eid) for a polling station proxy
+     * @param email email of the client
+     * @param ttlSeconds seconds until the token expires
+     * @param scope space separated scopes, may be null
+     * @return encoded token
+     */
+    public String mint(String email, long ttlSeconds, String scope) {
+        return mint(email, ttlSeconds, scope, Collections.emptyMap());
+    }
+
+    /**
+     * Mint method
+     * Signs a token with scopes and extra claims, such as the users name when a cluster node forwards a request
+     * @param email email of the client
+     * @param ttlSeconds seconds until the token expires
+     * @param scope space separated scopes, may be null
+     * @param extra extra claims to add
+     * @return encoded token
+     */
+    public String mint(String email, long ttlSeconds, String scope, Map<String, Object> extra) {
+        Date now = new Date();
+        JWTClaimsSet.Builder builder = new JWTClaimsSet.Builder()
+                .subject(email)
+                .claim("email", email)
+                .issueTime(now)
+                .expirationTime(new Date(now.getTime() + ttlSeconds * 1000));
+        if(scope != null) {
+            builder.claim("scope", scope);
+        }
+        for(Map.Entry<String, Object> claim : extra.entrySet()) {
+            builder.claim(claim.getKey(), claim.getValue());
+        }
+        JWTClaimsSet claims = builder.build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claims);
+        try {
+            jwt.sign(new MACSigner(secret));
+        } catch (JOSEException e) {
+            throw new IllegalStateException("Could not sign token", e);
+        }
+        return jwt.serialize();
+    }
+
+    /**
+     * Email method
+     * Gets the voters email from a decoded token, falling back to the subject
+     * @param jwt decoded token
+     * @return email of the voter
+     */
+    public static String email(Jwt jwt) {
+        String email = jwt.getClaimAsString("email");
+        return email != null ? email : jwt.getSubject();
+    }
+
+    /**
+     * Upload scope method
+     * A polling station proxy may only upload ballots to the election its scope names
+     * @param eid UUID of the election
+     * @return scope allowing ballot uploads to that election
+     */
+    public static String uploadScope(String eid) {
+        return "ballots:upload:" + eid;
+    }
+
+    /**
+     * Has scope method
+     * @param jwt decoded token
+     * @param scope scope to look for
+     * @return true if the tokens space separated scopes include it
+     */
+    public static boolean hasScope(Jwt jwt, String scope) {
+        String scopes = jwt.getClaimAsString("scope");
+        return scopes != null && Arrays.asList(scopes.split(" ")).contains(scope);
+    }
+}
@@ -0,0 +1,114 @@
+package com.evoting.resources;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming writer for CBOR (RFC 8949), the compact binary form of JSON.
+ * Only what the endpoints send is here: maps and arrays of known size, text, byte strings,
+ * integers, booleans and null. A big integer is written as a tag 2 bignum, its magnitude as raw bytes
+ * rather than the two hex digits or ~2.4 decimal digits a byte takes as JSON text
+ */
+public class CborWriter {
+
+    private static final int UNSIGNED = 0, NEGATIVE = 1, BYTES = 2, TEXT = 3, ARRAY = 4, MAP = 5, TAG = 6, SIMPLE = 7;
+    private static final int POSITIVE_BIGNUM = 2, NEGATIVE_BIGNUM = 3;  //tags for big integers
+    private static final int FALSE = 20, TRUE = 21, NULL = 22;  //simple values
+
+    private final OutputStream out;
+
+    public CborWriter(OutputStream o) {
+        out = o;
+    }
+
+    public CborWriter startMap(int size) throws IOException {
+        head(MAP, size);
+        return this;
+    }
+
+    public CborWriter startArray(int size) throws IOException {
+        head(ARRAY, size);
+        return this;
+    }
+
+    public CborWriter text(String s) throws IOException {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        head(TEXT, utf8.length);
+        out.write(utf8);
+        return this;
+    }
+
+    public CborWriter bytes(byte[] b) throws IOException {
+        head(BYTES, b.length);
+        out.write(b);
+        return this;
+    }
+
+    public CborWriter integer(long v) throws IOException {
+        if(v >= 0) {
+            head(UNSIGNED, v);
+        } else {
+            head(NEGATIVE, -1 - v);
+        }
+        return this;
+    }
+
+    /**
+     * Big integer method
+     * Values whose argument fits 64 bits take the plain integer form, as RFC 8949 prefers, anything else is a bignum
+     * @param v value to write
+     * @return this writer
+     */
+    public CborWriter bigInteger(BigInteger v) throws IOException {
+        BigInteger magnitude = v.signum() < 0 ? v.negate().subtract(BigInteger.ONE) : v;
+        if(magnitude.bitLength() <= 64) {
+            head(v.signum() < 0 ? NEGATIVE : UNSIGNED, magnitude.longValue());
+            return this;
+        }
+        head(TAG, v.signum() < 0 ? NEGATIVE_BIGNUM : POSITIVE_BIGNUM);
+        byte[] raw = magnitude.toByteArray();
+        //drop the sign byte toByteArray adds when the top bit is set
+        int skip = raw[0] == 0 ? 1 : 0;
+        head(BYTES, raw.length - skip);
+        out.write(raw, skip, raw.length - skip);
+        return this;
+    }
+
+    public CborWriter bool(boolean b) throws IOException {
+        out.write(SIMPLE << 5 | (b ? TRUE : FALSE));
+        return this;
+    }
+
+    public CborWriter nul() throws IOException {
+        out.write(SIMPLE << 5 | NULL);
+        return this;
+    }
+
+    //major type and its argument, an unsigned 64 bit value, in the fewest bytes that hold it
+    private void head(int major, long arg) throws IOException {
+        int type = major << 5;
+        if(Long.compareUnsigned(arg, 24) < 0) {
+            out.write(type | (int) arg);
+        } else if(Long.compareUnsigned(arg, 1L << 8) < 0) {
+            out.write(type | 24);
+            out.write((int) arg);
+        } else if(Long.compareUnsigned(arg, 1L << 16) < 0) {
+            out.write(type | 25);
+            writeBE(arg, 2);
+        } else if(Long.compareUnsigned(arg, 1L << 32) < 0) {
+            out.write(type | 26);
+            writeBE(arg, 4);
+        } else {
+            out.write(type | 27);
+            writeBE(arg, 8);
+        }
+    }
+
+    private void writeBE(long v, int bytes) throws IOException {
+        for(int i=bytes-1; i>=0; i--) {
+            out.write((int) (v >>> (8 * i)));
+        }
+    }
+}
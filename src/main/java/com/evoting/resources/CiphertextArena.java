@@ -0,0 +1,138 @@
+package com.evoting.resources;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * List of ciphertexts stored off heap in direct memory.
+ * Every ciphertext takes one fixed width slot sized to the modulus, and is only
+ * turned back into a BigInteger when it is read for arithmetic.
+ */
+public class CiphertextArena extends AbstractList<BigInteger> implements RandomAccess {
+
+    private static final int SLOTS_PER_CHUNK = 4096;    //slots in each direct buffer
+
+    private final int width;    //bytes per slot
+    private final CopyOnWriteArrayList<ByteBuffer> chunks;  //direct buffers holding the slots
+    private volatile int size;  //number of slots written
+
+    /**
+     * @param modulus every stored value must be below this, the cryptosystems ciphertext bound for ballots
+     */
+    public CiphertextArena(BigInteger modulus) {
+        width = (modulus.bitLength() + 7) / 8;
+        chunks = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Creates an arena of zeroed slots, so chunks of it can be filled in parallel with set
+     * @param modulus every stored value must be below this
+     * @param slots number of slots
+     */
+    public CiphertextArena(BigInteger modulus, int slots) {
+        this(modulus);
+        for(int i=0; i<slots; i+=SLOTS_PER_CHUNK) {
+            chunks.add(ByteBuffer.allocateDirect(SLOTS_PER_CHUNK * width));
+        }
+        size = slots;
+    }
+
+    @Override
+    public synchronized boolean add(BigInteger c) {
+        int i = size;
+        //grow by a chunk when the last one is full
+        if(i == chunks.size() * SLOTS_PER_CHUNK) {
+            chunks.add(ByteBuffer.allocateDirect(SLOTS_PER_CHUNK * width));
+        }
+        write(i, c);
+        size = i + 1;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Appends a batch under one lock, so the batch lands on the board together
+     */
+    @Override
+    public synchronized boolean addAll(Collection<? extends BigInteger> batch) {
+        for(BigInteger c : batch) {
+            add(c);
+        }
+        return !batch.isEmpty();
+    }
+
+    @Override
+    public BigInteger get(int index) {
+        checkIndex(index);
+        byte[] bytes = new byte[width];
+        ByteBuffer buf = chunks.get(index / SLOTS_PER_CHUNK).duplicate();
+        buf.position((index % SLOTS_PER_CHUNK) * width);
+        buf.get(bytes);
+        return new BigInteger(1, bytes);
+    }
+
+    @Override
+    public BigInteger set(int index, BigInteger c) {
+        BigInteger old = get(index);
+        write(index, c);
+        return old;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Bytes of direct memory held by the arena
+     */
+    public long capacityBytes() {
+        return (long) chunks.size() * SLOTS_PER_CHUNK * width;
+    }
+
+    /**
+     * Capacity bytes method
+     * @param modulus every stored value is below this
+     * @param slots number of slots
+     * @return bytes an arena of that many slots allocates
+     */
+    public static long capacityBytes(BigInteger modulus, int slots) {
+        long chunkCount = (slots + SLOTS_PER_CHUNK - 1) / SLOTS_PER_CHUNK;
+        return chunkCount * SLOTS_PER_CHUNK * ((modulus.bitLength() + 7) / 8);
+    }
+
+    /**
+     * Write method
+     * Writes a value into a slot as unsigned big endian bytes, left padded with zeros
+     * @param index slot to write
+     * @param c value to write
+     */
+    private void write(int index, BigInteger c) {
+        if(c.signum() < 0) {
+            throw new IllegalArgumentException("Ciphertext can't be negative");
+        }
+        byte[] raw = c.toByteArray();
+        int start = raw[0] == 0 ? 1 : 0;    //skip the sign byte
+        int len = raw.length - start;
+        if(len > width) {
+            throw new IllegalArgumentException("Ciphertext is wider than the " + width + " byte slot");
+        }
+
+        ByteBuffer buf = chunks.get(index / SLOTS_PER_CHUNK).duplicate();
+        buf.position((index % SLOTS_PER_CHUNK) * width);
+        for(int i=len; i<width; i++) {
+            buf.put((byte) 0);
+        }
+        buf.put(raw, start, len);
+    }
+
+    private void checkIndex(int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
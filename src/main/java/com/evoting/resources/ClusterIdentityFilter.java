@@ -0,0 +1,75 @@
+package com.evoting.resources;
+
+import com.evoting.models.User;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+import org.springframework.security.oauth2.core.user.OAuth2UserAuthority;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Authenticates requests from other cluster nodes by their cluster token.
+ * A forwarded user becomes the same kind of login the controllers get from google,
+ * and is added to this nodes users the first time they are seen here
+ */
+public class ClusterIdentityFilter extends OncePerRequestFilter {
+
+    private final ApiTokens apiTokens;  //checks cluster tokens
+    private final ConcurrentHashMap<String, User> users;    //users on this node
+
+    public ClusterIdentityFilter(ApiTokens tokens, ConcurrentHashMap<String, User> u) {
+        apiTokens = tokens;
+        users = u;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Jwt jwt;
+        try {
+            jwt = apiTokens.decode(request.getHeader(ClusterRouter.TOKEN_HEADER));
+        } catch (JwtException e) {
+            response.sendError(401, "Invalid cluster token");
+            return;
+        }
+
+        if(ApiTokens.hasScope(jwt, ClusterRouter.NODE_SCOPE)) {
+            SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(jwt.getSubject(), null,
+                    Collections.singletonList(new SimpleGrantedAuthority("ROLE_CLUSTER_NODE"))));
+        } else if(ApiTokens.hasScope(jwt, ClusterRouter.USER_SCOPE)) {
+            String email = ApiTokens.email(jwt);
+            String name = jwt.getClaimAsString("given_name");
+            String id = jwt.getClaimAsString("user_id");
+
+            Map<String, Object> attributes = new HashMap<>();   //same attributes the google login has
+            attributes.put("email", email);
+            attributes.put("given_name", name);
+            attributes.put("sub", id);
+
+            OAuth2UserAuthority authority = new OAuth2UserAuthority(attributes);
+            DefaultOAuth2User user = new DefaultOAuth2User(Collections.singleton(authority), attributes, "email");
+            SecurityContextHolder.getContext().setAuthentication(new OAuth2AuthenticationToken(user, user.getAuthorities(), "google"));
+
+            users.computeIfAbsent(email, k -> new User(name, email, id));
+        } else {
+            response.sendError(401, "Not a cluster token");
+            return;
+        }
+
+        chain.doFilter(request, response);
+    }
+}
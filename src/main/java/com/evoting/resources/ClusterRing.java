@@ -0,0 +1,132 @@
+package com.evoting.resources;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Consistent hash ring deciding which node holds each election.
+ * Every node is placed at many points on the ring and an election belongs to the first node point
+ * after its own hash, so a node joining or leaving only moves the elections next to its points.
+ * Elections are hashed on the first group of their UUID, which is also their join code,
+ * so a join by code routes to the same node as the election
+ */
+public class ClusterRing {
+
+    private static final int POINTS = 128;  //points on the ring for each node
+
+    private final String self;  //base url of this node, empty when running alone
+    private final TreeSet<String> nodes;    //base urls of every node, including this one
+    private volatile TreeMap<Long, String> ring;    //ring points to node, rebuilt when membership changes
+
+    public ClusterRing(String s, Collection<String> n) {
+        self = s;
+        nodes = new TreeSet<>(n);
+        if(!self.isEmpty()) {
+            nodes.add(self);
+        }
+        ring = build(nodes);
+    }
+
+    public boolean isEnabled() {
+        return !self.isEmpty();
+    }
+
+    /**
+     * Owner method
+     * @param eid UUID or join code of an election
+     * @return base url of the node holding the election
+     */
+    public String owner(String eid) {
+        TreeMap<Long, String> points = ring;
+        if(points.isEmpty()) {
+            return self;
+        }
+        Map.Entry<Long, String> next = points.ceilingEntry(hash(key(eid)));
+        return next != null ? next.getValue() : points.firstEntry().getValue();
+    }
+
+    /**
+     * Is local method
+     * @param eid UUID or join code of an election
+     * @return true if this node holds the election, always true when running alone
+     */
+    public boolean isLocal(String eid) {
+        return !isEnabled() || owner(eid).equals(self);
+    }
+
+    /**
+     * Join method
+     * @param node base url of a node joining the cluster
+     * @return true if it wasn't already a member
+     */
+    public synchronized boolean join(String node) {
+        if(!nodes.add(node)) {
+            return false;
+        }
+        ring = build(nodes);
+        return true;
+    }
+
+    /**
+     * Leave method
+     * @param node base url of a node leaving the cluster
+     * @return true if it was a member
+     */
+    public synchronized boolean leave(String node) {
+        if(!nodes.remove(node)) {
+            return false;
+        }
+        ring = build(nodes);
+        return true;
+    }
+
+    public synchronized List<String> getNodes() {
+        return new ArrayList<>(nodes);
+    }
+
+    /**
+     * Get peers method
+     * @return every other node
+     */
+    public synchronized List<String> getPeers() {
+        List<String> peers = new ArrayList<>(nodes);
+        peers.remove(self);
+        return peers;
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    private static TreeMap<Long, String> build(Set<String> nodes) {
+        TreeMap<Long, String> points = new TreeMap<>();
+        for(String node : nodes) {
+            for(int i=0; i<POINTS; i++) {
+                points.put(hash(node + "#" + i), node);
+            }
+        }
+        return points;
+    }
+
+    //the join code part of a UUID
+    private static String key(String eid) {
+        int dash = eid.indexOf('-');
+        return dash < 0 ? eid : eid.substring(0, dash);
+    }
+
+    //first 8 bytes of SHA-256, spreads points evenly whatever the urls look like
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for(int i=0; i<8; i++) {
+                h = (h << 8) | (digest[i] & 0xff);
+            }
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package com.evoting.resources;
+
+import com.evoting.models.Election;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.*;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Sends each request about an election to the node that holds it.
+ * Requests for elections held elsewhere are proxied with the callers identity in a short lived
+ * token signed with the shared api secret, which the owner checks instead of a login session.
+ * Also carries the node to node calls for membership and moving elections
+ */
+public class ClusterRouter implements HandlerInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterRouter.class);
+
+    public static final String TOKEN_HEADER = "X-Cluster-Token";   //identity of a forwarded request or calling node
+    public static final String NODE_SCOPE = "cluster:node"; //scope of tokens between nodes
+    public static final String USER_SCOPE = "cluster:user"; //scope of tokens forwarding a logged in user
+
+    private static final long TOKEN_TTL = 60;   //seconds a cluster token is good for
+
+    //headers that belong to one hop, or to the session on this node
+    private static final Set<String> HOP_HEADERS = new HashSet<>(Arrays.asList("host", "connection", "keep-alive",
+            "transfer-encoding", "te", "trailer", "upgrade", "proxy-authorization", "proxy-authenticate",
+            "content-length", "cookie", "set-cookie", TOKEN_HEADER.toLowerCase()));
+
+    private final ClusterRing ring; //which node holds each election
+    private final ApiTokens apiTokens;  //signs cluster tokens
+    private final ElectionArchive archive;  //writes moving elections with their keys sealed
+    private final RestTemplate rest;    //client for calling other nodes
+    private final RestTemplate listingRest; //client for home page listings, which give up sooner
+    private final long listingTimeoutMs;    //longest a home page waits for other nodes listings
+
+    //asks every other node for a users listings at once
+    private final ExecutorService lister = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "cluster-listing");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Cluster router constructor.
+     * A node that doesn't connect or answer in time is treated as unavailable, so a dead or hung peer
+     * can't hold the requests waiting on it
+     * @param connectTimeoutMs longest to wait for another node to accept a connection
+     * @param readTimeoutMs longest to wait for another node to answer, forwarded tallies included
+     * @param listingTimeoutMs longest a home page waits for the other nodes listings
+     */
+    public ClusterRouter(ClusterRing r, ApiTokens tokens, ElectionArchive a, int connectTimeoutMs, int readTimeoutMs,
+                         int listingTimeoutMs) {
+        ring = r;
+        apiTokens = tokens;
+        archive = a;
+        this.listingTimeoutMs = listingTimeoutMs;
+
+        //stream bodies through instead of buffering them, and hand redirects back to the caller
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory() {
+            @Override
+            protected void prepareConnection(HttpURLConnection connection, String httpMethod) throws IOException {
+                super.prepareConnection(connection, httpMethod);
+                connection.setInstanceFollowRedirects(false);
+            }
+        };
+        factory.setBufferRequestBody(false);
+        factory.setConnectTimeout(connectTimeoutMs);
+        factory.setReadTimeout(readTimeoutMs);
+        rest = new RestTemplate(factory);
+
+        SimpleClientHttpRequestFactory listingFactory = new SimpleClientHttpRequestFactory();
+        listingFactory.setConnectTimeout(Math.min(connectTimeoutMs, listingTimeoutMs));
+        listingFactory.setReadTimeout(listingTimeoutMs);
+        listingRest = new RestTemplate(listingFactory);
+
+        //the owners error responses go back to the caller as they are
+        rest.setErrorHandler(new DefaultResponseErrorHandler() {
+            @Override
+            public boolean hasError(ClientHttpResponse response) {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Pre handle method
+     * Lets the request through if this node holds its election, otherwise proxies it to the owner.
+     * A request that has already been forwarded is always handled here, so nodes that briefly
+     * disagree about membership can't pass it back and forth
+     */
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        if(!ring.isEnabled() || request.getHeader(TOKEN_HEADER) != null) {
+            return true;
+        }
+        String key = routingKey(request);
+        if(key == null || key.isEmpty() || ring.isLocal(key)) {
+            return true;
+        }
+        forward(request, response, ring.owner(key));
+        return false;
+    }
+
+    /**
+     * Routing key method
+     * @param request http request
+     * @return UUID or join code the request is about, null if it isn't about one election
+     */
+    private static String routingKey(HttpServletRequest request) {
+        String[] parts = request.getRequestURI().substring(request.getContextPath().length()).split("/");
+        if(parts.length > 2 && parts[1].equals("election")) {
+            return parts[2];
+        }
+        if(parts.length > 3 && parts[1].equals("api") && parts[2].equals("elections")) {
+            return parts[3];
+        }
+        if(parts.length == 2 && parts[1].equals("join")) {
+            return request.getParameter("joinCode");
+        }
+        return null;
+    }
+
+    /**
+     * Forward method
+     * Proxies a request to another node and copies its response back
+     * @param request request to forward
+     * @param response response to copy the owners response into
+     * @param node base url of the owner
+     */
+    private void forward(HttpServletRequest request, HttpServletResponse response, String node) throws IOException {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        String query = request.getQueryString();
+
+        //form bodies have already been read into the parameters, so send the parameters as the body
+        byte[] formBody = null;
+        String contentType = request.getContentType();
+        if(contentType != null && contentType.startsWith(MediaType.APPLICATION_FORM_URLENCODED_VALUE)) {
+            formBody = encode(request.getParameterMap()).getBytes(StandardCharsets.UTF_8);
+            query = null;
+        }
+        byte[] form = formBody;
+        boolean hasBody = form != null || request.getContentLengthLong() > 0 || request.getHeader("Transfer-Encoding") != null;
+
+        URI uri = URI.create(node + path + (query == null ? "" : "?" + query));
+        String token = forwardToken(SecurityContextHolder.getContext().getAuthentication());
+
+        try {
+            rest.execute(uri, HttpMethod.resolve(request.getMethod()), req -> {
+                for(String name : Collections.list(request.getHeaderNames())) {
+                    if(!HOP_HEADERS.contains(name.toLowerCase())) {
+                        for(String value : Collections.list(request.getHeaders(name))) {
+                            req.getHeaders().add(name, value);
+                        }
+                    }
+                }
+                req.getHeaders().set(TOKEN_HEADER, token);
+                //only open the body for requests that have one, opening it turns a GET into a POST
+                if(hasBody) {
+                    if(form != null) {
+                        req.getBody().write(form);
+                    } else {
+                        StreamUtils.copy(request.getInputStream(), req.getBody());
+                    }
+                }
+            }, res -> {
+                response.setStatus(res.getRawStatusCode());
+                for(Map.Entry<String, List<String>> header : res.getHeaders().entrySet()) {
+                    if(!HOP_HEADERS.contains(header.getKey().toLowerCase())) {
+                        for(String value : header.getValue()) {
+                            response.addHeader(header.getKey(), value);
+                        }
+                    }
+                }
+                StreamUtils.copy(res.getBody(), response.getOutputStream());
+                return null;
+            });
+        } catch (RestClientException e) {
+            log.warn("Could not forward {} to {}: {}", path, node, e.toString());
+            if(!response.isCommitted()) {
+                response.sendError(503, "The node holding this election is unavailable");
+            }
+        }
+    }
+
+    /**
+     * Forward token method
+     * A logged in user is passed on with their name and id so the owner can show the same pages.
+     * Api clients keep their own bearer token, this token just marks the request as forwarded
+     */
+    private String forwardToken(Authentication auth) {
+        if(auth instanceof OAuth2AuthenticationToken) {
+            Map<String, Object> attributes = ((OAuth2AuthenticationToken) auth).getPrincipal().getAttributes();
+            Map<String, Object> claims = new HashMap<>();
+            claims.put("given_name", String.valueOf(attributes.get("given_name")));
+            claims.put("user_id", String.valueOf(attributes.get("sub")));
+            return apiTokens.mint(attributes.get("email").toString(), TOKEN_TTL, USER_SCOPE, claims);
+        }
+        return nodeToken();
+    }
+
+    private String nodeToken() {
+        return apiTokens.mint(ring.getSelf(), TOKEN_TTL, NODE_SCOPE);
+    }
+
+    private HttpHeaders nodeHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(TOKEN_HEADER, nodeToken());
+        return headers;
+    }
+
+    /**
+     * Announce method
+     * Tells another node this one is joining or leaving
+     * @param node base url of the other node
+     * @param action join or leave
+     * @return members the other node knows of, empty if it couldn't be reached
+     */
+    public List<String> announce(String node, String action) {
+        try {
+            URI uri = URI.create(node + "/cluster/members?node=" + URLEncoder.encode(ring.getSelf(), "UTF-8") + "&action=" + action);
+            ResponseEntity<List<String>> result = rest.exchange(uri, HttpMethod.POST, new HttpEntity<>(nodeHeaders()),
+                    new ParameterizedTypeReference<List<String>>() {});
+            if(result.getStatusCode().is2xxSuccessful() && result.getBody() != null) {
+                return result.getBody();
+            }
+            log.warn("Node {} refused {}: {}", node, action, result.getStatusCode());
+        } catch (RestClientException | UnsupportedEncodingException e) {
+            log.warn("Could not reach node {}: {}", node, e.toString());
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Received method
+     * @param eid UUID of a moved election
+     * @return answer a node gives once it holds a moved election
+     */
+    public static String received(String eid) {
+        return "Received " + eid;
+    }
+
+    /**
+     * Transfer method
+     * Sends a whole election, with its participants, to the node that now holds it.
+     * Only an answer naming the election counts, a proxy or error page that happens to be 2xx doesn't
+     * @param e full election, no longer taking casts
+     * @param node base url of the new owner
+     * @return true once the new owner has it
+     */
+    public boolean transfer(Election e, String node) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                archive.writeLive(e, out);
+            }
+            HttpHeaders headers = nodeHeaders();
+            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+            ResponseEntity<String> result = rest.exchange(URI.create(node + "/cluster/elections"), HttpMethod.POST,
+                    new HttpEntity<>(bytes.toByteArray(), headers), String.class);
+            if(result.getStatusCode().is2xxSuccessful() && received(e.getEid()).equals(result.getBody())) {
+                return true;
+            }
+            log.warn("Node {} refused election {}: {}", node, e.getEid(), result.getStatusCode());
+        } catch (RestClientException | IOException ex) {
+            log.error("Could not move election {} to {}", e.getEid(), node, ex);
+        }
+        return false;
+    }
+
+    /**
+     * Listings method
+     * Gets the elections another node holds for a user, for their home page
+     * @param node base url of the other node
+     * @param email email of the user
+     * @return eid, owner, code, title and voted for each election, empty if the node couldn't be reached
+     */
+    public List<HashMap<String, String>> listings(String node, String email) {
+        try {
+            URI uri = URI.create(node + "/cluster/users/elections?email=" + URLEncoder.encode(email, "UTF-8"));
+            ResponseEntity<List<HashMap<String, String>>> result = listingRest.exchange(uri, HttpMethod.GET, new HttpEntity<>(nodeHeaders()),
+                    new ParameterizedTypeReference<List<HashMap<String, String>>>() {});
+            if(result.getStatusCode().is2xxSuccessful() && result.getBody() != null) {
+                return result.getBody();
+            }
+        } catch (RestClientException | UnsupportedEncodingException e) {
+            log.warn("Could not list elections on {}: {}", node, e.toString());
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Listings method
+     * Asks every given node at once, leaving out any that fail or haven't answered by the deadline
+     * @param nodes base urls of the other nodes
+     * @param email email of the user
+     * @return listings from every node that answered in time
+     */
+    public List<HashMap<String, String>> listings(List<String> nodes, String email) {
+        List<Future<List<HashMap<String, String>>>> asks = new ArrayList<>();
+        for(String node : nodes) {
+            asks.add(lister.submit(() -> listings(node, email)));
+        }
+
+        List<HashMap<String, String>> listings = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(listingTimeoutMs);
+        for(int i=0; i<asks.size(); i++) {
+            try {
+                listings.addAll(asks.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                log.warn("Node {} did not list elections in time", nodes.get(i));
+                asks.get(i).cancel(true);
+            } catch (ExecutionException e) {
+                log.warn("Could not list elections on {}: {}", nodes.get(i), e.getCause().toString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return listings;
+    }
+
+    private static String encode(Map<String, String[]> params) throws UnsupportedEncodingException {
+        StringBuilder body = new StringBuilder();
+        for(Map.Entry<String, String[]> param : params.entrySet()) {
+            for(String value : param.getValue()) {
+                if(body.length() > 0) {
+                    body.append('&');
+                }
+                body.append(URLEncoder.encode(param.getKey(), "UTF-8")).append('=').append(URLEncoder.encode(value, "UTF-8"));
+            }
+        }
+        return body.toString();
+    }
+}
@@ -0,0 +1,177 @@
+package com.evoting.resources;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Additively homomorphic cryptosystem an election encrypts its ballots with.
+ * Ciphertexts and randoms are non-negative big integers below the bounds the cryptosystem gives,
+ * so the board, mix net and archive hold them without knowing the scheme. Re-encrypting adds an
+ * encryption of zero, and the randoms of two re-encryptions combine into the random of both,
+ * which is all the mix nets proof of shuffle needs
+ */
+public interface Cryptosystem {
+
+    /**
+     * Generate keys method
+     * @param algorithm PaillierCipher.ALGORITHM or ElGamalCipher.ALGORITHM
+     * @param plaintextBits bits the largest plaintext needs, paillier sizes its key to fit them
+     * @return key pair
+     */
+    static KeyPair generateKeys(String algorithm, int plaintextBits) {
+        if(PaillierCipher.ALGORITHM.equals(algorithm)) {
+            return new PaillierKeyPair().generateKeys(plaintextBits);
+        }
+        if(ElGamalCipher.ALGORITHM.equals(algorithm)) {
+            return new ElGamalKeyPair().generateKeys();
+        }
+        throw new IllegalArgumentException("Unknown cryptosystem " + algorithm);
+    }
+
+    /**
+     * Decode keys method
+     * @param algorithm algorithm of the keys
+     * @param publicKey public key from getEncoded
+     * @param privateKey private key from getEncoded
+     * @return key pair
+     */
+    static KeyPair decodeKeys(String algorithm, byte[] publicKey, byte[] privateKey) {
+        if(PaillierCipher.ALGORITHM.equals(algorithm)) {
+            PaillierPubKey pk = PaillierPubKey.decode(publicKey);
+            return new KeyPair(pk, PaillierPrivKey.decode(privateKey, pk));
+        }
+        if(ElGamalCipher.ALGORITHM.equals(algorithm)) {
+            return new KeyPair(ElGamalPubKey.decode(publicKey), ElGamalPrivKey.decode(privateKey));
+        }
+        throw new IllegalArgumentException("Unknown cryptosystem " + algorithm);
+    }
+
+    /**
+     * Open method
+     * @param keys key pair, its algorithm picks the cryptosystem
+     * @param eid election the keys belong to, for flight recorder events
+     * @param plaintexts every plaintext a ballot may hold, for cryptosystems that look decryptions up
+     * @return cryptosystem using the keys
+     */
+    static Cryptosystem open(KeyPair keys, String eid, Supplier<? extends Collection<BigInteger>> plaintexts) {
+        String algorithm = keys.getPublic().getAlgorithm();
+        if(PaillierCipher.ALGORITHM.equals(algorithm)) {
+            return new PaillierCipher(keys, eid);
+        }
+        if(ElGamalCipher.ALGORITHM.equals(algorithm)) {
+            return new ElGamalCipher(keys, eid, plaintexts);
+        }
+        throw new IllegalArgumentException("Unknown cryptosystem " + algorithm);
+    }
+
+    String getAlgorithm();
+
+    KeyPair getKeys();
+
+    /**
+     * Encryption method
+     * @param m plaintext
+     * @return ciphertext
+     */
+    default BigInteger encrypt(BigInteger m) {
+        return encryptWithRandomness(m).getCipherText();
+    }
+
+    /**
+     * Encryption method
+     * Encrypts with fresh randomness from this threads generator, safe to call from many threads at once
+     * @param m plaintext
+     * @return ciphertext and the randomness used
+     */
+    Encryption encryptWithRandomness(BigInteger m);
+
+    /**
+     * Re-encryption method
+     * @param c ciphertext
+     * @return ciphertext of the same plaintext with fresh randomness, and that randomness
+     */
+    Encryption reEncrypt(BigInteger c);
+
+    /**
+     * Re-encryption method
+     * @param c ciphertext
+     * @param r randomness to re-encrypt with
+     * @return c plus the encryption of zero with r
+     */
+    BigInteger reEncrypt(BigInteger c, BigInteger r);
+
+    /**
+     * Add method
+     * @param a ciphertext
+     * @param b ciphertext
+     * @return ciphertext of the sum of their plaintexts
+     */
+    BigInteger add(BigInteger a, BigInteger b);
+
+    /**
+     * Decryption method
+     * @param c ciphertext
+     * @return plaintext, -1 if the cryptosystem can't recover it
+     */
+    BigInteger decrypt(BigInteger c);
+
+    /**
+     * Combine method
+     * @param r randomness
+     * @param s randomness
+     * @return randomness of re-encrypting with r then s
+     */
+    BigInteger combine(BigInteger r, BigInteger s);
+
+    /**
+     * Inverse method
+     * @param r randomness
+     * @return randomness that undoes a re-encryption with r
+     */
+    BigInteger inverse(BigInteger r);
+
+    /**
+     * Ciphertext check method
+     * Checks a ciphertext encrypted elsewhere is one this cryptosystem could have made
+     * @param c ciphertext to check
+     * @return true if it is well formed
+     */
+    boolean isCiphertext(BigInteger c);
+
+    //every ciphertext is below this
+    BigInteger getCiphertextBound();
+
+    //every random is below this
+    BigInteger getRandomnessBound();
+
+    //true if the sum of every ballot can be decrypted at once, else each ballot has to be
+    boolean decryptsSums();
+
+    //identifies the public key, and goes into the proof of shuffle challenge
+    BigInteger getKeyId();
+
+    //public key values for clients that encrypt for themselves, in hex
+    Map<String, String> describe();
+
+    //a ciphertext and the randomness it was made with
+    class Encryption {
+        private final BigInteger cipherText;
+        private final BigInteger randomness;
+
+        public Encryption(BigInteger c, BigInteger r) {
+            cipherText = c;
+            randomness = r;
+        }
+
+        public BigInteger getCipherText() {
+            return cipherText;
+        }
+
+        public BigInteger getRandomness() {
+            return randomness;
+        }
+    }
+}
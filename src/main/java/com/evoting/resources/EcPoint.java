@@ -0,0 +1,320 @@
+package com.evoting.resources;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Point on the NIST P-256 curve y^2 = x^3 - 3x + b mod p, for EC-ElGamal.
+ * Points are kept in affine coordinates. Sums inside a multiplication are worked out in jacobian
+ * coordinates, so only the finished point needs an inversion.
+ *
+ * Scalars are often secret, the private key, a ballot or its randomness, so every multiplication does
+ * the same doublings and additions in the same order whatever the scalar: it is padded to a fixed length
+ * and a window of zeros adds into a dummy point. BigInteger arithmetic itself isn't constant time,
+ * so this hides the shape of the scalar rather than making the multiplication constant time
+ */
+public final class EcPoint {
+
+    public static final BigInteger P = new BigInteger("ffffffff00000001000000000000000000000000ffffffffffffffffffffffff", 16);
+    public static final BigInteger B = new BigInteger("5ac635d8aa3a93e7b3ebbd55769886bc651d06b0cc53b0f63bce3c3e27d2604b", 16);
+    public static final BigInteger ORDER = new BigInteger("ffffffff00000000ffffffffffffffffbce6faada7179e84f3b9cac2fc632551", 16);
+
+    public static final EcPoint INFINITY = new EcPoint(null, null);
+    public static final EcPoint G = new EcPoint(
+            new BigInteger("6b17d1f2e12c4247f8bce6e563a440f277037d812deb33a0f4a13945d898c296", 16),
+            new BigInteger("4fe342e2fe1a7f9b8ee7eb4a7c0f9e162bce33576b315ececbb6406837bf51f5", 16));
+
+    public static final int ENCODED_BYTES = 33; //a parity byte then x
+
+    private static final BigInteger THREE = BigInteger.valueOf(3);
+    private static final BigInteger SQRT_EXP = P.add(BigInteger.ONE).shiftRight(2);   //p = 3 mod 4, so a root is a^((p+1)/4)
+    private static final int WINDOW = 4;    //bits of the scalar taken per step
+    private static final int SCALAR_BITS = ORDER.bitLength() + 1;  //scalars are padded to this length, top bit set
+    private static final int WINDOWS = (SCALAR_BITS + WINDOW - 1) / WINDOW;    //windows in a padded scalar
+
+    private final BigInteger x, y;  //null for the point at infinity
+
+    private EcPoint(BigInteger x1, BigInteger y1) {
+        x = x1;
+        y = y1;
+    }
+
+    /**
+     * Point method
+     * @param x affine x
+     * @param y affine y
+     * @return the point, if it is on the curve
+     */
+    public static EcPoint of(BigInteger x, BigInteger y) {
+        EcPoint p = new EcPoint(x, y);
+        if(x.signum() < 0 || x.compareTo(P) >= 0 || y.signum() < 0 || y.compareTo(P) >= 0 || !p.isOnCurve()) {
+            throw new IllegalArgumentException("Point is not on the curve");
+        }
+        return p;
+    }
+
+    public boolean isInfinity() {
+        return x == null;
+    }
+
+    private boolean isOnCurve() {
+        //y^2 = x^3 - 3x + b
+        BigInteger rhs = x.multiply(x).subtract(THREE).multiply(x).add(B).mod(P);
+        return y.multiply(y).mod(P).equals(rhs);
+    }
+
+    /**
+     * Add method
+     * @param q point to add
+     * @return this + q
+     */
+    public EcPoint add(EcPoint q) {
+        if(isInfinity()) {
+            return q;
+        }
+        return new Jacobian(this).add(q).toAffine();
+    }
+
+    public EcPoint negate() {
+        return isInfinity() ? this : new EcPoint(x, P.subtract(y).mod(P));
+    }
+
+    /**
+     * Multiply method
+     * Fixed window multiplication by any scalar, for points used once such as a ciphertext.
+     * Every window is doubled into and added to, see the class comment
+     * @param k scalar
+     * @return k * this
+     */
+    public EcPoint multiply(BigInteger k) {
+        if(isInfinity() || k.mod(ORDER).signum() == 0) {
+            return INFINITY;
+        }
+        BigInteger padded = pad(k);
+        //1 to 15 times this point
+        EcPoint[] small = new EcPoint[1 << WINDOW];
+        small[1] = this;
+        for(int d=2; d<small.length; d++) {
+            small[d] = small[d - 1].add(this);
+        }
+        //acc and a dummy that windows of zeros add into
+        Jacobian[] acc = {new Jacobian(INFINITY), new Jacobian(this)};
+        for(int i=WINDOWS-1; i>=0; i--) {
+            for(int b=0; b<WINDOW; b++) {
+                acc[0] = acc[0].twice();
+            }
+            int digit = digit(padded, i);
+            int zero = (digit - 1) >>> 31;  //1 if the digit is 0
+            acc[zero] = acc[zero].add(small[digit | zero]);
+        }
+        return acc[0].toAffine();
+    }
+
+    /**
+     * Encode method
+     * Compressed form, 2 or 3 for the parity of y then x in 32 bytes, all zeros for infinity
+     * @return 33 bytes
+     */
+    public byte[] encode() {
+        byte[] out = new byte[ENCODED_BYTES];
+        if(isInfinity()) {
+            return out;
+        }
+        out[0] = (byte) (y.testBit(0) ? 3 : 2);
+        byte[] xb = x.toByteArray();
+        int len = Math.min(xb.length, ENCODED_BYTES - 1);
+        System.arraycopy(xb, xb.length - len, out, ENCODED_BYTES - len, len);
+        return out;
+    }
+
+    /**
+     * Decode method
+     * @param in bytes holding an encoded point
+     * @param off where the point starts
+     * @return the point, refusing anything that isn't on the curve
+     */
+    public static EcPoint decode(byte[] in, int off) {
+        byte tag = in[off];
+        BigInteger px = new BigInteger(1, Arrays.copyOfRange(in, off + 1, off + ENCODED_BYTES));
+        if(tag == 0 && px.signum() == 0) {
+            return INFINITY;
+        }
+        if((tag != 2 && tag != 3) || px.compareTo(P) >= 0) {
+            throw new IllegalArgumentException("Not an encoded point");
+        }
+        BigInteger rhs = px.multiply(px).subtract(THREE).multiply(px).add(B).mod(P);
+        BigInteger py = rhs.modPow(SQRT_EXP, P);
+        if(!py.multiply(py).mod(P).equals(rhs)) {
+            throw new IllegalArgumentException("Point is not on the curve");
+        }
+        if(py.testBit(0) != (tag == 3)) {
+            py = P.subtract(py);
+        }
+        return new EcPoint(px, py);
+    }
+
+    public BigInteger getX() {
+        return x;
+    }
+
+    public BigInteger getY() {
+        return y;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof EcPoint)) {
+            return false;
+        }
+        EcPoint q = (EcPoint) o;
+        return isInfinity() ? q.isInfinity() : !q.isInfinity() && x.equals(q.x) && y.equals(q.y);
+    }
+
+    @Override
+    public int hashCode() {
+        return isInfinity() ? 0 : x.hashCode();
+    }
+
+    /**
+     * Pad method
+     * Adds the order once or twice so the scalar is SCALAR_BITS long with its top bit set,
+     * which doesn't change k times any point. The top window is then never zero,
+     * so the length of k doesn't show in how much work the multiplication does
+     * @param k scalar
+     * @return k mod the order, plus the order once or twice
+     */
+    private static BigInteger pad(BigInteger k) {
+        BigInteger once = k.mod(ORDER).add(ORDER);
+        return once.testBit(SCALAR_BITS - 1) ? once : once.add(ORDER);
+    }
+
+    //WINDOW bits of k starting at bit i * WINDOW
+    private static int digit(BigInteger k, int i) {
+        int d = 0;
+        for(int b=WINDOW-1; b>=0; b--) {
+            d = d << 1 | (k.testBit(i * WINDOW + b) ? 1 : 0);
+        }
+        return d;
+    }
+
+    /**
+     * Multiples of one point laid out so multiplying it by any scalar takes one addition per window
+     * and no doublings. Worth building for points multiplied many times, such as G and a public key
+     */
+    public static final class Table {
+        private final EcPoint[][] rows;   //rows[i][d] is d * 16^i times the point
+
+        public Table(EcPoint point) {
+            int windows = WINDOWS;
+            rows = new EcPoint[windows][1 << WINDOW];
+            EcPoint base = point;
+            for(int i=0; i<windows; i++) {
+                rows[i][0] = INFINITY;
+                for(int d=1; d<rows[i].length; d++) {
+                    rows[i][d] = rows[i][d - 1].add(base);
+                }
+                //16^(i+1) times the point is 15 + 1 times 16^i
+                base = rows[i][rows[i].length - 1].add(base);
+            }
+        }
+
+        /**
+         * Multiply method
+         * @param k scalar
+         * @return k times the tables point
+         */
+        public EcPoint multiply(BigInteger k) {
+            return multiplyAdd(k, INFINITY);
+        }
+
+        /**
+         * Multiply add method
+         * One addition for every window, a window of zeros adding into a dummy point instead
+         * @param k scalar
+         * @param q point to add
+         * @return k times the tables point plus q, with a single inversion
+         */
+        public EcPoint multiplyAdd(BigInteger k, EcPoint q) {
+            BigInteger padded = pad(k);
+            //acc and a dummy, both away from infinity once the always set top window is added
+            Jacobian[] acc = {new Jacobian(q), new Jacobian(rows[0][1])};
+            for(int i=rows.length-1; i>=0; i--) {
+                int digit = digit(padded, i);
+                int zero = (digit - 1) >>> 31;  //1 if the digit is 0
+                acc[zero] = acc[zero].add(rows[i][digit | zero]);
+            }
+            return acc[0].toAffine();
+        }
+    }
+
+    //point as (X, Y, Z) standing for (X/Z^2, Y/Z^3), Z = 0 at infinity
+    private static final class Jacobian {
+        private final BigInteger x, y, z;
+
+        Jacobian(EcPoint p) {
+            this(p.isInfinity() ? BigInteger.ONE : p.x, p.isInfinity() ? BigInteger.ONE : p.y,
+                    p.isInfinity() ? BigInteger.ZERO : BigInteger.ONE);
+        }
+
+        Jacobian(BigInteger x1, BigInteger y1, BigInteger z1) {
+            x = x1;
+            y = y1;
+            z = z1;
+        }
+
+        boolean isInfinity() {
+            return z.signum() == 0;
+        }
+
+        //dbl-2001-b, for a = -3
+        Jacobian twice() {
+            if(isInfinity() || y.signum() == 0) {
+                return new Jacobian(INFINITY);
+            }
+            BigInteger delta = z.multiply(z).mod(P);
+            BigInteger gamma = y.multiply(y).mod(P);
+            BigInteger beta = x.multiply(gamma).mod(P);
+            BigInteger alpha = x.subtract(delta).multiply(x.add(delta)).multiply(THREE).mod(P);
+            BigInteger x3 = alpha.multiply(alpha).subtract(beta.shiftLeft(3)).mod(P);
+            BigInteger z3 = y.add(z).pow(2).subtract(gamma).subtract(delta).mod(P);
+            BigInteger y3 = alpha.multiply(beta.shiftLeft(2).subtract(x3)).subtract(gamma.multiply(gamma).shiftLeft(3)).mod(P);
+            return new Jacobian(x3, y3, z3);
+        }
+
+        //madd-2007-bl, adding an affine point
+        Jacobian add(EcPoint q) {
+            if(q.isInfinity()) {
+                return this;
+            }
+            if(isInfinity()) {
+                return new Jacobian(q);
+            }
+            BigInteger z1z1 = z.multiply(z).mod(P);
+            BigInteger u2 = q.x.multiply(z1z1).mod(P);
+            BigInteger s2 = q.y.multiply(z).multiply(z1z1).mod(P);
+            BigInteger h = u2.subtract(x).mod(P);
+            BigInteger r = s2.subtract(y).shiftLeft(1).mod(P);
+            if(h.signum() == 0) {
+                //same x, either the same point or its negation
+                return r.signum() == 0 ? twice() : new Jacobian(INFINITY);
+            }
+            BigInteger hh = h.multiply(h).mod(P);
+            BigInteger i = hh.shiftLeft(2).mod(P);
+            BigInteger j = h.multiply(i).mod(P);
+            BigInteger v = x.multiply(i).mod(P);
+            BigInteger x3 = r.multiply(r).subtract(j).subtract(v.shiftLeft(1)).mod(P);
+            BigInteger y3 = r.multiply(v.subtract(x3)).subtract(y.multiply(j).shiftLeft(1)).mod(P);
+            BigInteger z3 = z.add(h).pow(2).subtract(z1z1).subtract(hh).mod(P);
+            return new Jacobian(x3, y3, z3);
+        }
+
+        EcPoint toAffine() {
+            if(isInfinity()) {
+                return INFINITY;
+            }
+            BigInteger zInv = z.modInverse(P);
+            BigInteger zInv2 = zInv.multiply(zInv).mod(P);
+            return new EcPoint(x.multiply(zInv2).mod(P), y.multiply(zInv2).multiply(zInv).mod(P));
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.evoting.resources;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Exponential ElGamal on P-256.
+ * A plaintext m is encrypted as (r*G, m*G + r*h), so adding ciphertexts point by point adds their plaintexts.
+ * Decrypting gives back m*G, and m is found by looking the point up among the plaintexts the election
+ * can make, so this only decrypts single ballots and never a sum of them.
+ * A ciphertext is both points compressed, 66 bytes, and a re-encryption is two multiplications by
+ * points known in advance, far less than a paillier modPow with a key of the same strength
+ */
+public class ElGamalCipher implements Cryptosystem {
+
+    public static final String ALGORITHM = "EC-ElGamal";
+    public static final int MAX_PLAINTEXTS = 1 << 14;   //largest lookup table decryption builds
+    public static final BigInteger NOT_FOUND = BigInteger.ONE.negate();    //decryption of a point outside the table
+
+    private static final int POINT = EcPoint.ENCODED_BYTES;
+    private static final BigInteger BOUND = BigInteger.ONE.shiftLeft(8 * (2 * POINT - 1) + 2); //first byte is at most 3
+    private static final EcPoint.Table G = new EcPoint.Table(EcPoint.G);   //shared by every election
+
+    private KeyPair keys;
+    private String eid; //election the keys belong to, for flight recorder events
+    private EcPoint.Table h;    //multiples of the public key
+
+    private Supplier<? extends Collection<BigInteger>> plaintexts;  //every plaintext a ballot may hold
+    private volatile Map<BigInteger, BigInteger> lookup;    //encoded m*G to m, built on the first decryption
+
+    public ElGamalCipher(KeyPair kp, String id, Supplier<? extends Collection<BigInteger>> p) {
+        keys = kp;
+        eid = id;
+        plaintexts = p;
+        h = new EcPoint.Table(((ElGamalPubKey) kp.getPublic()).getH());
+    }
+
+    /**
+     * Encryption method
+     * @param m input message m
+     * @return (r*G, m*G + r*h) and r
+     */
+    @Override
+    public Encryption encryptWithRandomness(BigInteger m) {
+        ElectionEvents.Encrypt event = new ElectionEvents.Encrypt();
+        event.begin();
+
+        BigInteger r = Randomness.unitBelow(EcPoint.ORDER);
+        Encryption enc = new Encryption(encode(G.multiply(r), G.multiplyAdd(m, h.multiply(r))), r);
+
+        commit(event);
+        return enc;
+    }
+
+    /**
+     * Re-encryption method
+     * Adds a fresh encryption of zero, which keeps the plaintext
+     * @param c ciphertext input
+     * @return re-encrypted value and the randomness used
+     */
+    @Override
+    public Encryption reEncrypt(BigInteger c) {
+        ElectionEvents.Encrypt event = new ElectionEvents.Encrypt();
+        event.begin();
+
+        BigInteger r = Randomness.unitBelow(EcPoint.ORDER);
+        Encryption enc = new Encryption(reEncrypt(c, r), r);
+
+        commit(event);
+        return enc;
+    }
+
+    /**
+     * Re-encryption method
+     * @param c ciphertext input
+     * @param r randomness
+     * @return (c1 + r*G, c2 + r*h)
+     */
+    @Override
+    public BigInteger reEncrypt(BigInteger c, BigInteger r) {
+        EcPoint[] p = decode(c);
+        return encode(G.multiplyAdd(r, p[0]), h.multiplyAdd(r, p[1]));
+    }
+
+    @Override
+    public BigInteger add(BigInteger a, BigInteger b) {
+        EcPoint[] p = decode(a);
+        EcPoint[] q = decode(b);
+        return encode(p[0].add(q[0]), p[1].add(q[1]));
+    }
+
+    /**
+     * Decryption method
+     * m*G = c2 - x*c1, then m is looked up
+     * @param c ciphertext input
+     * @return decrypted value, NOT_FOUND if no ballot could hold it
+     */
+    @Override
+    public BigInteger decrypt(BigInteger c) {
+        ElectionEvents.Decrypt event = new ElectionEvents.Decrypt();
+        event.begin();
+
+        EcPoint[] p = decode(c);
+        BigInteger x = ((ElGamalPrivKey) keys.getPrivate()).getX();
+        EcPoint mG = p[0].multiply(x).negate().add(p[1]);
+        BigInteger m = lookup().getOrDefault(new BigInteger(1, mG.encode()), NOT_FOUND);
+
+        event.end();
+        if(event.shouldCommit()) {
+            event.eid = eid;
+            event.bytes = 2 * POINT;
+            event.commit();
+        }
+        return m;
+    }
+
+    //randoms add, mod the order of G
+    @Override
+    public BigInteger combine(BigInteger r, BigInteger s) {
+        return r.add(s).mod(EcPoint.ORDER);
+    }
+
+    @Override
+    public BigInteger inverse(BigInteger r) {
+        return EcPoint.ORDER.subtract(r).mod(EcPoint.ORDER);
+    }
+
+    /**
+     * Ciphertext check method
+     * Both points must be on the curve, and the first can't be infinity or the second would be m*G in the clear
+     * @param c ciphertext to check
+     * @return true if it is well formed
+     */
+    @Override
+    public boolean isCiphertext(BigInteger c) {
+        if(c.signum() <= 0 || c.compareTo(BOUND) >= 0) {
+            return false;
+        }
+        try {
+            return !decode(c)[0].isInfinity();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public BigInteger getCiphertextBound() {
+        return BOUND;
+    }
+
+    @Override
+    public BigInteger getRandomnessBound() {
+        return EcPoint.ORDER;
+    }
+
+    //a sum of ballots is too big to look up
+    @Override
+    public boolean decryptsSums() {
+        return false;
+    }
+
+    @Override
+    public BigInteger getKeyId() {
+        return new BigInteger(1, keys.getPublic().getEncoded());
+    }
+
+    @Override
+    public Map<String, String> describe() {
+        Map<String, String> key = new HashMap<>();
+        key.put("curve", "P-256");
+        key.put("h", getKeyId().toString(16));
+        return key;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return ALGORITHM;
+    }
+
+    @Override
+    public KeyPair getKeys() {
+        return keys;
+    }
+
+    //m*G for every plaintext a ballot may hold, built once
+    private Map<BigInteger, BigInteger> lookup() {
+        Map<BigInteger, BigInteger> table = lookup;
+        if(table == null) {
+            synchronized (this) {
+                table = lookup;
+                if(table == null) {
+                    table = new HashMap<>();
+                    for(BigInteger m : plaintexts.get()) {
+                        if(table.size() == MAX_PLAINTEXTS) {
+                            throw new IllegalStateException("More than " + MAX_PLAINTEXTS + " plaintexts to look up");
+                        }
+                        table.put(new BigInteger(1, G.multiply(m).encode()), m);
+                    }
+                    lookup = table;
+                }
+            }
+        }
+        return table;
+    }
+
+    //both points compressed, one after the other
+    private static BigInteger encode(EcPoint c1, EcPoint c2) {
+        byte[] bytes = new byte[2 * POINT];
+        System.arraycopy(c1.encode(), 0, bytes, 0, POINT);
+        System.arraycopy(c2.encode(), 0, bytes, POINT, POINT);
+        return new BigInteger(1, bytes);
+    }
+
+    private static EcPoint[] decode(BigInteger c) {
+        byte[] raw = c.toByteArray();
+        if(c.signum() < 0 || c.bitLength() > 8 * 2 * POINT) {
+            throw new IllegalArgumentException("Not an EC-ElGamal ciphertext");
+        }
+        //the big integer drops leading zeros and may add a sign byte
+        byte[] bytes = new byte[2 * POINT];
+        int len = Math.min(raw.length, bytes.length);
+        System.arraycopy(raw, raw.length - len, bytes, bytes.length - len, len);
+        return new EcPoint[]{EcPoint.decode(bytes, 0), EcPoint.decode(bytes, POINT)};
+    }
+
+    private void commit(ElectionEvents.Encrypt event) {
+        event.end();
+        if(event.shouldCommit()) {
+            event.eid = eid;
+            event.bytes = 2 * POINT;
+            event.commit();
+        }
+    }
+}
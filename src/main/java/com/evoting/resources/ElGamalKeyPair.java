@@ -0,0 +1,41 @@
+package com.evoting.resources;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+
+public class ElGamalKeyPair {
+
+    ElGamalPubKey pubKey;
+    ElGamalPrivKey privKey;
+
+    /**
+     * Generate keys method
+     * Generates an EC-ElGamal key pair on P-256
+     * @return key pair
+     */
+    public KeyPair generateKeys() {
+        //secret x in [1, q)
+        BigInteger x;
+        SecureRandom rng = new SecureRandom();
+        do {
+            x = new BigInteger(EcPoint.ORDER.bitLength(), rng);
+        } while(x.signum() == 0 || x.compareTo(EcPoint.ORDER) >= 0);
+
+        //h = x * G
+        pubKey = new ElGamalPubKey(EcPoint.G.multiply(x));
+        privKey = new ElGamalPrivKey(x);
+
+        return new KeyPair(pubKey, privKey);
+    }
+
+    //return publickey
+    public ElGamalPubKey getPubKey() {
+        return pubKey;
+    }
+
+    //return private key
+    public ElGamalPrivKey getPrivKey() {
+        return privKey;
+    }
+}
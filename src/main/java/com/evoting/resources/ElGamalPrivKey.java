@@ -0,0 +1,48 @@
+package com.evoting.resources;
+
+import java.math.BigInteger;
+import java.security.PrivateKey;
+
+public class ElGamalPrivKey implements PrivateKey {
+
+    private static final long serialVersionUID = 1L;
+
+    private BigInteger x;   //secret scalar
+
+    public ElGamalPrivKey(BigInteger x1) {
+        x = x1;
+    }
+
+    public BigInteger getX() {
+        return x;
+    }
+
+    /**
+     * Decode method
+     * @param encoded bytes from getEncoded
+     * @return private key
+     */
+    public static ElGamalPrivKey decode(byte[] encoded) {
+        BigInteger x = new BigInteger(encoded);
+        if(x.signum() <= 0 || x.compareTo(EcPoint.ORDER) >= 0) {
+            throw new IllegalArgumentException("Not an encoded EC-ElGamal key");
+        }
+        return new ElGamalPrivKey(x);
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return ElGamalCipher.ALGORITHM;
+    }
+
+    @Override
+    public String getFormat() {
+        return "RAW";
+    }
+
+    //x as a big endian integer
+    @Override
+    public byte[] getEncoded() {
+        return x.toByteArray();
+    }
+}
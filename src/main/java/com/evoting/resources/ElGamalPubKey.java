@@ -0,0 +1,46 @@
+package com.evoting.resources;
+
+import java.security.PublicKey;
+
+public class ElGamalPubKey implements PublicKey {
+
+    private static final long serialVersionUID = 1L;
+
+    private EcPoint h;  //h = x * G
+
+    public ElGamalPubKey(EcPoint h1) {
+        h = h1;
+    }
+
+    public EcPoint getH() {
+        return h;
+    }
+
+    /**
+     * Decode method
+     * @param encoded bytes from getEncoded
+     * @return public key
+     */
+    public static ElGamalPubKey decode(byte[] encoded) {
+        if(encoded.length != EcPoint.ENCODED_BYTES) {
+            throw new IllegalArgumentException("Not an encoded EC-ElGamal key");
+        }
+        return new ElGamalPubKey(EcPoint.decode(encoded, 0));
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return ElGamalCipher.ALGORITHM;
+    }
+
+    @Override
+    public String getFormat() {
+        return "RAW";
+    }
+
+    //h compressed
+    @Override
+    public byte[] getEncoded() {
+        return h.encode();
+    }
+}
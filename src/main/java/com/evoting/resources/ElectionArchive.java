@@ -0,0 +1,463 @@
+package com.evoting.resources;
+
+import com.evoting.models.BulletinBoard;
+import com.evoting.models.Election;
+import com.evoting.models.Proof;
+import com.evoting.models.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class ElectionArchive {
+
+    private static final Logger log = LoggerFactory.getLogger(ElectionArchive.class);
+
+    private static final int VERSION = 6;   //archive file format version
+    private static final int MAX_KEY_BYTES = 1 << 16;  //longest encoded key read back
+
+    private File dir;   //directory holding the archived elections
+    private final KeySealer sealer; //seals private keys on disk and between nodes
+    private final LinkedHashMap<String, Election> cache;  //recently loaded elections, least recently used first
+    private final ConcurrentHashMap<String, CompletableFuture<Election>> loading = new ConcurrentHashMap<>();  //loads under way, one per election
+
+    public ElectionArchive(File d, int cacheSize, KeySealer s) {
+        dir = d;
+        sealer = s;
+        dir.mkdirs();
+        cache = new LinkedHashMap<String, Election>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Election> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Archive method
+     * Writes a closed election to disk then evicts its heavy data, leaving a stub in memory
+     * @param e closed election
+     */
+    public void archive(Election e) {
+        try {
+            File tmp = new File(dir, e.getEid() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+                write(e, out, sealer);
+            }
+            //only replace the archive once it is fully written
+            if(!tmp.renameTo(file(e.getEid()))) {
+                throw new IOException("Could not move " + tmp);
+            }
+            e.evict();
+        } catch (IOException ex) {
+            //keep the election in memory if it can't be archived
+            log.error("Could not archive {}, keeping it in memory", e.getEid(), ex);
+        }
+    }
+
+    /**
+     * Resolve method
+     * Gets the full election behind a stub, loading it from disk into the cache if needed.
+     * The cache lock is only held to look up and add, the load runs outside it so one slow load
+     * doesn't hold up every other election. Callers wanting an election already being loaded wait for that load
+     * @param e election or archived stub
+     * @return full election
+     */
+    public Election resolve(Election e) {
+        if(e == null || !e.isArchived()) {
+            return e;
+        }
+        String eid = e.getEid();
+        Election cached = cached(eid);
+        if(cached != null) {
+            return cached;
+        }
+
+        CompletableFuture<Election> mine = new CompletableFuture<>();
+        CompletableFuture<Election> pending = loading.putIfAbsent(eid, mine);
+        if(pending == null) {
+            pending = mine;
+            try {
+                //another load may have finished between the lookup and now
+                Election full = cached(eid);
+                if(full == null) {
+                    full = load(eid);
+                    synchronized (cache) {
+                        cache.put(eid, full);
+                    }
+                }
+                mine.complete(full);
+            } catch (IOException ex) {
+                mine.completeExceptionally(new UncheckedIOException("Could not load archived election " + eid, ex));
+            } catch (RuntimeException ex) {
+                mine.completeExceptionally(ex);
+            } finally {
+                loading.remove(eid, mine);
+            }
+        }
+
+        try {
+            return pending.join();
+        } catch (CompletionException ex) {
+            throw (RuntimeException) ex.getCause();
+        }
+    }
+
+    private Election cached(String eid) {
+        synchronized (cache) {
+            return cache.get(eid);
+        }
+    }
+
+    /**
+     * Cached bytes method
+     * @return bytes held by the archived elections loaded into the cache
+     */
+    public long cachedBytes() {
+        long bytes = 0;
+        synchronized (cache) {
+            for(Election e : cache.values()) {
+                bytes += e.memoryBytes();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Clear cache method
+     * Drops every loaded election, they are read from disk again when next viewed
+     */
+    public void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Load method
+     * Reads an archived election from disk
+     * @param eid UUID of the election
+     * @return full election
+     */
+    public Election load(String eid) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file(eid)))))) {
+            return read(in, sealer);
+        }
+    }
+
+    public File file(String eid) {
+        return new File(dir, eid + ".evote.gz");
+    }
+
+    /**
+     * Write method
+     * Writes an election as: header strings, candidates, results, cryptosystem and its keys, slot width and limits,
+     * board, shuffled board, proofs.
+     * The private key is sealed when a sealer is given. Without one it is written in the clear,
+     * for files made away from a running node
+     * @param e election to write
+     * @param out output stream
+     * @param sealer seals the private key, null to write it in the clear
+     */
+    public static void write(Election e, DataOutputStream out, KeySealer sealer) throws IOException {
+        out.writeInt(VERSION);
+        out.writeUTF(e.getEid());
+        out.writeUTF(e.getOwner());
+        out.writeUTF(e.getCode());
+        out.writeUTF(e.getTitle());
+
+        out.writeInt(e.getCandidates().size());
+        for(String cand : e.getCandidates()) {
+            out.writeUTF(cand);
+        }
+
+        Map<String, String> results = e.getResults();
+        out.writeInt(results == null ? -1 : results.size());
+        if(results != null) {
+            for(Map.Entry<String, String> entry : results.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+        }
+
+        KeyPair keys = e.getCipher().getKeys();
+        out.writeUTF(e.getCipher().getAlgorithm());
+        writeBytes(out, keys.getPublic().getEncoded());
+        out.writeBoolean(sealer != null);
+        writeBytes(out, sealer != null ? sealer.seal(e.getEid(), keys.getPrivate().getEncoded()) : keys.getPrivate().getEncoded());
+        out.writeInt(e.getSlotBits());
+        out.writeInt(e.getMaxVoters());
+        out.writeInt(e.getMaxSelections());
+
+        writeBigs(out, e.getBoard().getBallots());
+        writeBigs(out, e.getBoard().getShuffledBallots());
+
+        out.writeInt(e.getProofs().size());
+        for(CopyOnWriteArrayList<Proof> mix : e.getProofs()) {
+            out.writeInt(mix.size());
+            for(Proof p : mix) {
+                writeBig(out, p.getHash());
+                out.writeInt(p.getRound());
+                out.writeBoolean(p.isBit());
+                writeBigs(out, p.getShadow());
+                writeInts(out, p.getPermutation());
+                writeBigs(out, p.getRandoms());
+            }
+        }
+    }
+
+    /**
+     * Read method
+     * Reads an election written by write with its private key in the clear, as an export is
+     * @param in input stream
+     * @return full election
+     */
+    public static Election read(DataInputStream in) throws IOException {
+        return read(in, null);
+    }
+
+    /**
+     * Read method
+     * Reads an election written by write
+     * @param in input stream
+     * @param sealer opens a sealed private key, may be null if the key was written in the clear
+     * @return full election
+     */
+    public static Election read(DataInputStream in, KeySealer sealer) throws IOException {
+        int version = in.readInt();
+        if(version != VERSION) {
+            throw new IOException("Unknown archive version " + version);
+        }
+        String eid = in.readUTF();
+        String owner = in.readUTF();
+        String code = in.readUTF();
+        String title = in.readUTF();
+
+        CopyOnWriteArrayList<String> cands = new CopyOnWriteArrayList<>();
+        int candCount = in.readInt();
+        for(int i=0; i<candCount; i++) {
+            cands.add(in.readUTF());
+        }
+
+        HashMap<String, String> results = null;
+        int resultCount = in.readInt();
+        if(resultCount >= 0) {
+            results = new HashMap<>();
+            for(int i=0; i<resultCount; i++) {
+                results.put(in.readUTF(), in.readUTF());
+            }
+        }
+
+        String algorithm = in.readUTF();
+        byte[] publicKey = readBytes(in);
+        boolean sealed = in.readBoolean();
+        byte[] privateKey = readBytes(in);
+        if(sealed) {
+            if(sealer == null) {
+                throw new IOException("The private key of " + eid + " is sealed, only a node with the archive secret can read it");
+            }
+            privateKey = sealer.open(eid, privateKey);
+        }
+        KeyPair keys;
+        try {
+            keys = Cryptosystem.decodeKeys(algorithm, publicKey, privateKey);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Bad keys in archive", e);
+        }
+        int slotBits = in.readInt();
+        int maxVoters = in.readInt();
+        int maxSelections = in.readInt();
+        Cryptosystem cipher = Cryptosystem.open(keys, eid, () -> Election.plaintexts(cands.size(), slotBits, maxSelections));
+        BigInteger bound = cipher.getCiphertextBound();
+
+        BulletinBoard board = new BulletinBoard(eid, bound);
+        board.setBallots(readBigs(in, bound));
+        board.setShuffledBallots(readBigs(in, bound));
+
+        CopyOnWriteArrayList<CopyOnWriteArrayList<Proof>> proofs = new CopyOnWriteArrayList<>();
+        int mixCount = in.readInt();
+        for(int i=0; i<mixCount; i++) {
+            CopyOnWriteArrayList<Proof> mix = new CopyOnWriteArrayList<>();
+            int proofCount = in.readInt();
+            for(int j=0; j<proofCount; j++) {
+                BigInteger hash = readBig(in);
+                int round = in.readInt();
+                boolean bit = in.readBoolean();
+                List<BigInteger> shadow = readBigs(in, bound);
+                int[] perm = readInts(in);
+                mix.add(new Proof(hash, round, bit, shadow, perm, readBigs(in, cipher.getRandomnessBound())));
+            }
+            proofs.add(mix);
+        }
+
+        return new Election(eid, owner, code, title, cands, results, cipher, slotBits, maxVoters, maxSelections, board, proofs);
+    }
+
+    /**
+     * Export method
+     * Writes a tallied election for an offline recount, its private key sealed as in the archive
+     * @param e full election
+     * @param out output stream
+     */
+    public void export(Election e, DataOutputStream out) throws IOException {
+        write(e, out, sealer);
+    }
+
+    /**
+     * Write live method
+     * Writes an election that may still be open, for moving it to another cluster node:
+     * the archive format, with the private key sealed, followed by whether it is closed and each participant
+     * @param e full election
+     * @param out output stream
+     */
+    public void writeLive(Election e, DataOutputStream out) throws IOException {
+        write(e, out, sealer);
+        out.writeBoolean(e.isClosed());
+        out.writeInt(e.getParticipants().size());
+        for(Map.Entry<User, Boolean> p : e.getParticipants().entrySet()) {
+            out.writeUTF(p.getKey().getEmail());
+            out.writeUTF(p.getKey().getName() == null ? "" : p.getKey().getName());
+            out.writeUTF(p.getKey().getId() == null ? "" : p.getKey().getId());
+            out.writeBoolean(p.getValue());
+        }
+    }
+
+    /**
+     * Peek eid method
+     * Reads the id of the election at the head of an archive, leaving the stream where it was
+     * @param in stream positioned at the start of an archive
+     * @return election id
+     */
+    public static String peekEid(BufferedInputStream in) throws IOException {
+        //the version, then the id with its two byte length
+        in.mark(Integer.BYTES + 2 + 0xFFFF);
+        DataInputStream data = new DataInputStream(in);
+        data.readInt();
+        String eid = data.readUTF();
+        in.reset();
+        return eid;
+    }
+
+    /**
+     * Read live method
+     * Reads an election written by writeLive, adding it to its participants on this node
+     * @param in input stream
+     * @param users users on this node, missing participants are added
+     * @return full election
+     */
+    public Election readLive(DataInputStream in, ConcurrentHashMap<String, User> users) throws IOException {
+        Election e = read(in, sealer);
+        e.setClosed(in.readBoolean());
+
+        users.computeIfAbsent(e.getOwner(), k -> new User(k, k, "")).addOwned(e);
+
+        int count = in.readInt();
+        for(int i=0; i<count; i++) {
+            String email = in.readUTF();
+            String name = in.readUTF();
+            String id = in.readUTF();
+            boolean voted = in.readBoolean();
+
+            User u = users.computeIfAbsent(email, k -> new User(name, email, id));
+            e.joinElection(u);
+            if(voted) {
+                e.hasCasted(u);
+            }
+            if(!email.equals(e.getOwner())) {
+                u.addJoined(e);
+            }
+        }
+        return e;
+    }
+
+    //big integers are written as their length then raw bytes, -1 for null
+    private static void writeBig(DataOutputStream out, BigInteger b) throws IOException {
+        if(b == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = b.toByteArray();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static BigInteger readBig(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if(len < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return new BigInteger(bytes);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if(len < 0 || len > MAX_KEY_BYTES) {
+            throw new IOException("Bad key length " + len);
+        }
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBigs(DataOutputStream out, List<BigInteger> list) throws IOException {
+        out.writeInt(list == null ? -1 : list.size());
+        if(list != null) {
+            for(BigInteger b : list) {
+                writeBig(out, b);
+            }
+        }
+    }
+
+    //ciphertexts and randoms are read back into an off heap arena
+    private static List<BigInteger> readBigs(DataInputStream in, BigInteger modulus) throws IOException {
+        int count = in.readInt();
+        if(count < 0) {
+            return null;
+        }
+        CiphertextArena arena = new CiphertextArena(modulus);
+        for(int i=0; i<count; i++) {
+            arena.add(readBig(in));
+        }
+        return arena;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] arr) throws IOException {
+        out.writeInt(arr == null ? -1 : arr.length);
+        if(arr != null) {
+            for(int i : arr) {
+                out.writeInt(i);
+            }
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if(count < 0) {
+            return null;
+        }
+        int[] arr = new int[count];
+        for(int i=0; i<count; i++) {
+            arr[i] = in.readInt();
+        }
+        return arr;
+    }
+}
@@ -0,0 +1,123 @@
+package com.evoting.resources;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder events for the work each election does, so a recording shows which election
+ * and which phase a slow request or a GC pause lines up with.
+ * Events cost next to nothing unless a recording has them enabled. Single encryptions and decryptions
+ * are only recorded when they are slow, the rest are recorded once per operation
+ */
+public final class ElectionEvents {
+
+    private static final String CATEGORY = "EVoting";
+
+    private ElectionEvents() {
+    }
+
+    @Name("com.evoting.Encrypt")
+    @Label("Encrypt")
+    @Category(CATEGORY)
+    @Description("One paillier encryption or re-encryption")
+    @Threshold("10 ms")
+    @StackTrace(false)
+    public static class Encrypt extends Event {
+        @Label("Election")
+        public String eid;
+
+        @Label("Ciphertext size")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("com.evoting.Decrypt")
+    @Label("Decrypt")
+    @Category(CATEGORY)
+    @Description("One paillier decryption")
+    @Threshold("10 ms")
+    @StackTrace(false)
+    public static class Decrypt extends Event {
+        @Label("Election")
+        public String eid;
+
+        @Label("Ciphertext size")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("com.evoting.BallotCast")
+    @Label("Ballot Cast")
+    @Category(CATEGORY)
+    @Description("Ballots appended to a bulletin board")
+    @StackTrace(false)
+    public static class BallotCast extends Event {
+        @Label("Election")
+        public String eid;
+
+        @Label("Ballots")
+        public int ballots;
+
+        @Label("Accepted")
+        public int accepted;
+
+        @Label("Board size")
+        public int boardSize;
+
+        @Label("Board memory")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("com.evoting.MixPhase")
+    @Label("Mix Phase")
+    @Category(CATEGORY)
+    @Description("One phase of a mix: shuffle, re-encrypt, challenge or answer")
+    @StackTrace(false)
+    public static class MixPhase extends Event {
+        @Label("Election")
+        public String eid;
+
+        @Label("Phase")
+        public String phase;
+
+        @Label("Ballots")
+        public int ballots;
+
+        @Label("Proof rounds")
+        public int rounds;
+
+        @Label("Memory")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("com.evoting.Tally")
+    @Label("Tally")
+    @Category(CATEGORY)
+    @Description("Tally of an elections mixed ballots")
+    @StackTrace(false)
+    public static class Tally extends Event {
+        @Label("Election")
+        public String eid;
+
+        @Label("Mode")
+        public String mode;
+
+        @Label("Ballots")
+        public int ballots;
+
+        @Label("Invalid ballots")
+        public long invalid;
+
+        @Label("Ballot memory")
+        @DataAmount
+        public long bytes;
+    }
+}
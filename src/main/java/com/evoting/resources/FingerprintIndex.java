@@ -0,0 +1,115 @@
+package com.evoting.resources;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.List;
+
+/**
+ * Open addressing table of 64 bit fingerprints of the ciphertexts on a board, with the board
+ * position of each. A fingerprint match is confirmed against the ballot itself, so lookups are
+ * O(1) and collisions can't reject a ballot that isn't really a copy. Not thread safe, the board
+ * guards it.
+ */
+public class FingerprintIndex {
+
+    private static final long SEED = new SecureRandom().nextLong();    //keeps fingerprints unpredictable to voters
+
+    private long[] fingerprints;    //0 marks an empty slot
+    private int[] positions;    //board index of each fingerprint
+    private int count;  //fingerprints stored
+
+    public FingerprintIndex() {
+        fingerprints = new long[1024];
+        positions = new int[1024];
+    }
+
+    /**
+     * Contains method
+     * @param c ciphertext to look for
+     * @param board ballots the positions point into
+     * @return true if the exact ciphertext is already on the board
+     */
+    public boolean contains(BigInteger c, List<BigInteger> board) {
+        return indexOf(c, board) >= 0;
+    }
+
+    /**
+     * Index of method
+     * @param c ciphertext to look for
+     * @param board ballots the positions point into
+     * @return position of the ciphertext on the board, -1 if it isn't there
+     */
+    public int indexOf(BigInteger c, List<BigInteger> board) {
+        long fp = fingerprint(c);
+        int mask = fingerprints.length - 1;
+        for(int i = (int) fp & mask; fingerprints[i] != 0; i = (i + 1) & mask) {
+            if(fingerprints[i] == fp && board.get(positions[i]).equals(c)) {
+                return positions[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Add method
+     * Records a ciphertext that has just been put on the board
+     * @param c ciphertext
+     * @param position its index on the board
+     */
+    public void add(BigInteger c, int position) {
+        //keep the table at most half full
+        if((count + 1) * 2 > fingerprints.length) {
+            grow();
+        }
+        insert(fingerprint(c), position);
+        count++;
+    }
+
+    /**
+     * Memory bytes method
+     * @return bytes held by the table
+     */
+    public long memoryBytes() {
+        return (long) fingerprints.length * (Long.BYTES + Integer.BYTES);
+    }
+
+    private void insert(long fp, int position) {
+        int mask = fingerprints.length - 1;
+        int i = (int) fp & mask;
+        while(fingerprints[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        fingerprints[i] = fp;
+        positions[i] = position;
+    }
+
+    private void grow() {
+        long[] oldFps = fingerprints;
+        int[] oldPos = positions;
+        fingerprints = new long[oldFps.length * 2];
+        positions = new int[oldPos.length * 2];
+        for(int i=0; i<oldFps.length; i++) {
+            if(oldFps[i] != 0) {
+                insert(oldFps[i], oldPos[i]);
+            }
+        }
+    }
+
+    /**
+     * Fingerprint method
+     * Seeded 64 bit hash of the ciphertexts bytes, never 0
+     */
+    private static long fingerprint(BigInteger c) {
+        long h = SEED;
+        for(byte b : c.toByteArray()) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        //final mix so the low bits used for the slot depend on every byte
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+}
@@ -0,0 +1,82 @@
+package com.evoting.resources;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Seals election private keys with AES-GCM before they are written to the archive or sent to another node.
+ * The AES key is derived from a configured secret, so every node sharing the secret can open what another sealed.
+ * The election id is bound in as associated data, so a sealed key can't be moved onto another election
+ */
+public class KeySealer {
+
+    private static final int IV_BYTES = 12; //GCM nonce
+    private static final int TAG_BITS = 128;    //GCM tag
+    private static final byte[] LABEL = "evoting election key".getBytes(StandardCharsets.UTF_8);    //keeps this key apart from other uses of the secret
+
+    private final SecretKeySpec key;    //AES-256 key
+    private final SecureRandom random = new SecureRandom();
+
+    public KeySealer(byte[] secret) {
+        if(secret.length < 32) {
+            throw new IllegalArgumentException("Key sealing secret must be at least 32 bytes");
+        }
+        try {
+            Mac hmac = Mac.getInstance("HmacSHA256");
+            hmac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            key = new SecretKeySpec(hmac.doFinal(LABEL), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    /**
+     * Seal method
+     * @param eid UUID of the election the key belongs to
+     * @param plain encoded private key
+     * @return nonce followed by the encrypted key and its tag
+     */
+    public byte[] seal(String eid, byte[] plain) {
+        byte[] iv = new byte[IV_BYTES];
+        random.nextBytes(iv);
+        try {
+            Cipher aes = Cipher.getInstance("AES/GCM/NoPadding");
+            aes.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+            aes.updateAAD(eid.getBytes(StandardCharsets.UTF_8));
+            byte[] sealed = aes.doFinal(plain);
+            byte[] out = Arrays.copyOf(iv, IV_BYTES + sealed.length);
+            System.arraycopy(sealed, 0, out, IV_BYTES, sealed.length);
+            return out;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES/GCM is not available", e);
+        }
+    }
+
+    /**
+     * Open method
+     * @param eid UUID of the election the key belongs to
+     * @param sealed bytes from seal
+     * @return encoded private key
+     * @throws IOException if it was sealed under another secret, for another election, or changed since
+     */
+    public byte[] open(String eid, byte[] sealed) throws IOException {
+        if(sealed.length < IV_BYTES + TAG_BITS / 8) {
+            throw new IOException("Sealed key is too short");
+        }
+        try {
+            Cipher aes = Cipher.getInstance("AES/GCM/NoPadding");
+            aes.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, sealed, 0, IV_BYTES));
+            aes.updateAAD(eid.getBytes(StandardCharsets.UTF_8));
+            return aes.doFinal(sealed, IV_BYTES, sealed.length - IV_BYTES);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not open the sealed key of " + eid + ", is the secret the same?", e);
+        }
+    }
+}
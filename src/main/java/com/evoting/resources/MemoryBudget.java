@@ -0,0 +1,94 @@
+package com.evoting.resources;
+
+import com.evoting.models.Election;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory this node lets its elections hold.
+ * Usage is counted from what each live election holds plus the archived elections cached for reading,
+ * and work that needs a lot more, like a mix, reserves its estimate up front. Work that doesn't fit
+ * is refused instead of running the node out of memory
+ */
+public class MemoryBudget {
+
+    private static final int BIG_OVERHEAD = 56; //object header, fields and magnitude array header of a heap BigInteger
+
+    private final long budget;  //bytes elections may hold
+    private final Map<String, Election> elections;  //elections held on this node
+    private final ElectionArchive archive;  //closed elections, some cached in memory, null if there is no archive
+    private long reserved;  //bytes promised to work in progress
+
+    public MemoryBudget(long b, Map<String, Election> e, ElectionArchive a) {
+        budget = b;
+        elections = e;
+        archive = a;
+    }
+
+    /**
+     * Reserve method
+     * Archived elections in the cache are already on disk, so they are dropped before anything is refused
+     * @param bytes estimate of what the work will hold
+     * @return true if the bytes were reserved, false if they don't fit in the budget
+     */
+    public synchronized boolean reserve(long bytes) {
+        if(used() + reserved + bytes > budget) {
+            if(archive != null) {
+                archive.clearCache();
+            }
+            if(used() + reserved + bytes > budget) {
+                return false;
+            }
+        }
+        reserved += bytes;
+        return true;
+    }
+
+    /**
+     * Release method
+     * Returns a reservation once the work is done, what it kept is counted by its election from then on
+     * @param bytes bytes reserved
+     */
+    public synchronized void release(long bytes) {
+        reserved -= bytes;
+    }
+
+    /**
+     * Used method
+     * @return bytes held by live elections and the archive cache
+     */
+    public long used() {
+        long used = archive == null ? 0 : archive.cachedBytes();
+        for(Election e : elections.values()) {
+            used += e.memoryBytes();
+        }
+        return used;
+    }
+
+    /**
+     * Bytes method
+     * Off heap arenas report what they have allocated, other lists are estimated from their first value
+     * @param list ciphertexts or randoms, may be null
+     * @return bytes held by the list
+     */
+    public static long bytes(List<BigInteger> list) {
+        if(list == null || list.isEmpty()) {
+            return 0;
+        }
+        if(list instanceof CiphertextArena) {
+            return ((CiphertextArena) list).capacityBytes();
+        }
+        long each = BIG_OVERHEAD + (list.get(0).bitLength() + 7) / 8 + Long.BYTES;
+        return list.size() * each;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public synchronized long getReserved() {
+        return reserved;
+    }
+}
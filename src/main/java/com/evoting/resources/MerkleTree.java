@@ -0,0 +1,218 @@
+package com.evoting.resources;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append only Merkle tree over the ballots on a board, hashed as in RFC 6962:
+ * a leaf is SHA-256(0x00 || ballot bytes) and a node is SHA-256(0x01 || left || right).
+ * Each level keeps its complete nodes, so an append hashes at most one node per level and
+ * roots and inclusion proofs for any size so far come from O(log n) stored nodes.
+ */
+public class MerkleTree {
+
+    private static final int HASH = 32; //bytes in a SHA-256 hash
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final ArrayList<Level> levels;  //level 0 holds the leaves
+
+    public MerkleTree() {
+        levels = new ArrayList<>();
+        levels.add(new Level());
+    }
+
+    /**
+     * Append method
+     * Adds a ballot as the next leaf and hashes each parent it completes
+     * @param c ballot
+     */
+    public synchronized void append(BigInteger c) {
+        byte[] node = leafHash(c);
+        int index = levels.get(0).add(node);
+
+        //while the new node is a right child, its parent is now complete
+        for(int k=0; (index & 1) == 1; k++) {
+            node = nodeHash(levels.get(k).get(index - 1), node);
+            index >>= 1;
+            if(levels.size() == k + 1) {
+                levels.add(new Level());
+            }
+            levels.get(k + 1).add(node);
+        }
+    }
+
+    public synchronized int size() {
+        return levels.get(0).size;
+    }
+
+    /**
+     * Memory bytes method
+     * @return bytes held by the hashes of every level
+     */
+    public synchronized long memoryBytes() {
+        long bytes = 0;
+        for(Level level : levels) {
+            bytes += level.data.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Root method
+     * @param n number of leaves to take the root over
+     * @return root hash of the first n leaves
+     */
+    public synchronized byte[] root(int n) {
+        if(n == 0) {
+            return SHA256.get().digest();
+        }
+        return subtree(0, n);
+    }
+
+    /**
+     * Proof method
+     * Gets the inclusion proof of a leaf in the tree of the first n leaves, from the leaf up.
+     * Each step gives the sibling hash and whether it goes on the left
+     * @param m index of the leaf
+     * @param n size of the tree to prove against
+     * @return root of the first n leaves and the sibling hashes from the leaf up
+     */
+    public synchronized Proof proof(int m, int n) {
+        ArrayList<Step> path = new ArrayList<>();
+        path(m, 0, n, path);
+        return new Proof(n, root(n), path);
+    }
+
+    //path of leaf m within the leaves [start, end), appended bottom up
+    private void path(int m, int start, int end, List<Step> path) {
+        if(end - start <= 1) {
+            return;
+        }
+        int k = Integer.highestOneBit(end - start - 1);    //largest power of two below the range
+        if(m < start + k) {
+            path(m, start, start + k, path);
+            path.add(new Step(subtree(start + k, end), false));
+        } else {
+            path(m, start + k, end, path);
+            path.add(new Step(subtree(start, start + k), true));
+        }
+    }
+
+    //hash of the leaves [start, end), from a stored node when the range is a complete subtree
+    private byte[] subtree(int start, int end) {
+        int len = end - start;
+        if(Integer.bitCount(len) == 1) {
+            int k = Integer.numberOfTrailingZeros(len);
+            return levels.get(k).get(start >> k);
+        }
+        int k = Integer.highestOneBit(len - 1);
+        return nodeHash(subtree(start, start + k), subtree(start + k, end));
+    }
+
+    /**
+     * Leaf hash method
+     * SHA-256 of 0x00 and the ballots unsigned big endian bytes
+     */
+    public static byte[] leafHash(BigInteger c) {
+        byte[] raw = c.toByteArray();
+        int start = raw.length > 1 && raw[0] == 0 ? 1 : 0; //skip the sign byte
+        MessageDigest md = SHA256.get();
+        md.update((byte) 0);
+        md.update(raw, start, raw.length - start);
+        return md.digest();
+    }
+
+    public static byte[] nodeHash(byte[] left, byte[] right) {
+        MessageDigest md = SHA256.get();
+        md.update((byte) 1);
+        md.update(left);
+        md.update(right);
+        return md.digest();
+    }
+
+    /**
+     * Hex method
+     * @param hash hash bytes
+     * @return lower case hex
+     */
+    public static String hex(byte[] hash) {
+        StringBuilder sb = new StringBuilder();
+        for(byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    //inclusion proof of a leaf against the root of a given size
+    public static class Proof {
+        private final int size;
+        private final byte[] root;
+        private final List<Step> steps;
+
+        Proof(int n, byte[] r, List<Step> s) {
+            size = n;
+            root = r;
+            steps = s;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public byte[] getRoot() {
+            return root;
+        }
+
+        public List<Step> getSteps() {
+            return steps;
+        }
+    }
+
+    //one step of an inclusion proof
+    public static class Step {
+        private final byte[] sibling;
+        private final boolean left; //sibling goes on the left
+
+        Step(byte[] s, boolean l) {
+            sibling = s;
+            left = l;
+        }
+
+        public byte[] getSibling() {
+            return sibling;
+        }
+
+        public boolean isLeft() {
+            return left;
+        }
+    }
+
+    //hashes of one level packed into a growable array
+    private static class Level {
+        private byte[] data = new byte[HASH * 16];
+        private int size;
+
+        int add(byte[] hash) {
+            if((size + 1) * HASH > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            System.arraycopy(hash, 0, data, size * HASH, HASH);
+            return size++;
+        }
+
+        byte[] get(int i) {
+            return Arrays.copyOfRange(data, i * HASH, (i + 1) * HASH);
+        }
+    }
+}
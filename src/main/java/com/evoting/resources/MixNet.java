@@ -1,167 +1,509 @@
 package com.evoting.resources;
 
 import com.evoting.models.Proof;
-import com.nimbusds.jose.util.BigIntegerUtils;
 
-import java.io.*;
 import java.math.BigInteger;
-import java.security.KeyPair;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.util.HashMap;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * Re-encryption mix with a k round cut and choose proof of shuffle.
+ * Alongside the output the mix makes k shadow shuffles of the same input. A fiat-shamir challenge over
+ * the input, output and every shadow gives one bit per round: a 0 opens the shadow from the input,
+ * a 1 links the shadow to the output. A mix that changed a ballot can answer at most one of the two
+ * for each shadow, so it passes with probability 2^-k
+ */
 public class MixNet {
 
-    private static KeyPair paillierKey; //paillier keys
-    private static PaillierCipher paillier; //paillier cipher
+    private static final int CHUNK = 256;   //ballots re-encrypted per scheduled chunk
 
-    private CopyOnWriteArrayList<BigInteger> ballots;   //initial ballots
-    private CopyOnWriteArrayList<BigInteger> primaryShuffle;   //primary shuffled ballots
-    private CopyOnWriteArrayList<BigInteger> secondaryShuffle;  //secondary shuffled ballots
+    private Cryptosystem cipher; //this elections cryptosystem
 
-    private CopyOnWriteArrayList<Integer> primaryProof; //primary proof permutation data
-    private CopyOnWriteArrayList<Integer> secondaryProof;   //secondary proof permutation data
+    private List<BigInteger> ballots;   //initial ballots
 
-    private CopyOnWriteArrayList<Proof> proofs; //proofs list
+    private CopyOnWriteArrayList<Proof> proofs; //rounds of the last mixes proof
 
     private String eid; //election eid
 
-    private BigInteger priR;    //primary random
-    private BigInteger secR;    //secondary random
+    private final List<Factors> sealed = new ArrayList<>();    //precomputed factors for the first ballots, in order, guarded by itself
 
-    public MixNet(KeyPair kp, PaillierCipher c, String id) {
-        paillierKey = kp;
-        paillier = c;
+    public MixNet(Cryptosystem c, String id) {
+        cipher = c;
         eid = id;
-        primaryShuffle = new CopyOnWriteArrayList<>();
-        secondaryShuffle = new CopyOnWriteArrayList<>();
-
-        primaryProof = new CopyOnWriteArrayList<>();
-        secondaryProof = new CopyOnWriteArrayList<>();
 
         proofs = new CopyOnWriteArrayList<>();
     }
 
     /**
      * Mix method
-     * Takes the initial ballots, re-encrypts each with a new random, shuffles list
+     * Re-encrypts each initial ballot with its own fresh random and permutes them, then proves the
+     * shuffle with the given number of rounds. The output and every shadow are re-encrypted in chunks
+     * on the shared scheduler, or inline if there is none, so the rounds run side by side.
+     * Ballots in sealed batches use their precomputed encryptions of zero, which only leaves an addition,
+     * so a mix after voting only does the expensive work for the ballots cast since the last batch
+     * @param scheduler scheduler shared by every elections mix, may be null
+     * @param rounds rounds of cut and choose, each halves the chance a bad shuffle passes
      * @return shuffled ballots
      */
-    public CopyOnWriteArrayList<BigInteger> mix() {
-        BigInteger m;
+    public synchronized List<BigInteger> mix(MixScheduler scheduler, int rounds) {
+        BigInteger bound = cipher.getCiphertextBound();
+        BigInteger randomBound = cipher.getRandomnessBound();
+        //votes can still arrive while mixing, the mix takes the ballots cast before it started
+        int size = ballots.size();
+        List<BigInteger> input = prefix(ballots, size);
+
+        //this mix uses up the sealed factors, a random must never be opened in two proofs
+        List<Factors> taken = take(rounds);
+        int batch = taken.isEmpty() ? 1 : taken.get(0).size();
+        int precomputed = Math.min(size, taken.size() * batch);   //ballots with factors ready
+
+        //the output, then each shadow, with its permutation and the random of each input ballot
+        ElectionEvents.MixPhase event = begin();
+        int[][] perms = new int[rounds + 1][];
+        List<List<BigInteger>> shuffles = new ArrayList<>();
+        List<List<BigInteger>> randoms = new ArrayList<>();
+        for(int s=0; s<=rounds; s++) {
+            perms[s] = permutation(size);
+            //re-encrypted ballots and randoms are kept off heap like the board
+            shuffles.add(new CiphertextArena(bound, size));
+            randoms.add(new CiphertextArena(randomBound, size));
+        }
+        record(event, "shuffle", size, rounds, (long) (rounds + 1) * size * Integer.BYTES);
+
+        event = begin();
+        List<Runnable> chunks = new ArrayList<>();
+        for(int s=0; s<=rounds; s++) {
+            int stream = s;
+            int[] perm = perms[s];
+            List<BigInteger> shuffle = shuffles.get(s);
+            List<BigInteger> random = randoms.get(s);
+            for(int start=0; start<size; start+=CHUNK) {
+                int from = start;
+                int to = Math.min(start + CHUNK, size);
+                chunks.add(() -> {
+                    //re encrypt each ballot in the chunk into its permuted place,
+                    //drawing from this worker threads generator
+                    for(int i=from; i<to; i++) {
+                        if(i < precomputed) {
+                            Factors f = taken.get(i / batch);
+                            shuffle.set(perm[i], cipher.add(input.get(i), f.factors.get(stream).get(i - f.from)));
+                            random.set(i, f.randoms.get(stream).get(i - f.from));
+                        } else {
+                            Cryptosystem.Encryption enc = cipher.reEncrypt(input.get(i));
+                            shuffle.set(perm[i], enc.getCipherText());
+                            random.set(i, enc.getRandomness());
+                        }
+                    }
+                });
+            }
+        }
+        run(scheduler, eid, chunks);
+        record(event, "re-encrypt", size, rounds, (rounds + 1) * (MemoryBudget.bytes(shuffles.get(0)) + MemoryBudget.bytes(randoms.get(0))));
+
+        event = begin();
+        List<BigInteger> output = shuffles.get(0);
+        BigInteger challenge = challenge(scheduler, eid, cipher.getKeyId(), input, output, shuffles.subList(1, rounds + 1));
+        boolean[] bits = bits(challenge, rounds);
+        record(event, "challenge", size, rounds, (rounds + 2) * MemoryBudget.bytes(output));
+
+        //answer each round on its own, only the links to the output need any work
+        event = begin();
+        Proof[] answers = new Proof[rounds];
+        chunks = new ArrayList<>();
+        for(int j=0; j<rounds; j++) {
+            int round = j;
+            List<BigInteger> shadow = shuffles.get(j + 1);
+            int[] shadowPerm = perms[j + 1];
+            List<BigInteger> shadowRandom = randoms.get(j + 1);
+            if(!bits[j]) {
+                answers[j] = new Proof(challenge, round, false, shadow, shadowPerm, shadowRandom);
+                continue;
+            }
 
-        //get public key
-        PaillierPubKey pk = (PaillierPubKey) paillierKey.getPublic();
-        BigInteger n = pk.getN();
-        BigInteger nsqr = pk.getNsqr();
+            //shadow position x = shadowPerm[i] goes to output position perm[i],
+            //and needs the primary random with the shadow random undone to get there
+            int[] link = new int[size];
+            List<BigInteger> linkRandom = new CiphertextArena(randomBound, size);
+            for(int start=0; start<size; start+=CHUNK) {
+                int from = start;
+                int to = Math.min(start + CHUNK, size);
+                chunks.add(() -> {
+                    for(int i=from; i<to; i++) {
+                        int x = shadowPerm[i];
+                        link[x] = perms[0][i];
+                        BigInteger inverse;
+                        if(i < precomputed) {
+                            Factors f = taken.get(i / batch);
+                            inverse = f.inverses.get(round).get(i - f.from);
+                        } else {
+                            inverse = cipher.inverse(shadowRandom.get(i));
+                        }
+                        linkRandom.set(x, cipher.combine(randoms.get(0).get(i), inverse));
+                    }
+                });
+            }
+            answers[j] = new Proof(challenge, round, true, shadow, link, linkRandom);
+        }
+        run(scheduler, eid, chunks);
 
+        proofs = new CopyOnWriteArrayList<>(answers);
+        long proofBytes = 0;
+        for(Proof p : proofs) {
+            proofBytes += p.memoryBytes();
+        }
+        record(event, "answer", size, rounds, proofBytes);
 
-        //new random value for re encryption
-        priR = new BigInteger(64, new SecureRandom());
-        secR = new BigInteger(64, new SecureRandom());
+        ballots = output;
+        return ballots;
+    }
 
-        //for each ballot
-        for(int j=0; j<ballots.size(); j++) {
-            m = ballots.get(j);
+    /**
+     * Seal method
+     * Precomputes the factors the next mix needs for the next batch of ballots: a random and its
+     * encryption of zero for the output and each shadow, and the inverse of each shadow random.
+     * Runs on the shared scheduler alongside mixes, and the factors are dropped if a mix
+     * used up the sealed batches meanwhile
+     * @param scheduler scheduler shared by every elections mix, may be null
+     * @param rounds rounds of cut and choose the next mix will prove
+     * @param batchSize ballots in each batch
+     * @return true if a batch was sealed
+     */
+    public boolean seal(MixScheduler scheduler, int rounds, int batchSize) {
+        int from = sealedCount();
+
+        Factors f = new Factors(from, rounds, batchSize, cipher);
+        List<Runnable> chunks = new ArrayList<>();
+        for(int s=0; s<=rounds; s++) {
+            int stream = s;
+            for(int start=0; start<batchSize; start+=CHUNK) {
+                int lo = start;
+                int hi = Math.min(start + CHUNK, batchSize);
+                chunks.add(() -> {
+                    //an encryption of zero is exactly what a re-encryption adds
+                    for(int k=lo; k<hi; k++) {
+                        Cryptosystem.Encryption zero = cipher.encryptWithRandomness(BigInteger.ZERO);
+                        f.factors.get(stream).set(k, zero.getCipherText());
+                        f.randoms.get(stream).set(k, zero.getRandomness());
+                        if(stream > 0) {
+                            f.inverses.get(stream - 1).set(k, cipher.inverse(zero.getRandomness()));
+                        }
+                    }
+                });
+            }
+        }
+        run(scheduler, eid, chunks);
 
-            //re encrypt
-            BigInteger pc = m.multiply(priR.modPow(n, nsqr));
-            BigInteger sc = m.multiply(secR.modPow(n, nsqr));
+        synchronized (sealed) {
+            if(sealedCount() != from || (!sealed.isEmpty() && sealed.get(0).rounds != rounds)) {
+                return false;
+            }
+            sealed.add(f);
+            return true;
+        }
+    }
 
-            primaryShuffle.add(pc);
-            secondaryShuffle.add(sc);
+    /**
+     * Sealed count method
+     * @return ballots at the front of the board with factors ready
+     */
+    public int sealedCount() {
+        synchronized (sealed) {
+            return sealed.isEmpty() ? 0 : sealed.get(sealed.size() - 1).to();
         }
+    }
 
-        primaryShuffle = shuffle(primaryShuffle, 'p');
-        secondaryShuffle = shuffle(secondaryShuffle, 's');
+    /**
+     * Sealed bytes method
+     * @return bytes held by the precomputed factors
+     */
+    public long sealedBytes() {
+        synchronized (sealed) {
+            long bytes = 0;
+            for(Factors f : sealed) {
+                bytes += f.bytes();
+            }
+            return bytes;
+        }
+    }
 
-        ballots = primaryShuffle;
-        proof();
+    /**
+     * Factor bytes method
+     * @param c cryptosystem of the election
+     * @param batchSize ballots in a batch
+     * @param rounds rounds of cut and choose
+     * @return bytes the factors of one batch hold
+     */
+    public static long factorBytes(Cryptosystem c, int batchSize, int rounds) {
+        long randoms = CiphertextArena.capacityBytes(c.getRandomnessBound(), batchSize);
+        long factors = CiphertextArena.capacityBytes(c.getCiphertextBound(), batchSize);
+        return (rounds + 1) * (factors + randoms) + rounds * randoms;
+    }
 
-        return ballots;
+    //takes every sealed batch for a mix, or drops them if they were made for another number of rounds
+    private List<Factors> take(int rounds) {
+        synchronized (sealed) {
+            List<Factors> taken = new ArrayList<>();
+            if(!sealed.isEmpty() && sealed.get(0).rounds == rounds) {
+                taken.addAll(sealed);
+            }
+            sealed.clear();
+            return taken;
+        }
+    }
 
+    /**
+     * Estimate bytes method
+     * Upper bound on what a mix holds at its peak, the output and shadows with their randoms and
+     * permutations, and a link for every round
+     * @param c cryptosystem of the election
+     * @param size number of ballots
+     * @param rounds rounds of cut and choose
+     * @return bytes the mix may need
+     */
+    public static long estimateBytes(Cryptosystem c, int size, int rounds) {
+        long perm = (long) size * Integer.BYTES;
+        long randoms = CiphertextArena.capacityBytes(c.getRandomnessBound(), size);
+        long shuffle = CiphertextArena.capacityBytes(c.getCiphertextBound(), size);
+        return (rounds + 1) * (shuffle + randoms + perm) + rounds * (randoms + perm);
     }
 
     /**
-     * Shuffle method
-     * Shuffles ballots psuedo random permutation
-     * @param b ballot set
-     * @param bSet type of ballot, primary or secondary
-     * @return shuffled ballot set
+     * Verify method
+     * Checks every round of a mixes proof against the ballots it mixed
+     * @param c cryptosystem of the election, only its public key is used
+     * @param input ballots that went into the mix
+     * @param output ballots the mix gave out
+     * @param rounds rounds of the mixes proof
+     * @return true if every round is answered correctly for the challenge
      */
-    public CopyOnWriteArrayList<BigInteger> shuffle(CopyOnWriteArrayList<BigInteger> b, char bSet) {
-        int max = b.size(); //max values for rand
-        int r;  //random r
-        CopyOnWriteArrayList<BigInteger> newBal = b;   //new ballot set
-        SecureRandom rand = new SecureRandom(); //random generator
-
-        //for the each ballot
-        for(int i=0; i<b.size(); i++) {
-            //select a new random between max and i
-            r = rand.nextInt(max-i);
-            //get the value at r
-            BigInteger randInt = newBal.get(r);
-            //swap
-            newBal.set(r, newBal.get(i));
-            newBal.set(i, randInt);
-            //keep track of swap
-            //if primary shuffle, add to primary proof
-            if(bSet=='p') {
-                primaryProof.add(r);
+    public static boolean verify(Cryptosystem c, List<BigInteger> input, List<BigInteger> output, List<Proof> rounds) {
+        int size = input.size();
+        if(rounds.isEmpty() || output.size() != size) {
+            return false;
+        }
+
+        List<List<BigInteger>> shadows = new ArrayList<>();
+        for(Proof p : rounds) {
+            shadows.add(p.getShadow());
+        }
+        BigInteger challenge = challenge(null, null, c.getKeyId(), input, output, shadows);
+        boolean[] bits = bits(challenge, rounds.size());
+
+        for(int j=0; j<rounds.size(); j++) {
+            Proof p = rounds.get(j);
+            if(p.getRound() != j || p.isBit() != bits[j] || !challenge.equals(p.getHash()) || p.getShadow().size() != size
+                    || p.getPermutation().length != size || p.getRandoms().size() != size) {
+                return false;
             }
-            //else secondary shuffle, add to secondary proof
-            else  if(bSet=='s'){
-                secondaryProof.add(r);
+            //a 0 opens the shadow from the input, a 1 the output from the shadow
+            List<BigInteger> from = p.isBit() ? p.getShadow() : input;
+            List<BigInteger> to = p.isBit() ? output : p.getShadow();
+            int[] perm = p.getPermutation();
+            boolean[] seen = new boolean[size];
+            for(int i=0; i<size; i++) {
+                int dest = perm[i];
+                if(dest < 0 || dest >= size || seen[dest]) {
+                    return false;
+                }
+                seen[dest] = true;
+                BigInteger expected = c.reEncrypt(from.get(i), p.getRandoms().get(i));
+                if(!expected.equals(to.get(dest))) {
+                    return false;
+                }
             }
         }
-        return newBal;
+        return true;
     }
 
     /**
-     * Proof method
-     * Creates a proof based off fiat-shamir transform
+     * Permutation method
+     * Fisher-yates shuffle of the positions
+     * @param size number of ballots
+     * @return where each ballot goes
      */
-    private void proof() {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");    //hash function
-            byte[] byteArr = new byte[0];
-            int size = 0;
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();   //byte array stream to read bytes
-
-            try {
-                //for each value in shuffle array
-                for (int i = 0; i < secondaryShuffle.size(); i++) {
-                    //add the current byte array length to size
-                    size += secondaryShuffle.get(i).toByteArray().length;
-                    //write the bite array to the output stream
-                    outputStream.write(secondaryShuffle.get(i).toByteArray());
-                    //create new array with correct size
-                    byteArr = new byte[size];
+    private static int[] permutation(int size) {
+        int[] perm = new int[size];
+        for(int i=0; i<size; i++) {
+            perm[i] = i;
+        }
+        for(int i=size-1; i>0; i--) {
+            int r = Randomness.nextInt(i + 1);
+            int tmp = perm[r];
+            perm[r] = perm[i];
+            perm[i] = tmp;
+        }
+        return perm;
+    }
+
+    /**
+     * Challenge method
+     * Fiat-shamir transform over the key, input, output and every shadow in order.
+     * Each list is hashed as its own chunk of work, then the list hashes are hashed together
+     * @param scheduler scheduler to hash on, may be null
+     * @param key election the hashing is queued as
+     * @param keyId identifies the elections public key
+     * @return challenge the rounds are answered for
+     */
+    private static BigInteger challenge(MixScheduler scheduler, String key, BigInteger keyId, List<BigInteger> input,
+                                        List<BigInteger> output, List<List<BigInteger>> shadows) {
+        List<List<BigInteger>> lists = new ArrayList<>();
+        lists.add(input);
+        lists.add(output);
+        lists.addAll(shadows);
+
+        byte[][] hashes = new byte[lists.size()][];
+        List<Runnable> chunks = new ArrayList<>();
+        for(int i=0; i<lists.size(); i++) {
+            int index = i;
+            chunks.add(() -> {
+                MessageDigest md = sha256();
+                for(BigInteger b : lists.get(index)) {
+                    byte[] bytes = b.toByteArray();
+                    md.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+                    md.update(bytes);
                 }
-                //set byte array
-                byteArr = outputStream.toByteArray();
+                hashes[index] = md.digest();
+            });
+        }
+        run(scheduler, key, chunks);
 
-            } catch (IOException e) {
-                System.err.println("IOException: "+e);
+        MessageDigest md = sha256();
+        md.update(keyId.toByteArray());
+        for(byte[] hash : hashes) {
+            md.update(hash);
+        }
+        return new BigInteger(1, md.digest());
+    }
+
+    /**
+     * Bits method
+     * Stretches the challenge to one bit per round, 256 at a time
+     * @param challenge fiat-shamir challenge
+     * @param rounds number of rounds
+     * @return challenge bit of each round
+     */
+    private static boolean[] bits(BigInteger challenge, int rounds) {
+        boolean[] bits = new boolean[rounds];
+        byte[] block = null;
+        for(int j=0; j<rounds; j++) {
+            if(j % 256 == 0) {
+                MessageDigest md = sha256();
+                md.update(challenge.toByteArray());
+                md.update(ByteBuffer.allocate(4).putInt(j / 256).array());
+                block = md.digest();
             }
+            int bit = j % 256;
+            bits[j] = (block[bit / 8] >> (bit % 8) & 1) == 1;
+        }
+        return bits;
+    }
 
-            //hash message
-            byte[] messageDigest = md.digest(byteArr);
+    /**
+     * Prefix method
+     * @param list list that may grow
+     * @param size number of values to keep
+     * @return view of the first values, that stays the same size as the list grows
+     */
+    private static List<BigInteger> prefix(List<BigInteger> list, int size) {
+        return new AbstractList<BigInteger>() {
+            @Override
+            public BigInteger get(int index) {
+                if(index >= size) {
+                    throw new IndexOutOfBoundsException("Index " + index + " of " + size);
+                }
+                return list.get(index);
+            }
 
-            //turn hash byte array into biginteger
-            BigInteger ba = new BigInteger(1, messageDigest);
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
 
-            //add the new proof
-            proofs.add(new Proof(priR, secR, primaryProof, secondaryProof, ba));
+    private static ElectionEvents.MixPhase begin() {
+        ElectionEvents.MixPhase event = new ElectionEvents.MixPhase();
+        event.begin();
+        return event;
+    }
 
-        } catch (NoSuchAlgorithmException e){
-            System.err.println("No such algorithm "+ e);
+    //commits a mix phase event if a recording wants it
+    private void record(ElectionEvents.MixPhase event, String phase, int size, int rounds, long bytes) {
+        event.end();
+        if(event.shouldCommit()) {
+            event.eid = eid;
+            event.phase = phase;
+            event.ballots = size;
+            event.rounds = rounds;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    //precomputed factors for one batch of ballots, used by one mix at most
+    private static class Factors {
+        private final int from; //board index of the first ballot in the batch
+        private final int rounds;   //shadows the factors were made for
+        private final List<List<BigInteger>> factors = new ArrayList<>();   //encryptions of zero, for the output then each shadow
+        private final List<List<BigInteger>> randoms = new ArrayList<>();   //r, for the output then each shadow
+        private final List<List<BigInteger>> inverses = new ArrayList<>();  //inverse of r, for each shadow
+
+        Factors(int f, int r, int size, Cryptosystem c) {
+            from = f;
+            rounds = r;
+            for(int s=0; s<=rounds; s++) {
+                factors.add(new CiphertextArena(c.getCiphertextBound(), size));
+                randoms.add(new CiphertextArena(c.getRandomnessBound(), size));
+                if(s > 0) {
+                    inverses.add(new CiphertextArena(c.getRandomnessBound(), size));
+                }
+            }
+        }
+
+        int size() {
+            return factors.get(0).size();
+        }
+
+        int to() {
+            return from + size();
+        }
+
+        long bytes() {
+            long bytes = 0;
+            for(List<List<BigInteger>> lists : Arrays.asList(factors, randoms, inverses)) {
+                for(List<BigInteger> list : lists) {
+                    bytes += MemoryBudget.bytes(list);
+                }
+            }
+            return bytes;
+        }
+    }
+
+    private static void run(MixScheduler scheduler, String key, List<Runnable> chunks) {
+        if(scheduler != null) {
+            scheduler.runAll(key, chunks);
+        } else {
+            for(Runnable chunk : chunks) {
+                chunk.run();
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No such algorithm " + e);
         }
     }
 
-    public void setBallots(CopyOnWriteArrayList<BigInteger> ballots) {
+    public void setBallots(List<BigInteger> ballots) {
         this.ballots = ballots;
     }
 
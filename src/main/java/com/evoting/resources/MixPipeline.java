@@ -0,0 +1,101 @@
+package com.evoting.resources;
+
+import com.evoting.models.BulletinBoard;
+import com.evoting.models.Election;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Gets each election ready to mix while voting is still open.
+ * Whenever a full batch of ballots has been cast since the last sealed batch, the batch is sealed
+ * in the background: every random the next mix needs for it is drawn and raised to n ahead of time.
+ * The mix itself still permutes the whole board at once, so anonymity covers every ballot, but only
+ * has the expensive work left for the ballots cast since the last batch
+ */
+public class MixPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(MixPipeline.class);
+
+    private final MixScheduler scheduler;   //threads shared with the mixes
+    private final MemoryBudget memoryBudget;    //memory elections may hold
+    private final int rounds;   //cut and choose rounds the mixes prove
+    private final int batchSize;    //ballots sealed at a time, 0 turns the pipeline off
+
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();   //elections waiting for or being sealed
+
+    //seals one batch at a time, the work itself runs on the mix scheduler
+    private final ExecutorService sealer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "mix-pipeline");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public MixPipeline(MixScheduler s, MemoryBudget m, int r, int b) {
+        scheduler = s;
+        memoryBudget = m;
+        rounds = r;
+        batchSize = b;
+    }
+
+    /**
+     * Ballots added method
+     * Queues the election for sealing once it has a full batch that isn't sealed yet
+     * @param e election ballots were just cast in
+     */
+    public void ballotsAdded(Election e) {
+        if(ready(e, e.getMixNet()) && queued.add(e.getEid())) {
+            sealer.submit(() -> seal(e));
+        }
+    }
+
+    /**
+     * Seal method
+     * Seals every full batch the election has, stopping if the factors won't fit in the memory budget,
+     * in which case the mix computes them itself
+     */
+    private void seal(Election e) {
+        try {
+            while(true) {
+                //taken once, a tally may archive the election and drop them at any point
+                MixNet net = e.getMixNet();
+                Cryptosystem cipher = e.getCipher();
+                if(cipher == null || !ready(e, net)) {
+                    break;
+                }
+                long bytes = MixNet.factorBytes(cipher, batchSize, rounds);
+                if(!memoryBudget.reserve(bytes)) {
+                    return;
+                }
+                try {
+                    //a batch sealed for an election archived meanwhile is just dropped with its mix net
+                    net.seal(scheduler, rounds, batchSize);
+                } catch (RuntimeException ex) {
+                    log.error("Could not seal a batch of {}", e.getEid(), ex);
+                    return;
+                } finally {
+                    memoryBudget.release(bytes);
+                }
+            }
+        } finally {
+            queued.remove(e.getEid());
+        }
+        //a ballot cast as this finished may have found the election still queued
+        ballotsAdded(e);
+    }
+
+    //true if the election is open and has a full batch past the sealed ones
+    private boolean ready(Election e, MixNet net) {
+        BulletinBoard board = e.getBoard();
+        return batchSize > 0 && !e.isClosed() && net != null && board != null
+                && board.getBallots().size() >= net.sealedCount() + batchSize;
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+}
@@ -0,0 +1,106 @@
+package com.evoting.resources;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class MixScheduler {
+
+    private final LinkedHashMap<String, ArrayDeque<Runnable>> queues;   //pending chunks per election, in round robin order
+    private final int threads;  //global cpu budget for mixing
+
+    public MixScheduler(int t) {
+        threads = t;
+        queues = new LinkedHashMap<>();
+
+        //each runner takes one chunk at a time from the next election in turn
+        for(int i=0; i<threads; i++) {
+            Thread runner = new Thread(() -> {
+                while(true) {
+                    try {
+                        next().run();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "mix-" + i);
+            runner.setDaemon(true);
+            runner.start();
+        }
+    }
+
+    /**
+     * Run all method
+     * Queues an elections chunks behind the other elections and waits for them to finish.
+     * Chunks from different elections are taken in turn so a large election can't starve small ones
+     * @param eid UUID of the election
+     * @param chunks work to run
+     */
+    public void runAll(String eid, List<Runnable> chunks) {
+        //an empty queue would hand a runner nothing to run
+        if(chunks.isEmpty()) {
+            return;
+        }
+        CountDownLatch done = new CountDownLatch(chunks.size());
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+        synchronized (queues) {
+            ArrayDeque<Runnable> queue = queues.get(eid);
+            if(queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(eid, queue);
+            }
+            for(Runnable chunk : chunks) {
+                queue.add(() -> {
+                    try {
+                        chunk.run();
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            queues.notifyAll();
+        }
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while mixing " + eid, e);
+        }
+        if(failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * Next method
+     * Takes a chunk from the election at the front, then moves that election to the back
+     * @return next chunk to run
+     */
+    private Runnable next() throws InterruptedException {
+        synchronized (queues) {
+            while(queues.isEmpty()) {
+                queues.wait();
+            }
+            Iterator<Map.Entry<String, ArrayDeque<Runnable>>> it = queues.entrySet().iterator();
+            Map.Entry<String, ArrayDeque<Runnable>> front = it.next();
+            Runnable chunk = front.getValue().poll();
+            it.remove();
+            if(!front.getValue().isEmpty()) {
+                queues.put(front.getKey(), front.getValue());
+            }
+            return chunk;
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+}
@@ -2,15 +2,19 @@ package com.evoting.resources;
 
 import java.math.BigInteger;
 import java.security.KeyPair;
-import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
 
-public class PaillierCipher {
+public class PaillierCipher implements Cryptosystem {
+
+    public static final String ALGORITHM = "Paillier";
 
     private KeyPair paillierKeys;
-    private BigInteger r;
+    private String eid; //election the keys belong to, for flight recorder events
 
-    public PaillierCipher(KeyPair kp) {
+    public PaillierCipher(KeyPair kp, String id) {
         paillierKeys = kp;
+        eid = id;
     }
 
     /**
@@ -19,7 +23,23 @@ public class PaillierCipher {
      * @param m input message m
      * @return encrypted value
      */
+    @Override
     public BigInteger encrypt(BigInteger m) {
+        return encryptWithRandomness(m).getCipherText();
+    }
+
+    /**
+     * Encryption method
+     * Encrypts a big integer with fresh randomness from this threads generator.
+     * Safe to call from many threads at once
+     * @param m input message m
+     * @return encrypted value and the randomness used
+     */
+    @Override
+    public Encryption encryptWithRandomness(BigInteger m) {
+        ElectionEvents.Encrypt event = new ElectionEvents.Encrypt();
+        event.begin();
+
         //public key info for encryption
         PaillierPubKey pk = (PaillierPubKey) paillierKeys.getPublic();
 
@@ -28,10 +48,51 @@ public class PaillierCipher {
         BigInteger g = pk.getG();
 
         //randomness r
-        r = new BigInteger(32, new SecureRandom());
+        BigInteger r = Randomness.unitBelow(n);
+
+        //g^m, which is just 1 + m*n mod n^2 when g = n+1
+        BigInteger gm = g.equals(n.add(BigInteger.ONE)) ? m.multiply(n).add(BigInteger.ONE).mod(nsqr) : g.modPow(m, nsqr);
 
         //ciphertext = g^m * r^n mod n^2
-        return g.modPow(m, nsqr).multiply(r.modPow(n, nsqr)).mod(nsqr);
+        Encryption enc = new Encryption(gm.multiply(r.modPow(n, nsqr)).mod(nsqr), r);
+
+        event.end();
+        if(event.shouldCommit()) {
+            event.eid = eid;
+            event.bytes = (nsqr.bitLength() + 7) / 8;
+            event.commit();
+        }
+        return enc;
+    }
+
+    /**
+     * Re-encryption method
+     * Multiplies a ciphertext by a fresh encryption of zero, which keeps its plaintext
+     * @param c ciphertext input
+     * @return re-encrypted value and the randomness used
+     */
+    @Override
+    public Encryption reEncrypt(BigInteger c) {
+        ElectionEvents.Encrypt event = new ElectionEvents.Encrypt();
+        event.begin();
+
+        PaillierPubKey pk = (PaillierPubKey) paillierKeys.getPublic();
+
+        BigInteger n = pk.getN();
+        BigInteger nsqr = pk.getNsqr();
+
+        BigInteger r = Randomness.unitBelow(n);
+
+        //ciphertext = c * r^n mod n^2
+        Encryption enc = new Encryption(c.multiply(r.modPow(n, nsqr)).mod(nsqr), r);
+
+        event.end();
+        if(event.shouldCommit()) {
+            event.eid = eid;
+            event.bytes = (nsqr.bitLength() + 7) / 8;
+            event.commit();
+        }
+        return enc;
     }
 
     /**
@@ -40,7 +101,11 @@ public class PaillierCipher {
      * @param c ciphertext input
      * @return decrypted value
      */
+    @Override
     public BigInteger decrypt(BigInteger c) {
+        ElectionEvents.Decrypt event = new ElectionEvents.Decrypt();
+        event.begin();
+
         //private key info for decryption
         PaillierPrivKey sk = (PaillierPrivKey) paillierKeys.getPrivate();
 
@@ -51,10 +116,94 @@ public class PaillierCipher {
         BigInteger u = sk.getU();
 
         //Dec = L(c^lambda mod n^2) * u mod n
-        return c.modPow(lambda, nsqr).subtract(BigInteger.ONE).divide(n).multiply(u).mod(n);
+        BigInteger m = c.modPow(lambda, nsqr).subtract(BigInteger.ONE).divide(n).multiply(u).mod(n);
+
+        event.end();
+        if(event.shouldCommit()) {
+            event.eid = eid;
+            event.bytes = (nsqr.bitLength() + 7) / 8;
+            event.commit();
+        }
+        return m;
+    }
+
+    /**
+     * Re-encryption method
+     * @param c ciphertext input
+     * @param r randomness
+     * @return c * r^n mod n^2
+     */
+    @Override
+    public BigInteger reEncrypt(BigInteger c, BigInteger r) {
+        PaillierPubKey pk = (PaillierPubKey) paillierKeys.getPublic();
+        return c.multiply(r.modPow(pk.getN(), pk.getNsqr())).mod(pk.getNsqr());
+    }
+
+    //multiplying ciphertexts adds their plaintexts
+    @Override
+    public BigInteger add(BigInteger a, BigInteger b) {
+        return a.multiply(b).mod(((PaillierPubKey) paillierKeys.getPublic()).getNsqr());
+    }
+
+    //randoms multiply, mod n
+    @Override
+    public BigInteger combine(BigInteger r, BigInteger s) {
+        return r.multiply(s).mod(((PaillierPubKey) paillierKeys.getPublic()).getN());
+    }
+
+    @Override
+    public BigInteger inverse(BigInteger r) {
+        return r.modInverse(((PaillierPubKey) paillierKeys.getPublic()).getN());
+    }
+
+    /**
+     * Ciphertext check method
+     * Every paillier ciphertext is a unit mod n^2
+     * @param c ciphertext to check
+     * @return true if it is in range
+     */
+    @Override
+    public boolean isCiphertext(BigInteger c) {
+        PaillierPubKey pk = (PaillierPubKey) paillierKeys.getPublic();
+        return c.signum() > 0 && c.compareTo(pk.getNsqr()) < 0 && c.gcd(pk.getN()).equals(BigInteger.ONE);
+    }
+
+    @Override
+    public BigInteger getCiphertextBound() {
+        return ((PaillierPubKey) paillierKeys.getPublic()).getNsqr();
+    }
+
+    @Override
+    public BigInteger getRandomnessBound() {
+        return ((PaillierPubKey) paillierKeys.getPublic()).getN();
+    }
+
+    @Override
+    public boolean decryptsSums() {
+        return true;
+    }
+
+    @Override
+    public BigInteger getKeyId() {
+        return ((PaillierPubKey) paillierKeys.getPublic()).getN();
+    }
+
+    @Override
+    public Map<String, String> describe() {
+        PaillierPubKey pk = (PaillierPubKey) paillierKeys.getPublic();
+        Map<String, String> key = new HashMap<>();
+        key.put("n", pk.getN().toString(16));
+        key.put("g", pk.getG().toString(16));
+        return key;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return ALGORITHM;
     }
 
-    public BigInteger getR() {
-        return r;
+    @Override
+    public KeyPair getKeys() {
+        return paillierKeys;
     }
 }
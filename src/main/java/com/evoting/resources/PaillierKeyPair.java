@@ -15,9 +15,19 @@ public class PaillierKeyPair {
      * @return key pair
      */
     public KeyPair generateKeys() {
+        return generateKeys(256);
+    }
+
+    /**
+     * Generate keys method
+     * Generates a key pair with n of about the given size
+     * @param bits bits in n
+     * @return key pair
+     */
+    public KeyPair generateKeys(int bits) {
         //generate two random primes
-        BigInteger p = new BigInteger(128, 64, new SecureRandom());
-        BigInteger q = new BigInteger(128, 64, new SecureRandom());
+        BigInteger p = new BigInteger(bits / 2, 64, new SecureRandom());
+        BigInteger q = new BigInteger(bits / 2, 64, new SecureRandom());
 
         //LCM = p * (q / gcd(p, q))
         BigInteger lambda = p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE))
@@ -5,6 +5,8 @@ import java.security.PrivateKey;
 
 public class PaillierPrivKey implements PrivateKey {
 
+    private static final long serialVersionUID = 1L;
+
     private BigInteger lambda, n, nsqr, u;
 
     public PaillierPrivKey(BigInteger lambda1, BigInteger n1, BigInteger nsqr1, BigInteger u1) {
@@ -30,18 +32,30 @@ public class PaillierPrivKey implements PrivateKey {
         return u;
     }
 
+    /**
+     * Decode method
+     * @param encoded bytes from getEncoded
+     * @param pk public key it goes with
+     * @return private key
+     */
+    public static PaillierPrivKey decode(byte[] encoded, PaillierPubKey pk) {
+        BigInteger[] values = PaillierPubKey.decode(encoded, 2);
+        return new PaillierPrivKey(values[0], pk.getN(), pk.getNsqr(), values[1]);
+    }
+
     @Override
     public String getAlgorithm() {
-        return "Paillier";
+        return PaillierCipher.ALGORITHM;
     }
 
     @Override
     public String getFormat() {
-        return null;
+        return "RAW";
     }
 
+    //lambda then u, n is in the public key
     @Override
     public byte[] getEncoded() {
-        return new byte[0];
+        return PaillierPubKey.encode(lambda, u);
     }
 }
@@ -1,10 +1,13 @@
 package com.evoting.resources;
 
+import java.io.*;
 import java.math.BigInteger;
 import java.security.PublicKey;
 
 public class PaillierPubKey implements PublicKey {
 
+    private static final long serialVersionUID = 1L;
+
     private BigInteger n, nsqr, g;
 
     public PaillierPubKey(BigInteger n1, BigInteger nsqr1, BigInteger g1) {
@@ -25,18 +28,58 @@ public class PaillierPubKey implements PublicKey {
         return g;
     }
 
+    /**
+     * Decode method
+     * @param encoded bytes from getEncoded
+     * @return public key
+     */
+    public static PaillierPubKey decode(byte[] encoded) {
+        BigInteger[] values = decode(encoded, 2);
+        return new PaillierPubKey(values[0], values[0].multiply(values[0]), values[1]);
+    }
+
     @Override
     public String getAlgorithm() {
-        return "Paillier";
+        return PaillierCipher.ALGORITHM;
     }
 
     @Override
     public String getFormat() {
-        return null;
+        return "RAW";
     }
 
+    //n then g
     @Override
     public byte[] getEncoded() {
-        return new byte[0];
+        return encode(n, g);
+    }
+
+    //each value as its length then its bytes
+    static byte[] encode(BigInteger... values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for(BigInteger v : values) {
+                byte[] b = v.toByteArray();
+                out.writeInt(b.length);
+                out.write(b);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static BigInteger[] decode(byte[] encoded, int count) {
+        BigInteger[] values = new BigInteger[count];
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            for(int i=0; i<count; i++) {
+                byte[] b = new byte[in.readInt()];
+                in.readFully(b);
+                values[i] = new BigInteger(b);
+            }
+        } catch (IOException | NegativeArraySizeException e) {
+            throw new IllegalArgumentException("Not an encoded paillier key", e);
+        }
+        return values;
     }
 }
@@ -0,0 +1,22 @@
+package com.evoting.resources;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Response body that can be sent as JSON or CBOR, whichever the client accepts.
+ * Values are strings, numbers, booleans, null, big integers, byte arrays, and lists and maps of those.
+ * Big integers and byte arrays go out as hex strings in JSON, so JSON clients see what they always have,
+ * and as raw bytes in CBOR
+ */
+public class Payload extends LinkedHashMap<String, Object> {
+
+    private static final long serialVersionUID = 1L;
+
+    public Payload() {
+    }
+
+    public Payload(Map<String, ?> values) {
+        super(values);
+    }
+}
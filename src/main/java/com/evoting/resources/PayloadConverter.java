@@ -0,0 +1,252 @@
+package com.evoting.resources;
+
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.HttpInputMessage;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes a Payload as JSON or CBOR as it walks it, with no string or tree of the whole body in between.
+ * A body that stays under the buffer size is sent with its length, so small answers aren't compressed.
+ * A bigger one streams out chunked, and the server compresses it for clients that accept gzip
+ */
+public class PayloadConverter extends AbstractHttpMessageConverter<Payload> {
+
+    public static final MediaType CBOR = new MediaType("application", "cbor");
+    public static final String CBOR_VALUE = "application/cbor";
+
+    private static final byte[] DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final int bufferBytes;  //bodies up to this size are sent with a length
+
+    public PayloadConverter(int buffer) {
+        super(MediaType.APPLICATION_JSON, CBOR);
+        bufferBytes = buffer;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return Payload.class.isAssignableFrom(clazz);
+    }
+
+    //payloads are only ever sent
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected Payload readInternal(Class<? extends Payload> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Payloads are write only", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(Payload payload, HttpOutputMessage outputMessage) throws IOException {
+        boolean cbor = CBOR.isCompatibleWith(outputMessage.getHeaders().getContentType());
+        try (OutputStream out = new BufferedOutputStream(new SizedBody(outputMessage, bufferBytes), 8192)) {
+            if(cbor) {
+                writeCbor(payload, new CborWriter(out));
+            } else {
+                writeJson(payload, out);
+            }
+        }
+    }
+
+    private static void writeCbor(Object value, CborWriter cbor) throws IOException {
+        if(value == null) {
+            cbor.nul();
+        } else if(value instanceof String) {
+            cbor.text((String) value);
+        } else if(value instanceof BigInteger) {
+            cbor.bigInteger((BigInteger) value);
+        } else if(value instanceof byte[]) {
+            cbor.bytes((byte[]) value);
+        } else if(value instanceof Boolean) {
+            cbor.bool((Boolean) value);
+        } else if(value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            cbor.integer(((Number) value).longValue());
+        } else if(value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            cbor.startMap(map.size());
+            for(Map.Entry<?, ?> e : map.entrySet()) {
+                cbor.text(e.getKey().toString());
+                writeCbor(e.getValue(), cbor);
+            }
+        } else if(value instanceof Collection) {
+            Collection<?> list = (Collection<?>) value;
+            cbor.startArray(list.size());
+            for(Object item : list) {
+                writeCbor(item, cbor);
+            }
+        } else {
+            cbor.text(value.toString());
+        }
+    }
+
+    /**
+     * Write JSON method
+     * Also used for responses that stream one JSON line at a time
+     * @param value payload or any value a payload holds
+     * @param out stream to write to
+     */
+    public static void writeJson(Object value, OutputStream out) throws IOException {
+        if(value == null) {
+            ascii(out, "null");
+        } else if(value instanceof String) {
+            string(out, (String) value);
+        } else if(value instanceof BigInteger) {
+            out.write('"');
+            hex(out, (BigInteger) value);
+            out.write('"');
+        } else if(value instanceof byte[]) {
+            out.write('"');
+            byte[] bytes = (byte[]) value;
+            byte[] digits = new byte[2 * bytes.length];
+            for(int i=0; i<bytes.length; i++) {
+                digits[2 * i] = DIGITS[(bytes[i] >> 4) & 0xf];
+                digits[2 * i + 1] = DIGITS[bytes[i] & 0xf];
+            }
+            out.write(digits);
+            out.write('"');
+        } else if(value instanceof Boolean || value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            ascii(out, value.toString());
+        } else if(value instanceof Map) {
+            out.write('{');
+            boolean first = true;
+            for(Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                if(!first) {
+                    out.write(',');
+                }
+                first = false;
+                string(out, e.getKey().toString());
+                out.write(':');
+                writeJson(e.getValue(), out);
+            }
+            out.write('}');
+        } else if(value instanceof Collection) {
+            out.write('[');
+            boolean first = true;
+            for(Object item : (Collection<?>) value) {
+                if(!first) {
+                    out.write(',');
+                }
+                first = false;
+                writeJson(item, out);
+            }
+            out.write(']');
+        } else {
+            string(out, value.toString());
+        }
+    }
+
+    //same digits as toString(16), straight from the bytes instead of dividing the number down
+    private static void hex(OutputStream out, BigInteger v) throws IOException {
+        if(v.signum() < 0) {
+            out.write('-');
+            v = v.negate();
+        }
+        if(v.signum() == 0) {
+            out.write('0');
+            return;
+        }
+        byte[] raw = v.toByteArray();
+        byte[] digits = new byte[2 * raw.length];
+        for(int i=0; i<raw.length; i++) {
+            digits[2 * i] = DIGITS[(raw[i] >> 4) & 0xf];
+            digits[2 * i + 1] = DIGITS[raw[i] & 0xf];
+        }
+        //leading zeros from the sign byte, or a top byte under 16
+        int skip = 0;
+        while(digits[skip] == '0') {
+            skip++;
+        }
+        out.write(digits, skip, digits.length - skip);
+    }
+
+    private static void string(OutputStream out, String s) throws IOException {
+        out.write('"');
+        for(int i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if(c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if(c == '\n') {
+                ascii(out, "\\n");
+            } else if(c < 0x20) {
+                ascii(out, String.format("\\u%04x", (int) c));
+            } else if(c < 0x80) {
+                out.write(c);
+            } else {
+                //the rest of the string as UTF-8, surrogate pairs kept together
+                int end = i + 1;
+                while(end < s.length() && s.charAt(end) >= 0x80) {
+                    end++;
+                }
+                out.write(s.substring(i, end).getBytes(StandardCharsets.UTF_8));
+                i = end - 1;
+            }
+        }
+        out.write('"');
+    }
+
+    private static void ascii(OutputStream out, String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Holds the start of a body back until it either finishes, and is sent with its length,
+     * or outgrows the buffer and streams out from then on. Headers can't change once the body opens
+     */
+    private static class SizedBody extends OutputStream {
+        private final HttpOutputMessage message;
+        private final int limit;
+        private ByteArrayOutputStream held = new ByteArrayOutputStream();   //null once streaming
+        private OutputStream body;
+
+        SizedBody(HttpOutputMessage m, int l) {
+            message = m;
+            limit = l;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if(held != null && held.size() + len <= limit) {
+                held.write(b, off, len);
+                return;
+            }
+            if(held != null) {
+                body = message.getBody();
+                held.writeTo(body);
+                held = null;
+            }
+            body.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(held != null) {
+                message.getHeaders().setContentLength(held.size());
+                body = message.getBody();
+                held.writeTo(body);
+                held = null;
+            }
+            body.flush();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.evoting.resources;
+
+import java.math.BigInteger;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+public class Randomness {
+
+    private static final int RESEED_INTERVAL = 1 << 16;  //draws between reseeds of a threads generator
+
+    private static final SecureRandom SEEDS = new SecureRandom();   //shared seed source, only used to seed and reseed
+    private static final ThreadLocal<Drbg> LOCAL = ThreadLocal.withInitial(Drbg::new); //each threads own generator
+
+    /**
+     * Unit below method
+     * Draws a uniform random unit mod n, as paillier randomness must be
+     * @param n modulus
+     * @return r in [1, n) with gcd(r, n) = 1
+     */
+    public static BigInteger unitBelow(BigInteger n) {
+        SecureRandom rng = LOCAL.get().next();
+        BigInteger r;
+        do {
+            r = new BigInteger(n.bitLength(), rng);
+        } while(r.signum() == 0 || r.compareTo(n) >= 0 || !r.gcd(n).equals(BigInteger.ONE));
+        return r;
+    }
+
+    /**
+     * Next int method
+     * @param bound upper bound, exclusive
+     * @return uniform random int in [0, bound)
+     */
+    public static int nextInt(int bound) {
+        return LOCAL.get().next().nextInt(bound);
+    }
+
+    //a threads generator and how much it has been used since it was seeded
+    private static class Drbg {
+        private final SecureRandom rng;
+        private int draws;
+
+        Drbg() {
+            //every supported runtime has it, and ballot randomness shouldn't quietly come from anything weaker
+            try {
+                rng = SecureRandom.getInstance("DRBG");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("No DRBG SecureRandom available", e);
+            }
+            rng.setSeed(seed());
+        }
+
+        SecureRandom next() {
+            //mix in fresh seed material every so often
+            if(++draws >= RESEED_INTERVAL) {
+                rng.setSeed(seed());
+                draws = 0;
+            }
+            return rng;
+        }
+
+        private static byte[] seed() {
+            byte[] seed = new byte[32];
+            synchronized (SEEDS) {
+                SEEDS.nextBytes(seed);
+            }
+            return seed;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.evoting.resources;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class ShardedTally {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardedTally.class);
+
+    private List<String> workers;   //base urls of the local worker instances
+    private int partitionSize;  //ballots sent to a worker at once
+    private RestTemplate rest;  //client for calling workers, with timeouts so a hung worker's partition goes back
+
+    public ShardedTally(List<String> w, int size, RestTemplate r) {
+        workers = w;
+        partitionSize = size;
+        rest = r;
+    }
+
+    /**
+     * Product method
+     * Multiplies every ballot together mod n^2, which encrypts the sum of the ballots.
+     * Partitions are handed out to the workers, a partition is put back for another worker
+     * if its worker dies, and anything left when all workers are gone is done locally
+     * @param ballots encrypted ballots
+     * @param nsqr n^2 from the elections public key
+     * @return product of the ballots
+     */
+    public BigInteger product(List<BigInteger> ballots, BigInteger nsqr) {
+        ConcurrentLinkedQueue<List<BigInteger>> pending = new ConcurrentLinkedQueue<>();   //partitions not done yet
+        ConcurrentLinkedQueue<BigInteger> partials = new ConcurrentLinkedQueue<>();   //partial products
+
+        //split the ballots into partitions
+        for(int i=0; i<ballots.size(); i+=partitionSize) {
+            pending.add(new ArrayList<>(ballots.subList(i, Math.min(i + partitionSize, ballots.size()))));
+        }
+
+        if(!workers.isEmpty() && pending.size() > 1) {
+            ExecutorService pool = Executors.newFixedThreadPool(workers.size());
+            List<Callable<Void>> tasks = new ArrayList<>();
+
+            //each worker keeps taking partitions until none are left or it dies
+            for(String worker : workers) {
+                tasks.add(() -> {
+                    List<BigInteger> part;
+                    while((part = pending.poll()) != null) {
+                        try {
+                            partials.add(remoteProduct(worker, part, nsqr));
+                        } catch (RestClientException e) {
+                            //worker is gone or timed out, give the partition back to the others
+                            log.warn("Tally worker {} failed: {}", worker, e.toString());
+                            pending.add(part);
+                            return null;
+                        }
+                    }
+                    return null;
+                });
+            }
+
+            try {
+                pool.invokeAll(tasks);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        //anything the workers didn't finish is done here
+        List<BigInteger> part;
+        while((part = pending.poll()) != null) {
+            partials.add(multiply(part, nsqr));
+        }
+
+        return multiply(new ArrayList<>(partials), nsqr);
+    }
+
+    /**
+     * Remote product method
+     * Sends a partition to a worker, one hex value per line with n^2 first
+     * @param worker base url of the worker
+     * @param part partition of ballots
+     * @param nsqr n^2 from the elections public key
+     * @return product of the partition
+     */
+    private BigInteger remoteProduct(String worker, List<BigInteger> part, BigInteger nsqr) {
+        StringBuilder body = new StringBuilder(nsqr.toString(16));
+        for(BigInteger c : part) {
+            body.append('\n').append(c.toString(16));
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.TEXT_PLAIN);
+
+        String result = rest.postForObject(worker + "/worker/product", new HttpEntity<>(body.toString(), headers), String.class);
+        if(result == null) {
+            throw new RestClientException("Empty response from " + worker);
+        }
+        return new BigInteger(result.trim(), 16);
+    }
+
+    /**
+     * Multiply method
+     * Multiplies a list of ciphertexts together mod n^2
+     * @param ciphertexts ciphertexts to combine
+     * @param nsqr n^2 from the public key
+     * @return product of the ciphertexts
+     */
+    public static BigInteger multiply(List<BigInteger> ciphertexts, BigInteger nsqr) {
+        BigInteger product = BigInteger.ONE;
+        for(BigInteger c : ciphertexts) {
+            product = product.multiply(c).mod(nsqr);
+        }
+        return product;
+    }
+}
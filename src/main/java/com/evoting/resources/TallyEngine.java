@@ -0,0 +1,182 @@
+package com.evoting.resources;
+
+import com.evoting.models.Election;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decrypts ballots one by one across a worker pool and counts each plaintext once.
+ * Every worker counts into its own stripe of one long[], padded so no two workers share a
+ * cache line, and the stripes are summed at the end. A plaintext encodeBallot couldn't have
+ * made is counted as invalid instead of being added to any candidate
+ */
+public class TallyEngine {
+
+    public static final String INVALID = "Invalid ballots"; //results entry for ballots that weren't counted, no candidate may have this name
+
+    private static final int CHUNK = 1024;  //ballots a worker claims at a time
+    private static final int LINE = 8;  //longs in a cache line
+
+    private final int threads;  //workers per tally
+    private final ExecutorService pool; //shared by every tally
+
+    public TallyEngine(int t) {
+        threads = t;
+        pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread worker = new Thread(r, "tally-" + count.getAndIncrement());
+                worker.setDaemon(true);
+                return worker;
+            }
+        });
+    }
+
+    /**
+     * Count method
+     * @param e election the ballots belong to, with its private key
+     * @param ballots encrypted ballots
+     * @return counts for every candidate, blank and invalid ballots
+     */
+    public Counts count(Election e, List<BigInteger> ballots) {
+        return count(e, ballots, 0, ballots.size());
+    }
+
+    /**
+     * Count method
+     * Workers take chunks of the range in turn until it is used up, so a slow worker doesn't hold up the rest
+     * @param e election the ballots belong to, with its private key
+     * @param ballots encrypted ballots
+     * @param from index of the first ballot to count
+     * @param to index after the last ballot to count
+     * @return counts for every candidate, blank and invalid ballots in the range
+     */
+    public Counts count(Election e, List<BigInteger> ballots, int from, int to) {
+        int candidates = e.getCandidates().size();
+        int blank = candidates; //counter index for blank ballots
+        int invalid = candidates + 1;   //counter index for invalid ballots
+
+        //each workers counters start on a fresh cache line with a spare line after them
+        int stride = ((candidates + 2 + LINE - 1) / LINE + 1) * LINE;
+        long[] stripes = new long[threads * stride];
+
+        AtomicInteger next = new AtomicInteger(from);  //first ballot not yet claimed
+        ConcurrentLinkedQueue<Integer> invalidAt = new ConcurrentLinkedQueue<>();  //board positions of invalid ballots
+        Cryptosystem cipher = e.getCipher();
+
+        List<Future<?>> workers = new ArrayList<>();
+        for(int w=0; w<threads; w++) {
+            int base = w * stride;
+            workers.add(pool.submit(() -> {
+                int lo;
+                while((lo = next.getAndAdd(CHUNK)) < to) {
+                    int hi = Math.min(lo + CHUNK, to);
+                    for(int i=lo; i<hi; i++) {
+                        List<Integer> selections = e.decodeBallot(cipher.decrypt(ballots.get(i)));
+                        if(selections == null) {
+                            stripes[base + invalid]++;
+                            invalidAt.add(i);
+                        } else if(selections.isEmpty()) {
+                            stripes[base + blank]++;
+                        } else {
+                            for(int index : selections) {
+                                stripes[base + index]++;
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+
+        try {
+            for(Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Tally interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Tally failed", ex.getCause());
+        }
+
+        //sum the stripes
+        long[] totals = new long[candidates + 2];
+        for(int w=0; w<threads; w++) {
+            for(int i=0; i<totals.length; i++) {
+                totals[i] += stripes[w * stride + i];
+            }
+        }
+
+        List<Integer> positions = new ArrayList<>(invalidAt);
+        positions.sort(null);
+        return new Counts(totals, positions);
+    }
+
+    /**
+     * Estimate bytes method
+     * Counters are tiny, the most a tally holds is the position of every ballot if none are valid
+     * @param size number of ballots
+     * @return bytes the tally may need
+     */
+    public static long estimateBytes(int size) {
+        return (long) size * 32;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    //what a tally found
+    public static class Counts {
+        private final long[] totals;    //votes for each candidate, then blank, then invalid
+        private final List<Integer> invalidAt;  //board positions of invalid ballots
+
+        Counts(long[] t, List<Integer> i) {
+            totals = t;
+            invalidAt = i;
+        }
+
+        public long votes(int candidate) {
+            return totals[candidate];
+        }
+
+        public long getBlank() {
+            return totals[totals.length - 2];
+        }
+
+        public long getInvalid() {
+            return totals[totals.length - 1];
+        }
+
+        public List<Integer> getInvalidAt() {
+            return invalidAt;
+        }
+
+        public long[] getTotals() {
+            return totals;
+        }
+
+        /**
+         * Results method
+         * @param e election counted
+         * @return candidate name to number of votes, with the number of invalid ballots if there were any
+         */
+        public HashMap<String, String> results(Election e) {
+            HashMap<String, String> results = new HashMap<>();
+            for(int i=0; i<e.getCandidates().size(); i++) {
+                results.put(e.getCandidates().get(i), Long.toString(totals[i]));
+            }
+            if(getInvalid() > 0) {
+                results.put(INVALID, Long.toString(getInvalid()));
+            }
+            return results;
+        }
+    }
+}
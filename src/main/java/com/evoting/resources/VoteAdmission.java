@@ -0,0 +1,146 @@
+package com.evoting.resources;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class VoteAdmission {
+
+    private final int maxLimit; //most votes encrypting at once per election
+    private final int maxQueue; //most votes waiting per election
+    private final int maxWaiting;   //most votes waiting across every election, each holds a request thread
+    private final long maxWaitMs;   //longest a vote waits before being turned away
+
+    private final ConcurrentHashMap<String, Limiter> limiters;  //limiter for each election
+    private final AtomicInteger totalWaiting = new AtomicInteger(); //votes waiting across every election
+
+    public VoteAdmission(int limit, int queue, int totalQueue, long waitMs) {
+        maxLimit = limit;
+        maxQueue = queue;
+        maxWaiting = totalQueue;
+        maxWaitMs = waitMs;
+        limiters = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Acquire method
+     * Lets a vote in if the election is under its limit, otherwise waits in the elections queue.
+     * Returns straight away if the queue is full, or if as many votes as may wait are waiting across every election,
+     * so one busy election can't hold every request thread
+     * @param eid UUID of the election
+     * @return permit to release once the vote is cast, null if the vote is turned away
+     */
+    public Permit acquire(String eid) {
+        Limiter limiter = limiters.computeIfAbsent(eid, k -> new Limiter());
+        return limiter.acquire() ? new Permit(limiter) : null;
+    }
+
+    /**
+     * Retry after method
+     * Estimates how long a turned away vote should wait, from the queue length and measured latency
+     * @param eid UUID of the election
+     * @return seconds to wait
+     */
+    public long retryAfter(String eid) {
+        Limiter limiter = limiters.get(eid);
+        if(limiter == null) {
+            return 1;
+        }
+        synchronized (limiter) {
+            double waitNanos = (limiter.waiting + 1) * limiter.latency / Math.max(1, (int) limiter.limit);
+            return Math.max(1, (long) Math.ceil(waitNanos / 1e9));
+        }
+    }
+
+    //takes a place in the wait shared by every election, if there is one
+    private boolean reserveWait() {
+        while(true) {
+            int n = totalWaiting.get();
+            if(n >= maxWaiting) {
+                return false;
+            }
+            if(totalWaiting.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Forget method
+     * Drops an elections limiter once it is closed
+     * @param eid UUID of the election
+     */
+    public void forget(String eid) {
+        limiters.remove(eid);
+    }
+
+    public class Permit {
+        private final Limiter limiter;
+        private final long start;   //when the vote was let in
+
+        private Permit(Limiter l) {
+            limiter = l;
+            start = System.nanoTime();
+        }
+
+        public void release() {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Concurrency limit for one election.
+     * The limit follows measured latency: it shrinks by the ratio of the best latency seen to the
+     * current average when votes slow down, and grows by about its square root when they don't
+     */
+    private class Limiter {
+        private double limit = maxLimit;    //current concurrency limit
+        private int inFlight;   //votes being cast
+        private int waiting;    //votes in the queue
+        private double latency; //moving average of cast latency in nanos
+        private double minLatency = Double.MAX_VALUE;   //best latency seen, taken as the unloaded latency
+
+        synchronized boolean acquire() {
+            if(inFlight < (int) limit) {
+                inFlight++;
+                return true;
+            }
+            //queue is full, turn the vote away without waiting
+            if(waiting >= maxQueue || !reserveWait()) {
+                return false;
+            }
+
+            waiting++;
+            try {
+                long deadline = System.currentTimeMillis() + maxWaitMs;
+                while(inFlight >= (int) limit) {
+                    long left = deadline - System.currentTimeMillis();
+                    if(left <= 0) {
+                        return false;
+                    }
+                    wait(left);
+                }
+                inFlight++;
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waiting--;
+                totalWaiting.decrementAndGet();
+            }
+        }
+
+        synchronized void release(long nanos) {
+            inFlight--;
+
+            latency = latency == 0 ? nanos : latency * 0.9 + nanos * 0.1;
+            minLatency = Math.min(minLatency, nanos);
+
+            //gradient of unloaded to current latency, plus headroom to find a higher limit
+            double next = limit * (minLatency / latency) + Math.sqrt(limit);
+            limit = Math.max(1, Math.min(maxLimit, next));
+
+            notifyAll();
+        }
+    }
+}
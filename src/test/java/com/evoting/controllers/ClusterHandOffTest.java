@@ -0,0 +1,279 @@
+package com.evoting.controllers;
+
+import com.evoting.models.Election;
+import com.evoting.models.User;
+import com.evoting.resources.*;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.test.web.client.ResponseCreator;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+/**
+ * Two cluster nodes in one process, node A handing elections to node B.
+ * A's calls to B go through a mock server that hands the request body to B's receive,
+ * so the election crosses in the live archive format as it would over the network.
+ * One test puts B's receive behind a real http server on a random port instead.
+ * The nodes are wired by hand rather than booted as two Spring applications, since a full boot
+ * needs a Google client registration and the cluster token filter, neither of which the hand off depends on
+ */
+public class ClusterHandOffTest {
+
+    private static final String NODE_A = "http://node-a";
+    private static final String NODE_B = "http://node-b";
+    private static final String NODE_C = "http://node-c";
+    private static final byte[] SECRET = "cluster hand off test secret, 32+ bytes".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Node a, b;
+    private MockRestServiceServer network;  //A's calls to B
+
+    //one node's controller and the state it holds
+    private static class Node {
+        final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<String, Election> elections = new ConcurrentHashMap<>();
+        final ClusterRing ring;
+        final ClusterRouter router;
+        final ClusterController controller = new ClusterController();
+
+        Node(String self, String peer, ElectionArchive archive) {
+            ring = new ClusterRing(self, Collections.singletonList(peer));
+            router = new ClusterRouter(ring, new ApiTokens(SECRET), archive, 2000, 60000, 1000);
+            ReflectionTestUtils.setField(controller, "users", users);
+            ReflectionTestUtils.setField(controller, "elections", elections);
+            ReflectionTestUtils.setField(controller, "clusterRing", ring);
+            ReflectionTestUtils.setField(controller, "clusterRouter", router);
+            ReflectionTestUtils.setField(controller, "electionArchive", archive);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        a = new Node(NODE_A, NODE_B, new ElectionArchive(folder.newFolder("a"), 4, new KeySealer(SECRET)));
+        b = new Node(NODE_B, NODE_A, new ElectionArchive(folder.newFolder("b"), 4, new KeySealer(SECRET)));
+        network = MockRestServiceServer.bindTo((RestTemplate) ReflectionTestUtils.getField(a.router, "rest")).build();
+    }
+
+    @Test
+    public void movesElectionWithEveryBallotAndVoter() {
+        Election e = electionOwnedByB();
+        User voter = vote(e, "voter@example.com");
+
+        network.expect(requestTo(NODE_B + "/cluster/elections")).andExpect(method(HttpMethod.POST)).andRespond(deliver());
+        assertTrue(a.controller.handOff(e));
+        network.verify();
+
+        assertNull(a.elections.get(e.getEid()));
+        Election moved = b.elections.get(e.getEid());
+        assertNotNull(moved);
+        assertEquals(1, moved.getBoard().getBallots().size());
+        assertEquals(e.getBoard().getBallots().get(0), moved.getBoard().getBallots().get(0));
+        assertTrue(moved.hasVoted(b.users.get(voter.getEmail())));
+        assertFalse(moved.isMoving());
+
+        //the copy left behind takes nothing more, a retry goes to B
+        assertEquals(Election.MOVING, e.cast(new User("late", "late@example.com", ""), encrypt(e)));
+    }
+
+    @Test
+    public void castsAndTalliesDuringTheMoveAreRefusedNotLost() {
+        Election e = electionOwnedByB();
+        vote(e, "first@example.com");
+        User late = new User("late", "late@example.com", "");
+        e.join(late);
+
+        //while the copy is on its way to B, A must not take a ballot the copy doesn't have
+        network.expect(requestTo(NODE_B + "/cluster/elections")).andRespond(request -> {
+            assertEquals(Election.MOVING, e.cast(late, encrypt(e)));
+            assertFalse(e.join(new User("new", "new@example.com", "")));
+            assertNull(e.tallyOnce(() -> { throw new AssertionError("counted while moving"); }, () -> {}));
+            return deliver().createResponse(request);
+        });
+        assertTrue(a.controller.handOff(e));
+
+        Election moved = b.elections.get(e.getEid());
+        assertEquals(1, moved.getBoard().getBallots().size());
+        assertFalse(moved.hasVoted(b.users.get(late.getEmail())));
+        assertFalse(moved.isClosed());
+    }
+
+    @Test
+    public void keepsElectionWhenPeerRefuses() {
+        Election e = electionOwnedByB();
+
+        network.expect(requestTo(NODE_B + "/cluster/elections")).andRespond(withStatus(HttpStatus.INTERNAL_SERVER_ERROR));
+        assertFalse(a.controller.handOff(e));
+
+        assertSame(e, a.elections.get(e.getEid()));
+        assertFalse(e.isMoving());
+        assertNotNull(vote(e, "after@example.com"));
+    }
+
+    @Test
+    public void keepsElectionWithoutAcknowledgement() {
+        Election e = electionOwnedByB();
+
+        //a 2xx that doesn't name the election, as from a proxy in the way
+        network.expect(requestTo(NODE_B + "/cluster/elections")).andRespond(withSuccess("OK", MediaType.TEXT_PLAIN));
+        assertFalse(a.controller.handOff(e));
+
+        assertSame(e, a.elections.get(e.getEid()));
+        assertFalse(e.isMoving());
+    }
+
+    @Test
+    public void movesTalliedElectionWithItsResults() {
+        Election e = electionOwnedByB();
+        vote(e, "voter@example.com");
+        assertNotNull(e.tallyOnce(() -> Collections.singletonMap("Yes", "1"), () -> {}));
+
+        network.expect(requestTo(NODE_B + "/cluster/elections")).andRespond(deliver());
+        assertTrue(a.controller.handOff(e));
+
+        Election moved = b.elections.get(e.getEid());
+        assertTrue(moved.isClosed());
+        assertTrue(moved.isArchived());
+        assertEquals(e.getResults(), moved.getResults());
+    }
+
+    @Test
+    public void refusesElectionItDoesNotHold() {
+        //B has heard of node C, A hasn't, so A sends B an election B thinks is C's
+        b.ring.join(NODE_C);
+        Election e = electionOnA(eid -> a.ring.owner(eid).equals(NODE_B) && b.ring.owner(eid).equals(NODE_C));
+        vote(e, "voter@example.com");
+
+        network.expect(requestTo(NODE_B + "/cluster/elections")).andRespond(deliver());
+        assertFalse(a.controller.handOff(e));
+        network.verify();
+
+        //B took nothing, A keeps the election and goes on taking votes
+        assertTrue(b.elections.isEmpty());
+        assertTrue(b.users.isEmpty());
+        assertSame(e, a.elections.get(e.getEid()));
+        assertFalse(e.isMoving());
+        assertNotNull(vote(e, "after@example.com"));
+    }
+
+    @Test
+    public void onlyJoinsAndLeavesChangeMembership() {
+        assertEquals(HttpStatus.BAD_REQUEST, b.controller.membership(NODE_C, "evict").getStatusCode());
+        assertEquals(Arrays.asList(NODE_A, NODE_B), b.ring.getNodes());
+
+        ResponseEntity<List<String>> joined = b.controller.membership(NODE_C, "join");
+        assertEquals(HttpStatus.OK, joined.getStatusCode());
+        assertTrue(joined.getBody().contains(NODE_C));
+    }
+
+    @Test
+    public void movesElectionOverTheNetwork() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        String nodeB = "http://localhost:" + server.getAddress().getPort();
+        Node sender = new Node(NODE_A, nodeB, new ElectionArchive(folder.newFolder("sender"), 4, new KeySealer(SECRET)));
+        Node receiver = new Node(nodeB, NODE_A, new ElectionArchive(folder.newFolder("receiver"), 4, new KeySealer(SECRET)));
+
+        //B's receive, answering over the socket with whatever it answered
+        server.createContext("/cluster/elections", exchange -> {
+            MockHttpServletRequest received = new MockHttpServletRequest("POST", "/cluster/elections");
+            received.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            exchange.getRequestBody().transferTo(body);
+            received.setContent(body.toByteArray());
+            ResponseEntity<String> answer = receiver.controller.receive(received);
+            byte[] bytes = answer.getBody().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(answer.getStatusCodeValue(), bytes.length);
+            exchange.getResponseBody().write(bytes);
+            exchange.close();
+        });
+        server.start();
+        try {
+            //the helpers put elections and votes on A
+            a = sender;
+            Election e = electionOnA(eid -> sender.ring.owner(eid).equals(nodeB));
+            vote(e, "voter@example.com");
+
+            assertTrue(sender.controller.handOff(e));
+            assertNull(sender.elections.get(e.getEid()));
+            Election moved = receiver.elections.get(e.getEid());
+            assertNotNull(moved);
+            assertEquals(e.getBoard().getBallots(), moved.getBoard().getBallots());
+            assertTrue(moved.hasVoted(receiver.users.get("voter@example.com")));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    //hands the body A sent to B, and answers with what B answered
+    private ResponseCreator deliver() {
+        return request -> {
+            MockHttpServletRequest received = new MockHttpServletRequest("POST", "/cluster/elections");
+            received.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            received.setContent(((MockClientHttpRequest) request).getBodyAsBytes());
+            ResponseEntity<String> answer = b.controller.receive(received);
+            return withStatus(answer.getStatusCode()).body(answer.getBody()).contentType(MediaType.TEXT_PLAIN)
+                    .createResponse(request);
+        };
+    }
+
+    //an election on A that the ring gives to B
+    private Election electionOwnedByB() {
+        return electionOnA(eid -> a.ring.owner(eid).equals(NODE_B));
+    }
+
+    //an election on A whose id passes the test
+    private Election electionOnA(Predicate<String> test) {
+        while(true) {
+            Election e = new Election("owner@example.com", "Hand off", new CopyOnWriteArrayList<>(Arrays.asList("Yes", "No")),
+                    1, 16, ElGamalCipher.ALGORITHM);
+            if(test.test(e.getEid())) {
+                User owner = a.users.computeIfAbsent(e.getOwner(), k -> new User(k, k, ""));
+                owner.addOwned(e);
+                e.join(owner);
+                a.elections.put(e.getEid(), e);
+                return e;
+            }
+        }
+    }
+
+    private User vote(Election e, String email) {
+        User voter = a.users.computeIfAbsent(email, k -> new User(k, k, ""));
+        assertTrue(e.join(voter));
+        voter.addJoined(e);
+        assertNull(e.cast(voter, encrypt(e)));
+        return voter;
+    }
+
+    private static BigInteger encrypt(Election e) {
+        return e.getCipher().encrypt(e.encodeBallot(e.selections(new String[]{"Yes"})));
+    }
+}
@@ -0,0 +1,108 @@
+package com.evoting.controllers;
+
+import com.evoting.models.Election;
+import com.evoting.resources.ElGamalCipher;
+import com.evoting.resources.ElectionArchive;
+import com.evoting.resources.KeySealer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class ElectionExportTest {
+
+    private static final String OWNER = "owner@example.com";
+    private static final byte[] SECRET = "election export test secret, 32+ bytes".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ConcurrentHashMap<String, Election> elections = new ConcurrentHashMap<>();
+    private final ElectionController controller = new ElectionController();
+
+    @Before
+    public void setUp() throws IOException {
+        ReflectionTestUtils.setField(controller, "elections", elections);
+        ReflectionTestUtils.setField(controller, "electionArchive",
+                new ElectionArchive(folder.newFolder("archive"), 4, new KeySealer(SECRET)));
+    }
+
+    @Test
+    public void openElectionIsNotExported() throws IOException {
+        Election e = election();
+        assertEquals(409, export(e, OWNER).getStatus());
+
+        //closed but not yet counted is still refused
+        e.setClosed(true);
+        assertEquals(409, export(e, OWNER).getStatus());
+    }
+
+    @Test
+    public void onlyTheOwnerExports() throws IOException {
+        Election e = election();
+        e.tallyOnce(() -> Collections.singletonMap("Yes", "0"), () -> {});
+        assertEquals(403, export(e, "voter@example.com").getStatus());
+    }
+
+    @Test
+    public void talliedElectionIsExportedWithItsKeySealed() throws IOException {
+        Election e = election();
+        e.tallyOnce(() -> Collections.singletonMap("Yes", "0"), () -> {});
+        MockHttpServletResponse response = export(e, OWNER);
+        assertEquals(200, response.getStatus());
+
+        byte[] body = unzip(response.getContentAsByteArray());
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body))) {
+            ElectionArchive.read(in);
+            fail("read an export's key without the secret");
+        } catch (IOException expected) {
+            //sealed
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body))) {
+            Election read = ElectionArchive.read(in, new KeySealer(SECRET));
+            assertArrayEquals(e.getCipher().getKeys().getPrivate().getEncoded(),
+                    read.getCipher().getKeys().getPrivate().getEncoded());
+            assertEquals(e.getResults(), read.getResults());
+        }
+    }
+
+    private Election election() {
+        Election e = new Election(OWNER, "Export", new CopyOnWriteArrayList<>(Arrays.asList("Yes", "No")),
+                1, 16, ElGamalCipher.ALGORITHM);
+        elections.put(e.getEid(), e);
+        return e;
+    }
+
+    private MockHttpServletResponse export(Election e, String email) throws IOException {
+        OAuth2AuthenticationToken auth = new OAuth2AuthenticationToken(
+                new DefaultOAuth2User(AuthorityUtils.createAuthorityList("ROLE_USER"),
+                        Collections.singletonMap("email", email), "email"),
+                AuthorityUtils.createAuthorityList("ROLE_USER"), "google");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.export(e.getEid(), auth, response);
+        return response;
+    }
+
+    private static byte[] unzip(byte[] gzipped) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.evoting.controllers;
+
+import com.evoting.models.Election;
+import com.evoting.models.User;
+import com.evoting.resources.ClusterRing;
+import com.evoting.resources.ElGamalCipher;
+import com.evoting.resources.PaillierCipher;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class MainControllerTest {
+
+    private static final String OWNER = "owner@example.com";
+    private static final int CANDIDATES = 15;   //selecting any of them makes too many ballots for EC-ElGamal
+
+    private final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Election> elections = new ConcurrentHashMap<>();
+    private final MainController controller = new MainController();
+
+    @Before
+    public void setUp() {
+        users.put(OWNER, new User(OWNER, OWNER, ""));
+        ReflectionTestUtils.setField(controller, "users", users);
+        ReflectionTestUtils.setField(controller, "elections", elections);
+        ReflectionTestUtils.setField(controller, "clusterRing", new ClusterRing("", Collections.emptyList()));
+        ReflectionTestUtils.setField(controller, "cryptosystem", ElGamalCipher.ALGORITHM);
+    }
+
+    @Test
+    public void pickedCryptosystemThatCannotCountIsRefused() throws IOException {
+        MockHttpServletResponse response = create(ElGamalCipher.ALGORITHM);
+        assertEquals(400, response.getStatus());
+        assertTrue(response.getErrorMessage(), response.getErrorMessage().contains(ElGamalCipher.ALGORITHM));
+        assertTrue(elections.isEmpty());
+    }
+
+    @Test
+    public void unknownCryptosystemIsRefused() throws IOException {
+        MockHttpServletResponse response = create("Nope");
+        assertEquals(400, response.getStatus());
+        assertTrue(response.getErrorMessage(), response.getErrorMessage().contains("Nope"));
+        assertTrue(elections.isEmpty());
+    }
+
+    @Test
+    public void configuredDefaultFallsBackToPaillier() throws IOException {
+        assertEquals(200, create(" ").getStatus());
+        assertEquals(1, elections.size());
+        Election e = elections.values().iterator().next();
+        assertEquals(PaillierCipher.ALGORITHM, e.getCipher().getKeys().getPublic().getAlgorithm());
+    }
+
+    private MockHttpServletResponse create(String cryptosystem) throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/create");
+        request.addParameter("electionTitle", "Board");
+        for(int i=0; i<CANDIDATES; i++) {
+            request.addParameter("candidate", "Candidate " + i);
+        }
+        request.addParameter("maxSelections", Integer.toString(CANDIDATES));
+        request.addParameter("cryptosystem", cryptosystem);
+
+        OAuth2AuthenticationToken auth = new OAuth2AuthenticationToken(
+                new DefaultOAuth2User(AuthorityUtils.createAuthorityList("ROLE_USER"),
+                        Collections.singletonMap("email", OWNER), "email"),
+                AuthorityUtils.createAuthorityList("ROLE_USER"), "google");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.createElection(request, auth, response);
+        return response;
+    }
+}
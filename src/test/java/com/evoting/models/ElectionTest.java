@@ -0,0 +1,156 @@
+package com.evoting.models;
+
+import com.evoting.resources.ElGamalCipher;
+import com.evoting.resources.PaillierCipher;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Packing ballots into slots, reading them back, and the voter cap that keeps slot sums from carrying
+ */
+public class ElectionTest {
+
+    @Test
+    public void everyBallotUnpacksToItsSelections() {
+        Election e = election(4, 3, 7);
+        assertEquals(3, e.getSlotBits());
+        List<BigInteger> plaintexts = Election.plaintexts(4, e.getSlotBits(), 3);
+        assertEquals(Election.countBallots(4, 3), plaintexts.size());
+        for(BigInteger m : plaintexts) {
+            List<Integer> selections = e.decodeBallot(m);
+            assertNotNull(m.toString(2), selections);
+            assertEquals(m, e.encodeBallot(selections));
+        }
+    }
+
+    @Test
+    public void slotsSitAtTheirBoundaries() {
+        Election e = election(4, 4, 7);
+        assertEquals(BigInteger.ZERO, e.encodeBallot(Collections.emptyList()));
+        assertEquals(BigInteger.ONE, e.encodeVote(0));
+        assertEquals(BigInteger.ONE.shiftLeft(9), e.encodeVote(3));
+        assertEquals(new BigInteger("001001001001", 2), e.encodeBallot(Arrays.asList(3, 2, 1, 0)));
+        assertEquals(Collections.emptyList(), e.decodeBallot(BigInteger.ZERO));
+        assertEquals(Arrays.asList(0, 3), e.decodeBallot(new BigInteger("001000000001", 2)));
+        assertEquals(3, e.decodeVote(e.encodeVote(3)));
+        assertEquals(-1, e.decodeVote(BigInteger.ZERO));
+    }
+
+    @Test
+    public void refusesBallotsItCouldNotCount() {
+        Election e = election(3, 2, 7);
+        for(List<Integer> bad : Arrays.asList(Arrays.asList(0, 1, 2), Arrays.asList(1, 1),
+                Collections.singletonList(3), Collections.singletonList(-1))) {
+            try {
+                e.encodeBallot(bad);
+                fail("encoded " + bad);
+            } catch (IllegalArgumentException expected) {
+                //refused
+            }
+        }
+    }
+
+    @Test
+    public void decodeRejectsWhatEncodeCouldNotMake() {
+        Election e = election(3, 2, 7);
+        BigInteger[] bad = {
+                BigInteger.ONE.negate(),
+                BigInteger.ONE.shiftLeft(9),    //past the last slot
+                BigInteger.valueOf(2),  //a count of two in one slot, the sum of two ballots
+                BigInteger.ONE.shiftLeft(4),    //inside a slot rather than at its bottom
+                new BigInteger("001001001", 2), //three selections, two allowed
+        };
+        for(BigInteger m : bad) {
+            assertNull(m.toString(2), e.decodeBallot(m));
+            assertEquals(-1, e.decodeVote(m));
+        }
+    }
+
+    @Test
+    public void fullSlotsDoNotCarry() {
+        //seven voters each selecting every candidate fill every 3 bit slot to 111
+        Election e = election(3, 3, 7);
+        BigInteger sum = BigInteger.ZERO;
+        for(int i=0; i<e.getMaxVoters(); i++) {
+            sum = sum.add(e.encodeBallot(Arrays.asList(0, 1, 2)));
+        }
+        assertEquals(new BigInteger("111111111", 2), sum);
+        Map<String, String> tally = e.decodeTally(sum);
+        assertEquals(3, tally.size());
+        for(String count : tally.values()) {
+            assertEquals("7", count);
+        }
+
+        //the sum still decrypts, it stays below n
+        assertEquals(sum, e.getCipher().decrypt(e.getCipher().encrypt(sum)));
+    }
+
+    @Test
+    public void joinsStopAtTheCap() {
+        Election e = election(2, 1, 3);
+        for(int i=0; i<3; i++) {
+            assertTrue(e.join(new User("voter", "voter" + i + "@example.com", "")));
+        }
+        assertTrue(e.isFull());
+        assertFalse(e.join(new User("late", "late@example.com", "")));
+        assertEquals(3, e.getParticipants().size());
+    }
+
+    @Test
+    public void importMakesUsersOnlyForVotersItTakes() {
+        Election e = election(2, 1, 2);
+        Map<String, User> users = new HashMap<>();
+        User known = new User("known", "known@example.com", "");
+        users.put(known.getEmail(), known);
+        assertTrue(e.join(known));
+
+        User[] joined = e.joinAll(Arrays.asList("known@example.com", "new@example.com", "late@example.com"),
+                email -> users.computeIfAbsent(email, k -> new User(k, k, "")));
+        assertNull(joined[0]);
+        assertSame(users.get("new@example.com"), joined[1]);
+        assertNull(joined[2]);
+
+        //the election filled before the last voter, so they were never made
+        assertTrue(e.isFull());
+        assertFalse(users.containsKey("late@example.com"));
+        assertEquals(2, users.size());
+    }
+
+    @Test
+    public void capComesFromTheKeyWhenNotSet() {
+        //two slots split the smallest key, each as wide as an int can count
+        Election two = new Election("owner@example.com", "Two", candidates(2));
+        assertEquals(Integer.SIZE - 1, two.getSlotBits());
+        assertEquals(Integer.MAX_VALUE, two.getMaxVoters());
+
+        //many candidates still get slots of 16 bits, and the key grows to fit them
+        Election many = new Election("owner@example.com", "Many", candidates(40), 1, Election.NO_VOTER_CAP);
+        assertEquals(16, many.getSlotBits());
+        assertEquals(65535, many.getMaxVoters());
+        BigInteger last = many.encodeVote(39).shiftLeft(16).subtract(BigInteger.ONE);
+        assertEquals(last, many.getCipher().decrypt(many.getCipher().encrypt(last)));
+
+        //ballots decrypted one by one never fill a slot
+        Election elGamal = new Election("owner@example.com", "ElGamal", candidates(2), 1, Election.NO_VOTER_CAP,
+                ElGamalCipher.ALGORITHM);
+        assertEquals(Integer.MAX_VALUE, elGamal.getMaxVoters());
+    }
+
+    private static Election election(int candidates, int maxSelections, int maxVoters) {
+        return new Election("owner@example.com", "Ballots", candidates(candidates), maxSelections, maxVoters,
+                PaillierCipher.ALGORITHM);
+    }
+
+    private static CopyOnWriteArrayList<String> candidates(int n) {
+        CopyOnWriteArrayList<String> names = new CopyOnWriteArrayList<>();
+        for(int i=0; i<n; i++) {
+            names.add("Candidate " + i);
+        }
+        return names;
+    }
+}
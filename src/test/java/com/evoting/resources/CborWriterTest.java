@@ -0,0 +1,87 @@
+package com.evoting.resources;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Encodings from RFC 8949 appendix A
+ */
+public class CborWriterTest {
+
+    //value and its encoding
+    private static final String[][] INTEGERS = {
+            {"0", "00"}, {"1", "01"}, {"10", "0a"}, {"23", "17"}, {"24", "1818"}, {"25", "1819"},
+            {"100", "1864"}, {"1000", "1903e8"}, {"1000000", "1a000f4240"}, {"1000000000000", "1b000000e8d4a51000"},
+            {"-1", "20"}, {"-10", "29"}, {"-100", "3863"}, {"-1000", "3903e7"},
+    };
+
+    private static final String[][] BIG_INTEGERS = {
+            {"18446744073709551615", "1bffffffffffffffff"},
+            {"18446744073709551616", "c249010000000000000000"},
+            {"-18446744073709551616", "3bffffffffffffffff"},
+            {"-18446744073709551617", "c349010000000000000000"},
+    };
+
+    @Test
+    public void integers() throws IOException {
+        for(String[] v : INTEGERS) {
+            assertEquals(v[0], v[1], encode(w -> w.integer(Long.parseLong(v[0]))));
+            assertEquals(v[0], v[1], encode(w -> w.bigInteger(new BigInteger(v[0]))));
+        }
+        for(String[] v : BIG_INTEGERS) {
+            assertEquals(v[0], v[1], encode(w -> w.bigInteger(new BigInteger(v[0]))));
+        }
+        assertEquals("1b7fffffffffffffff", encode(w -> w.integer(Long.MAX_VALUE)));
+        assertEquals("3b7fffffffffffffff", encode(w -> w.integer(Long.MIN_VALUE)));
+    }
+
+    @Test
+    public void simpleValues() throws IOException {
+        assertEquals("f4", encode(w -> w.bool(false)));
+        assertEquals("f5", encode(w -> w.bool(true)));
+        assertEquals("f6", encode(CborWriter::nul));
+    }
+
+    @Test
+    public void strings() throws IOException {
+        assertEquals("60", encode(w -> w.text("")));
+        assertEquals("6161", encode(w -> w.text("a")));
+        assertEquals("6449455446", encode(w -> w.text("IETF")));
+        assertEquals("62225c", encode(w -> w.text("\"\\")));
+        assertEquals("62c3bc", encode(w -> w.text("\u00fc")));
+        assertEquals("63e6b0b4", encode(w -> w.text("\u6c34")));
+        assertEquals("64f0908591", encode(w -> w.text("\ud800\udd51")));
+        assertEquals("40", encode(w -> w.bytes(new byte[0])));
+        assertEquals("4401020304", encode(w -> w.bytes(new byte[]{1, 2, 3, 4})));
+    }
+
+    @Test
+    public void arraysAndMaps() throws IOException {
+        assertEquals("80", encode(w -> w.startArray(0)));
+        assertEquals("83010203", encode(w -> w.startArray(3).integer(1).integer(2).integer(3)));
+        assertEquals("8301820203820405", encode(w -> w.startArray(3).integer(1)
+                .startArray(2).integer(2).integer(3).startArray(2).integer(4).integer(5)));
+        assertEquals("a0", encode(w -> w.startMap(0)));
+        assertEquals("a201020304", encode(w -> w.startMap(2).integer(1).integer(2).integer(3).integer(4)));
+        assertEquals("a26161016162820203", encode(w -> w.startMap(2).text("a").integer(1)
+                .text("b").startArray(2).integer(2).integer(3)));
+
+        //25 items need the one byte length
+        assertEquals("9819", encode(w -> w.startArray(25)).substring(0, 4));
+    }
+
+    private interface Writes {
+        void write(CborWriter w) throws IOException;
+    }
+
+    private static String encode(Writes writes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writes.write(new CborWriter(out));
+        return MerkleTree.hex(out.toByteArray());
+    }
+}
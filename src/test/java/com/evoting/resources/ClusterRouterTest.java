@@ -0,0 +1,91 @@
+package com.evoting.resources;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ClusterRouterTest {
+
+    private static final byte[] SECRET = "cluster router test secret, 32+ bytes".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void homePageListingsSkipSlowAndFailedNodes() {
+        List<String> peers = Arrays.asList("http://node-b", "http://node-c", "http://node-d");
+        ClusterRing ring = new ClusterRing("http://node-a", peers);
+        ClusterRouter router = new ClusterRouter(ring, new ApiTokens(SECRET), null, 500, 500, 500) {
+            @Override
+            public List<HashMap<String, String>> listings(String node, String email) {
+                switch(node) {
+                    case "http://node-b":
+                        HashMap<String, String> listing = new HashMap<>();
+                        listing.put("eid", "b1");
+                        return Collections.singletonList(listing);
+                    case "http://node-c":
+                        //hung well past the deadline
+                        try {
+                            Thread.sleep(5000);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return Collections.emptyList();
+                    default:
+                        throw new IllegalStateException("node-d is down");
+                }
+            }
+        };
+
+        long start = System.nanoTime();
+        List<HashMap<String, String>> listings = router.listings(peers, "voter@example.com");
+        long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(1, listings.size());
+        assertEquals("b1", listings.get(0).get("eid"));
+        assertTrue("waited " + took + "ms", took < 2000);
+    }
+
+    @Test
+    public void hungNodeTimesOut() throws IOException {
+        try (ServerSocket hung = hungNode()) {
+            String node = "http://localhost:" + hung.getLocalPort();
+            ClusterRouter router = router(Arrays.asList(node), 300);
+            long start = System.nanoTime();
+            assertTrue(router.announce(node, "join").isEmpty());
+            assertTrue(router.listings(node, "voter@example.com").isEmpty());
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        }
+    }
+
+    //accepts connections and never answers
+    private static ServerSocket hungNode() throws IOException {
+        ServerSocket hung = new ServerSocket(0);
+        List<Socket> held = new ArrayList<>();
+        Thread acceptor = new Thread(() -> {
+            try {
+                while(true) {
+                    held.add(hung.accept());
+                }
+            } catch (IOException e) {
+                //closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return hung;
+    }
+
+    private static ClusterRouter router(List<String> peers, int timeoutMs) {
+        ClusterRing ring = new ClusterRing("http://node-a", peers);
+        return new ClusterRouter(ring, new ApiTokens(SECRET), null, timeoutMs, timeoutMs, timeoutMs);
+    }
+}
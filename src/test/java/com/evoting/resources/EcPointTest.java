@@ -0,0 +1,199 @@
+package com.evoting.resources;
+
+import org.junit.Test;
+
+import javax.crypto.KeyAgreement;
+import java.math.BigInteger;
+import java.security.*;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPrivateKeySpec;
+import java.security.spec.ECPublicKeySpec;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Point arithmetic against published P-256 multiples of G and the JDK's own P-256
+ */
+public class EcPointTest {
+
+    private static final EcPoint.Table G = new EcPoint.Table(EcPoint.G);
+
+    //k * G for small k, from the NIST P-256 point multiplication test vectors
+    private static final String[][] MULTIPLES = {
+            {"2", "7cf27b188d034f7e8a52380304b51ac3c08969e277f21b35a60b48fc47669978",
+                    "07775510db8ed040293d9ac69f7430dbba7dade63ce982299e04b79d227873d1"},
+            {"3", "5ecbe4d1a6330a44c8f7ef951d4bf165e6c6b721efada985fb41661bc6e7fd6c",
+                    "8734640c4998ff7e374b06ce1a64a2ecd82ab036384fb83d9a79b127a27d5032"},
+    };
+
+    @Test
+    public void knownMultiplesOfG() {
+        for(String[] v : MULTIPLES) {
+            BigInteger k = new BigInteger(v[0]);
+            EcPoint expected = EcPoint.of(new BigInteger(v[1], 16), new BigInteger(v[2], 16));
+            assertEquals(expected, EcPoint.G.multiply(k));
+            assertEquals(expected, G.multiply(k));
+        }
+        //the order less one is -G
+        assertEquals(EcPoint.G.negate(), EcPoint.G.multiply(EcPoint.ORDER.subtract(BigInteger.ONE)));
+        assertEquals(EcPoint.G.negate(), G.multiply(EcPoint.ORDER.subtract(BigInteger.ONE)));
+    }
+
+    @Test
+    public void publicKeysMatchTheJdk() throws GeneralSecurityException {
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("EC");
+        gen.initialize(new ECGenParameterSpec("secp256r1"));
+        for(int i=0; i<20; i++) {
+            KeyPair kp = gen.generateKeyPair();
+            BigInteger s = ((ECPrivateKey) kp.getPrivate()).getS();
+            java.security.spec.ECPoint w = ((ECPublicKey) kp.getPublic()).getW();
+            EcPoint expected = EcPoint.of(w.getAffineX(), w.getAffineY());
+
+            assertEquals(expected, EcPoint.G.multiply(s));
+            assertEquals(expected, G.multiply(s));
+        }
+    }
+
+    @Test
+    public void sharedSecretsMatchJdkEcdh() throws GeneralSecurityException {
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("EC");
+        gen.initialize(new ECGenParameterSpec("secp256r1"));
+        for(int i=0; i<20; i++) {
+            KeyPair a = gen.generateKeyPair();
+            KeyPair b = gen.generateKeyPair();
+            KeyAgreement ecdh = KeyAgreement.getInstance("ECDH");
+            ecdh.init(a.getPrivate());
+            ecdh.doPhase(b.getPublic(), true);
+            BigInteger expected = new BigInteger(1, ecdh.generateSecret());
+
+            java.security.spec.ECPoint w = ((ECPublicKey) b.getPublic()).getW();
+            EcPoint bw = EcPoint.of(w.getAffineX(), w.getAffineY());
+            BigInteger s = ((ECPrivateKey) a.getPrivate()).getS();
+            assertEquals(expected, bw.multiply(s).getX());
+            assertEquals(expected, new EcPoint.Table(bw).multiply(s).getX());
+        }
+    }
+
+    @Test
+    public void smallAndLargeScalarsMatchTheJdk() throws GeneralSecurityException {
+        //scalars with long runs of zero windows, and ones next to the order
+        BigInteger[] scalars = {BigInteger.ONE, BigInteger.valueOf(16), BigInteger.ONE.shiftLeft(128),
+                BigInteger.ONE.shiftLeft(255), EcPoint.ORDER.subtract(BigInteger.valueOf(2)),
+                BigInteger.ONE.shiftLeft(256).subtract(EcPoint.ORDER)};
+        for(BigInteger k : scalars) {
+            assertEquals(k.toString(16), jdkMultiple(k), EcPoint.G.multiply(k).getX());
+            assertEquals(k.toString(16), jdkMultiple(k), G.multiply(k).getX());
+        }
+    }
+
+    @Test
+    public void infinity() {
+        EcPoint inf = EcPoint.INFINITY;
+        assertTrue(inf.isInfinity());
+        assertEquals(EcPoint.G, inf.add(EcPoint.G));
+        assertEquals(EcPoint.G, EcPoint.G.add(inf));
+        assertEquals(inf, inf.add(inf));
+        assertEquals(inf, EcPoint.G.add(EcPoint.G.negate()));
+        assertEquals(inf, inf.negate());
+        assertEquals(inf, inf.multiply(BigInteger.TEN));
+        assertEquals(inf, EcPoint.G.multiply(BigInteger.ZERO));
+        assertEquals(inf, EcPoint.G.multiply(EcPoint.ORDER));
+        assertEquals(inf, G.multiply(EcPoint.ORDER));
+        assertEquals(EcPoint.G, EcPoint.G.multiply(EcPoint.ORDER.add(BigInteger.ONE)));
+
+        //all zeros, and back
+        byte[] encoded = inf.encode();
+        assertEquals(EcPoint.ENCODED_BYTES, encoded.length);
+        assertEquals(inf, EcPoint.decode(encoded, 0));
+    }
+
+    @Test
+    public void doubling() {
+        EcPoint twoG = EcPoint.G.multiply(BigInteger.valueOf(2));
+        //adding a point to itself has to double rather than divide by zero
+        assertEquals(twoG, EcPoint.G.add(EcPoint.G));
+        assertEquals(twoG, G.multiplyAdd(BigInteger.ONE, EcPoint.G));
+        //and adding its negation gives infinity
+        assertEquals(EcPoint.INFINITY, G.multiplyAdd(EcPoint.ORDER.subtract(BigInteger.ONE), EcPoint.G));
+
+        EcPoint p = EcPoint.G;
+        for(int i=1; i<=8; i++) {
+            p = p.add(p);
+            assertEquals(EcPoint.G.multiply(BigInteger.ONE.shiftLeft(i)), p);
+        }
+    }
+
+    @Test
+    public void sumsAgree() {
+        Random random = new Random(7);
+        for(int i=0; i<20; i++) {
+            BigInteger a = new BigInteger(256, random);
+            BigInteger b = new BigInteger(256, random);
+            EcPoint sum = EcPoint.G.multiply(a.add(b));
+            assertEquals(sum, EcPoint.G.multiply(a).add(EcPoint.G.multiply(b)));
+            assertEquals(sum, G.multiplyAdd(a, G.multiply(b)));
+        }
+    }
+
+    @Test
+    public void encodeRoundTrip() {
+        Random random = new Random(11);
+        for(int i=0; i<20; i++) {
+            EcPoint p = G.multiply(new BigInteger(256, random));
+            byte[] encoded = p.encode();
+            assertEquals(EcPoint.ENCODED_BYTES, encoded.length);
+            assertEquals(p, EcPoint.decode(encoded, 0));
+        }
+    }
+
+    @Test
+    public void refusesPointsOffTheCurve() {
+        try {
+            EcPoint.of(EcPoint.G.getX(), EcPoint.G.getY().add(BigInteger.ONE));
+            fail("took a point off the curve");
+        } catch (IllegalArgumentException expected) {
+            //refused
+        }
+        try {
+            EcPoint.of(EcPoint.G.getX().add(EcPoint.P), EcPoint.G.getY());
+            fail("took a coordinate above p");
+        } catch (IllegalArgumentException expected) {
+            //refused
+        }
+
+        //x = 1 has no y on P-256, 1 - 3 + b isn't a square mod p
+        byte[] noRoot = new byte[EcPoint.ENCODED_BYTES];
+        noRoot[0] = 2;
+        noRoot[EcPoint.ENCODED_BYTES - 1] = 1;
+        try {
+            EcPoint.decode(noRoot, 0);
+            fail("decoded an x with no point");
+        } catch (IllegalArgumentException expected) {
+            //refused
+        }
+        byte[] badTag = EcPoint.G.encode();
+        badTag[0] = 4;
+        try {
+            EcPoint.decode(badTag, 0);
+            fail("decoded a bad tag");
+        } catch (IllegalArgumentException expected) {
+            //refused
+        }
+    }
+
+    //x of k * G, worked out by the JDK as an ECDH secret between the scalar k and G
+    private static BigInteger jdkMultiple(BigInteger k) throws GeneralSecurityException {
+        AlgorithmParameters params = AlgorithmParameters.getInstance("EC");
+        params.init(new ECGenParameterSpec("secp256r1"));
+        ECParameterSpec spec = params.getParameterSpec(ECParameterSpec.class);
+        KeyFactory factory = KeyFactory.getInstance("EC");
+        KeyAgreement ecdh = KeyAgreement.getInstance("ECDH");
+        ecdh.init(factory.generatePrivate(new ECPrivateKeySpec(k, spec)));
+        ecdh.doPhase(factory.generatePublic(new ECPublicKeySpec(spec.getGenerator(), spec)), true);
+        return new BigInteger(1, ecdh.generateSecret());
+    }
+}
@@ -0,0 +1,106 @@
+package com.evoting.resources;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ElGamalCipherTest {
+
+    //a ballot of three candidates picking at most two, one bit per candidate
+    private static final List<BigInteger> PLAINTEXTS = Arrays.asList(BigInteger.valueOf(0), BigInteger.valueOf(1),
+            BigInteger.valueOf(2), BigInteger.valueOf(3), BigInteger.valueOf(4), BigInteger.valueOf(5), BigInteger.valueOf(6));
+
+    private final KeyPair keys = new ElGamalKeyPair().generateKeys();
+    private final ElGamalCipher cipher = new ElGamalCipher(keys, "test", () -> PLAINTEXTS);
+
+    @Test
+    public void encryptDecryptRoundTrip() {
+        for(BigInteger m : PLAINTEXTS) {
+            BigInteger c = cipher.encrypt(m);
+            assertTrue(cipher.isCiphertext(c));
+            assertEquals(m, cipher.decrypt(c));
+        }
+    }
+
+    @Test
+    public void encryptionIsRandomised() {
+        BigInteger m = BigInteger.valueOf(2);
+        assertNotEquals(cipher.encrypt(m), cipher.encrypt(m));
+    }
+
+    @Test
+    public void encryptionMatchesItsRandomness() {
+        BigInteger m = BigInteger.valueOf(5);
+        Cryptosystem.Encryption enc = cipher.encryptWithRandomness(m);
+        //(r*G, m*G + r*h) worked out the long way
+        EcPoint h = ((ElGamalPubKey) keys.getPublic()).getH();
+        EcPoint c1 = EcPoint.G.multiply(enc.getRandomness());
+        EcPoint c2 = EcPoint.G.multiply(m).add(h.multiply(enc.getRandomness()));
+        byte[] expected = new byte[2 * EcPoint.ENCODED_BYTES];
+        System.arraycopy(c1.encode(), 0, expected, 0, EcPoint.ENCODED_BYTES);
+        System.arraycopy(c2.encode(), 0, expected, EcPoint.ENCODED_BYTES, EcPoint.ENCODED_BYTES);
+        assertEquals(new BigInteger(1, expected), enc.getCipherText());
+    }
+
+    @Test
+    public void reEncryptionKeepsThePlaintext() {
+        for(BigInteger m : PLAINTEXTS) {
+            BigInteger c = cipher.encrypt(m);
+            Cryptosystem.Encryption re = cipher.reEncrypt(c);
+            assertNotEquals(c, re.getCipherText());
+            assertEquals(m, cipher.decrypt(re.getCipherText()));
+            //the same randomness gives the same ciphertext, so a mix proof can be checked
+            assertEquals(re.getCipherText(), cipher.reEncrypt(c, re.getRandomness()));
+        }
+    }
+
+    @Test
+    public void reEncryptionByInverseUndoesIt() {
+        BigInteger c = cipher.encrypt(BigInteger.ONE);
+        Cryptosystem.Encryption re = cipher.reEncrypt(c);
+        assertEquals(c, cipher.reEncrypt(re.getCipherText(), cipher.inverse(re.getRandomness())));
+
+        //two re-encryptions are one with the combined randomness
+        Cryptosystem.Encryption again = cipher.reEncrypt(re.getCipherText());
+        assertEquals(again.getCipherText(), cipher.reEncrypt(c, cipher.combine(re.getRandomness(), again.getRandomness())));
+    }
+
+    @Test
+    public void additionAddsPlaintexts() {
+        BigInteger sum = cipher.add(cipher.encrypt(BigInteger.valueOf(2)), cipher.encrypt(BigInteger.valueOf(4)));
+        assertEquals(BigInteger.valueOf(6), cipher.decrypt(sum));
+    }
+
+    @Test
+    public void plaintextsOutsideTheTableAreNotFound() {
+        assertEquals(ElGamalCipher.NOT_FOUND, cipher.decrypt(cipher.encrypt(BigInteger.valueOf(7))));
+    }
+
+    @Test
+    public void refusesMalformedCiphertexts() {
+        assertFalse(cipher.isCiphertext(BigInteger.ZERO));
+        assertFalse(cipher.isCiphertext(BigInteger.ONE.negate()));
+        assertFalse(cipher.isCiphertext(cipher.getCiphertextBound()));
+        //first point at infinity would leave m*G in the clear
+        byte[] clear = new byte[2 * EcPoint.ENCODED_BYTES];
+        System.arraycopy(EcPoint.G.encode(), 0, clear, EcPoint.ENCODED_BYTES, EcPoint.ENCODED_BYTES);
+        assertFalse(cipher.isCiphertext(new BigInteger(1, clear)));
+        //second point off the curve
+        byte[] bad = cipher.encrypt(BigInteger.ONE).toByteArray();
+        bad[bad.length - EcPoint.ENCODED_BYTES] = 7;
+        assertFalse(cipher.isCiphertext(new BigInteger(1, bad)));
+    }
+
+    @Test
+    public void keysRoundTrip() {
+        KeyPair decoded = Cryptosystem.decodeKeys(ElGamalCipher.ALGORITHM, keys.getPublic().getEncoded(), keys.getPrivate().getEncoded());
+        ElGamalCipher reopened = new ElGamalCipher(decoded, "test", () -> PLAINTEXTS);
+        assertEquals(BigInteger.valueOf(3), reopened.decrypt(cipher.encrypt(BigInteger.valueOf(3))));
+        assertEquals(((ElGamalPubKey) keys.getPublic()).getH(), EcPoint.G.multiply(((ElGamalPrivKey) keys.getPrivate()).getX()));
+    }
+}
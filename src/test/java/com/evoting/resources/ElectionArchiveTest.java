@@ -0,0 +1,188 @@
+package com.evoting.resources;
+
+import com.evoting.models.Election;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class ElectionArchiveTest {
+
+    private static final byte[] SECRET = "election archive test secret, 32+ bytes".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ElectionArchive archive;
+
+    @Before
+    public void setUp() throws IOException {
+        archive = new ElectionArchive(folder.newFolder("archive"), 4, new KeySealer(SECRET));
+    }
+
+    @Test
+    public void privateKeyIsSealedOnDisk() throws IOException {
+        Election e = tallied();
+        byte[] privateKey = e.getCipher().getKeys().getPrivate().getEncoded();
+        archive.archive(e);
+
+        assertFalse(contains(unzip(archive.file(e.getEid())), privateKey));
+        Election full = archive.resolve(e);
+        assertArrayEquals(privateKey, full.getCipher().getKeys().getPrivate().getEncoded());
+    }
+
+    @Test
+    public void sealedKeyNeedsTheSameSecret() throws IOException {
+        Election e = tallied();
+        archive.archive(e);
+
+        byte[] other = "some other secret of at least 32 bytes".getBytes(StandardCharsets.UTF_8);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(unzip(archive.file(e.getEid()))))) {
+            ElectionArchive.read(in, new KeySealer(other));
+            fail("opened a key sealed under another secret");
+        } catch (IOException expected) {
+            //refused
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(unzip(archive.file(e.getEid()))))) {
+            ElectionArchive.read(in);
+            fail("read a sealed key without the secret");
+        } catch (IOException expected) {
+            //refused
+        }
+    }
+
+    @Test
+    public void sealedKeyIsBoundToItsElection() throws IOException {
+        KeySealer sealer = new KeySealer(SECRET);
+        byte[] sealed = sealer.seal("first", new byte[]{1, 2, 3});
+        assertArrayEquals(new byte[]{1, 2, 3}, sealer.open("first", sealed));
+        try {
+            sealer.open("second", sealed);
+            fail("opened a key sealed for another election");
+        } catch (IOException expected) {
+            //refused
+        }
+    }
+
+    @Test
+    public void exportKeepsTheKeyReadable() throws IOException {
+        Election e = tallied();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            ElectionArchive.write(e, out, null);
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            Election read = ElectionArchive.read(in);
+            assertArrayEquals(e.getCipher().getKeys().getPrivate().getEncoded(), read.getCipher().getKeys().getPrivate().getEncoded());
+            assertEquals(e.getResults(), read.getResults());
+        }
+    }
+
+    @Test
+    public void concurrentResolvesShareOneLoad() throws Exception {
+        Election e = tallied();
+        archive.archive(e);
+
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Election>> resolved = new ArrayList<>();
+        for(int i=0; i<threads; i++) {
+            resolved.add(pool.submit(() -> {
+                start.await();
+                return archive.resolve(e);
+            }));
+        }
+        start.countDown();
+        Election first = resolved.get(0).get(10, TimeUnit.SECONDS);
+        for(Future<Election> f : resolved) {
+            assertSame(first, f.get(10, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void missingArchiveFailsEveryWaiter() throws IOException {
+        Election e = tallied();
+        archive.archive(e);
+        assertTrue(archive.file(e.getEid()).delete());
+        archive.clearCache();
+
+        for(int i=0; i<2; i++) {
+            try {
+                archive.resolve(e);
+                fail("resolved a deleted archive");
+            } catch (UncheckedIOException expected) {
+                //a failed load isn't remembered, the next caller tries again
+            }
+        }
+    }
+
+    @Test
+    public void archiveWaitsForTheMixUnderWay() throws Exception {
+        Election e = new Election("owner@example.com", "Archive", new CopyOnWriteArrayList<>(Arrays.asList("Yes", "No")),
+                1, 16, ElGamalCipher.ALGORITHM);
+        Thread tally;
+        //holding the mix lock stands in for a mix that is still running
+        synchronized (e.getMixNet()) {
+            tally = new Thread(() -> e.tallyOnce(() -> Collections.singletonMap("Yes", "0"), () -> {
+                archive.archive(e);
+                e.evict();
+            }));
+            tally.start();
+            tally.join(200);
+            assertTrue(tally.isAlive());
+            assertFalse(e.isArchived());
+            assertNotNull(e.getBoard());
+        }
+        tally.join(10000);
+        assertTrue(e.isArchived());
+
+        //a mix that checked the election before the tally finds it archived, rather than failing
+        assertFalse(e.mix(null, 1));
+        assertFalse(e.mix(null, 1, true));
+    }
+
+    @Test
+    public void closedElectionIsOnlyMixedByItsTally() {
+        Election e = new Election("owner@example.com", "Archive", new CopyOnWriteArrayList<>(Arrays.asList("Yes", "No")),
+                1, 16, ElGamalCipher.ALGORITHM);
+        assertTrue(e.mix(null, 1));
+        e.setClosed(true);
+        assertFalse(e.mix(null, 1));
+        assertTrue(e.mix(null, 1, true));
+        assertEquals(2, e.getProofs().size());
+    }
+
+    private static Election tallied() {
+        Election e = new Election("owner@example.com", "Archive", new CopyOnWriteArrayList<>(Arrays.asList("Yes", "No")),
+                1, 16, ElGamalCipher.ALGORITHM);
+        e.tallyOnce(() -> Collections.singletonMap("Yes", "0"), () -> {});
+        return e;
+    }
+
+    private static byte[] unzip(File f) throws IOException {
+        try (InputStream in = new GZIPInputStream(new FileInputStream(f))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            return out.toByteArray();
+        }
+    }
+
+    private static boolean contains(byte[] haystack, byte[] needle) {
+        for(int i=0; i + needle.length <= haystack.length; i++) {
+            if(Arrays.equals(Arrays.copyOfRange(haystack, i, i + needle.length), needle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
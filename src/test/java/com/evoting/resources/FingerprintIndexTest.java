@@ -0,0 +1,74 @@
+package com.evoting.resources;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FingerprintIndexTest {
+
+    @Test
+    public void findsCopiesOfBallotsOnTheBoard() {
+        List<BigInteger> board = new ArrayList<>();
+        FingerprintIndex index = new FingerprintIndex();
+        Random random = new Random(3);
+        for(int i=0; i<100; i++) {
+            BigInteger c = new BigInteger(512, random);
+            board.add(c);
+            index.add(c, i);
+        }
+
+        for(int i=0; i<board.size(); i++) {
+            //an equal ciphertext built apart from the one on the board
+            BigInteger copy = new BigInteger(board.get(i).toByteArray());
+            assertTrue(index.contains(copy, board));
+            assertEquals(i, index.indexOf(copy, board));
+        }
+        assertFalse(index.contains(new BigInteger(512, random), board));
+        assertFalse(index.contains(board.get(0).add(BigInteger.ONE), board));
+    }
+
+    @Test
+    public void fingerprintMatchAloneIsNotACopy() {
+        BigInteger first = BigInteger.valueOf(1111);
+        BigInteger second = BigInteger.valueOf(2222);
+        List<BigInteger> board = Arrays.asList(first, second);
+
+        //second's fingerprint pointing at first, as two ballots sharing a fingerprint would
+        FingerprintIndex index = new FingerprintIndex();
+        index.add(second, 0);
+        assertFalse(index.contains(second, board));
+        assertEquals(-1, index.indexOf(second, board));
+
+        //the real entry is still found past the one that only matched on fingerprint
+        index.add(second, 1);
+        assertEquals(1, index.indexOf(second, board));
+        assertFalse(index.contains(first, board));
+    }
+
+    @Test
+    public void keepsEveryBallotAsItGrows() {
+        List<BigInteger> board = new ArrayList<>();
+        FingerprintIndex index = new FingerprintIndex();
+        long empty = index.memoryBytes();
+        Random random = new Random(5);
+        for(int i=0; i<5000; i++) {
+            BigInteger c = new BigInteger(256, random);
+            board.add(c);
+            index.add(c, i);
+        }
+
+        assertTrue(index.memoryBytes() > empty);
+        for(int i=0; i<board.size(); i++) {
+            assertEquals(i, index.indexOf(board.get(i), board));
+        }
+        for(int i=0; i<1000; i++) {
+            assertEquals(-1, index.indexOf(new BigInteger(256, random).setBit(256), board));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.evoting.resources;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hashes, roots and inclusion proofs against RFC 6962.
+ * The leaves are those of the Certificate Transparency test vectors less the empty one,
+ * which no ballot can be, and the expected hashes were worked out from the RFC's MTH and PATH definitions
+ */
+public class MerkleTreeTest {
+
+    private static final String[] LEAVES = {"00", "10", "2021", "3031", "40414243", "5051525354555657",
+            "606162636465666768696a6b6c6d6e6f"};
+
+    //root of the first n leaves, from n = 0
+    private static final String[] ROOTS = {
+            "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+            "96a296d224f285c67bee93c30f8a309157f0daa35dc5b87e410b78630a09cfc7",
+            "e8bba54899f34c767fa1b827f136cb9fde1e3b15ff9a0a57781fc0832e523548",
+            "7c464dec964a78bed0b50ae2102c4b3f93362198148dfac451c671a128e28265",
+            "60db03b91113cf242cf2f6a34f88a8c5efe81d54ab1208c94e126822c0bce28f",
+            "3e4a417cfa737ef5066a06b87b8d55219bf41446cf41d0418f1883316713cecc",
+            "2719f5e522065fb4f6ffaaee38e458446d11c864cf448199cab919e55fe4b59b",
+            "c70e66dec6776528ce53c53d02e51c7864a8db6ec25cb4c259c6148d896445c7",
+    };
+
+    //leaf index and its audit path in the tree of all seven leaves
+    private static final Object[][] PATHS = {
+            {0, new String[]{"0298d122906dcfc10892cb53a73992fc5b9f493ea4c9badb27b791b4127a7fe7",
+                    "acdb510c6adfbc7cf26c777c63031b9399da609b70c957eb1dbbe58e453e6702",
+                    "36be8b096162293b61cafe07df6e314d8e39746f2d341acf7c0be457543a0739"}},
+            {3, new String[]{"07506a85fd9dd2f120eb694f86011e5bb4662e5c415a62917033d4a9624487e7",
+                    "e8bba54899f34c767fa1b827f136cb9fde1e3b15ff9a0a57781fc0832e523548",
+                    "36be8b096162293b61cafe07df6e314d8e39746f2d341acf7c0be457543a0739"}},
+            {6, new String[]{"95df0fab8fb57d1660fc4e89f9ad828565f90a14f3f5c0da133bd64f689ef10b",
+                    "60db03b91113cf242cf2f6a34f88a8c5efe81d54ab1208c94e126822c0bce28f"}},
+    };
+
+    @Test
+    public void rootsMatchTheVectors() {
+        MerkleTree tree = new MerkleTree();
+        assertEquals(ROOTS[0], MerkleTree.hex(tree.root(0)));
+        for(int i=0; i<LEAVES.length; i++) {
+            tree.append(new BigInteger(LEAVES[i], 16));
+            assertEquals(i + 1, tree.size());
+            //every earlier root is still there after more leaves go in
+            for(int n=0; n<=tree.size(); n++) {
+                assertEquals(ROOTS[n], MerkleTree.hex(tree.root(n)));
+            }
+        }
+    }
+
+    @Test
+    public void leafHashSkipsTheSignByte() {
+        //0x10 in RFC 6962 is SHA-256(00 10), and a ballot with its top bit set hashes without the 00 Java adds
+        assertEquals("0298d122906dcfc10892cb53a73992fc5b9f493ea4c9badb27b791b4127a7fe7",
+                MerkleTree.hex(MerkleTree.leafHash(BigInteger.valueOf(0x10))));
+        BigInteger high = new BigInteger("ff01", 16);
+        assertEquals(3, high.toByteArray().length);
+        assertArrayEquals(MerkleTree.leafHash(high), naiveLeaf(new byte[]{(byte) 0xff, 1}));
+    }
+
+    @Test
+    public void proofsMatchTheVectors() {
+        MerkleTree tree = new MerkleTree();
+        for(String leaf : LEAVES) {
+            tree.append(new BigInteger(leaf, 16));
+        }
+        for(Object[] v : PATHS) {
+            String[] expected = (String[]) v[1];
+            MerkleTree.Proof proof = tree.proof((Integer) v[0], LEAVES.length);
+            assertEquals(LEAVES.length, proof.getSize());
+            assertEquals(ROOTS[LEAVES.length], MerkleTree.hex(proof.getRoot()));
+            assertEquals(expected.length, proof.getSteps().size());
+            for(int i=0; i<expected.length; i++) {
+                assertEquals(expected[i], MerkleTree.hex(proof.getSteps().get(i).getSibling()));
+            }
+        }
+    }
+
+    @Test
+    public void everyProofLeadsToItsRoot() {
+        List<byte[]> leaves = new ArrayList<>();
+        MerkleTree tree = new MerkleTree();
+        Random random = new Random(9);
+        for(int i=0; i<40; i++) {
+            BigInteger c = new BigInteger(256, random);
+            tree.append(c);
+            leaves.add(MerkleTree.leafHash(c));
+        }
+
+        for(int n=1; n<=leaves.size(); n++) {
+            byte[] root = mth(leaves.subList(0, n));
+            assertArrayEquals(root, tree.root(n));
+            for(int m=0; m<n; m++) {
+                MerkleTree.Proof proof = tree.proof(m, n);
+                byte[] hash = leaves.get(m);
+                for(MerkleTree.Step step : proof.getSteps()) {
+                    hash = step.isLeft() ? MerkleTree.nodeHash(step.getSibling(), hash)
+                            : MerkleTree.nodeHash(hash, step.getSibling());
+                }
+                assertArrayEquals("leaf " + m + " of " + n, root, hash);
+            }
+        }
+    }
+
+    //MTH of RFC 6962 section 2.1, straight from its definition
+    private static byte[] mth(List<byte[]> leaves) {
+        if(leaves.size() == 1) {
+            return leaves.get(0);
+        }
+        int k = Integer.highestOneBit(leaves.size() - 1);
+        return MerkleTree.nodeHash(mth(leaves.subList(0, k)), mth(leaves.subList(k, leaves.size())));
+    }
+
+    private static byte[] naiveLeaf(byte[] data) {
+        byte[] prefixed = new byte[data.length + 1];
+        System.arraycopy(data, 0, prefixed, 1, data.length);
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(prefixed);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.evoting.resources;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class VoteAdmissionTest {
+
+    @Test
+    public void otherElectionsStayResponsiveWhenOneQueueIsFull() throws Exception {
+        //one vote at a time per election, three waiting across all of them, waits of up to 10s
+        VoteAdmission admission = new VoteAdmission(1, 10, 3, 10000);
+        VoteAdmission.Permit busy = admission.acquire("busy");
+        assertNotNull(busy);
+
+        //the busy election takes every place in the wait
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        List<Future<Boolean>> queued = new ArrayList<>();
+        for(int i=0; i<3; i++) {
+            queued.add(pool.submit(() -> {
+                VoteAdmission.Permit p = admission.acquire("busy");
+                if(p != null) {
+                    p.release();
+                }
+                return p != null;
+            }));
+        }
+        Thread.sleep(200);
+        for(Future<Boolean> f : queued) {
+            assertFalse(f.isDone());
+        }
+
+        //another election under its limit is let straight in
+        long start = System.nanoTime();
+        VoteAdmission.Permit other = admission.acquire("other");
+        assertNotNull(other);
+
+        //and votes that would have to wait are turned away at once, rather than holding a thread
+        assertNull(admission.acquire("other"));
+        assertNull(admission.acquire("busy"));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        other.release();
+
+        //the queued votes still get in, one after another
+        busy.release();
+        for(Future<Boolean> f : queued) {
+            assertTrue(f.get(10, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+
+        //with the wait empty again, a vote may queue behind a busy election
+        VoteAdmission.Permit again = admission.acquire("busy");
+        Future<VoteAdmission.Permit> waiter = Executors.newSingleThreadExecutor().submit(() -> admission.acquire("busy"));
+        Thread.sleep(100);
+        again.release();
+        assertNotNull(waiter.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void turnsAwayAfterTheLongestWait() {
+        VoteAdmission admission = new VoteAdmission(1, 10, 10, 100);
+        assertNotNull(admission.acquire("e"));
+        long start = System.nanoTime();
+        assertNull(admission.acquire("e"));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90);
+    }
+}
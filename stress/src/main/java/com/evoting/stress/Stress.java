@@ -0,0 +1,441 @@
+package com.evoting.stress;
+
+import com.evoting.models.Election;
+import com.evoting.models.Proof;
+import com.evoting.models.User;
+import com.evoting.resources.MemoryBudget;
+import com.evoting.resources.MixNet;
+import com.evoting.resources.MixPipeline;
+import com.evoting.resources.MixScheduler;
+import com.evoting.resources.PaillierCipher;
+import com.evoting.resources.TallyEngine;
+import com.evoting.resources.VoteAdmission;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrency stress test of the shared election state.
+ * Several elections run at once on one worker pool over shared users and elections maps, as in the
+ * web app. Every voter tries to join and vote twice at the same time, more voters try to join than
+ * each election has room for, and elections are mixed while votes are still arriving. Each election
+ * is closed, mixed and tallied as soon as its own voting is done, while the others keep voting.
+ * Batches of ballots are sealed for the next mix in the background as they fill, as the web app does.
+ *
+ * Afterwards it checks no ballot was lost, nobody voted twice, no election took more participants
+ * than it can count, every mix proof holds, and each tally matches the votes cast, which also fails
+ * if a ballot was encrypted under another elections key. Throughput of each operation is reported.
+ *
+ * Usage: stress [--elections n] [--voters n] [--threads n] [--rounds k] [--candidates n] [--batch n]
+ *               [--cryptosystem Paillier|EC-ElGamal]
+ */
+public class Stress {
+
+    private static final int MAX_SELECTIONS = 2;    //candidates each voter may select
+    private static final int MIXES_WHILE_VOTING = 2;    //mixes of each election taken during voting
+    private static final int MAX_VIOLATIONS = 20;   //violations printed
+    private static final int TALLY_RACERS = 4;  //owners tallying one election at once
+
+    private final int threads;  //workers hammering the shared state
+    private final int rounds;   //cut and choose rounds in each mixes proof
+    private final String algorithm; //cryptosystem the elections encrypt with
+
+    private final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();    //shared like the users bean
+    private final ConcurrentHashMap<String, Election> elections = new ConcurrentHashMap<>();    //shared like the elections bean
+
+    private final MixScheduler mixScheduler;
+    private final MixPipeline mixPipeline;
+    private final TallyEngine tallyEngine;
+    private final VoteAdmission voteAdmission;
+
+    private final Map<String, Expected> expected = new HashMap<>();    //what each election should end with
+    private final ConcurrentLinkedQueue<String> violations = new ConcurrentLinkedQueue<>();
+
+    private final Stat joins = new Stat("join");
+    private final Stat casts = new Stat("cast");
+    private final Stat mixes = new Stat("mix");
+    private final Stat tallies = new Stat("tally");
+
+    private Stress(int t, int r, int batchSize, String a) {
+        threads = t;
+        rounds = r;
+        algorithm = a;
+        mixScheduler = new MixScheduler(threads);
+        mixPipeline = new MixPipeline(mixScheduler, new MemoryBudget(Runtime.getRuntime().maxMemory(), elections, null), rounds, batchSize);
+        tallyEngine = new TallyEngine(threads);
+        voteAdmission = new VoteAdmission(2 * threads, 200, 200, 2000);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int electionCount = 4;
+        int voters = 400;
+        int threads = 2 * Runtime.getRuntime().availableProcessors();
+        int rounds = 8;
+        int candidates = 3;
+        int batchSize = 64;
+        String algorithm = PaillierCipher.ALGORITHM;
+
+        for(int i=0; i<args.length; i++) {
+            if(i + 1 >= args.length) {
+                usage();
+            }
+            switch(args[i]) {
+                case "--elections": electionCount = Integer.parseInt(args[++i]); break;
+                case "--voters": voters = Integer.parseInt(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--rounds": rounds = Integer.parseInt(args[++i]); break;
+                case "--candidates": candidates = Integer.parseInt(args[++i]); break;
+                case "--batch": batchSize = Integer.parseInt(args[++i]); break;
+                case "--cryptosystem": algorithm = args[++i]; break;
+                default: usage();
+            }
+        }
+
+        System.out.println("Stressing " + electionCount + " elections of " + voters + " voters on " + threads
+                + " threads, " + rounds + " proof rounds, sealing batches of " + batchSize + ", " + algorithm);
+        boolean passed = new Stress(threads, rounds, batchSize, algorithm).run(electionCount, voters, candidates);
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Run method
+     * @return true if every invariant held
+     */
+    private boolean run(int electionCount, int voters, int candidateCount) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Runnable> tasks = new ArrayList<>();
+        CountDownLatch closed = new CountDownLatch(electionCount);
+
+        //a tenth more voters than there is room for, every one shared between the elections
+        int attempts = voters + voters / 10;
+        List<String> candidates = new ArrayList<>();
+        for(int c=0; c<candidateCount; c++) {
+            candidates.add("Candidate " + c);
+        }
+
+        for(int i=0; i<electionCount; i++) {
+            User owner = user(-1 - i);
+            Election e = new Election(owner.getEmail(), "Stress " + i, new CopyOnWriteArrayList<>(candidates), MAX_SELECTIONS, voters, algorithm);
+            elections.put(e.getEid(), e);
+            owner.addOwned(e);
+            e.join(owner);
+            expected.put(e.getEid(), new Expected(candidateCount));
+
+            List<Runnable> own = new ArrayList<>();
+            for(int v=0; v<attempts; v++) {
+                int voter = v;
+                //the same voter twice, racing itself
+                own.add(() -> joinAndVote(e, user(voter)));
+                own.add(() -> joinAndVote(e, user(voter)));
+            }
+            for(int m=0; m<MIXES_WHILE_VOTING; m++) {
+                own.add(() -> mixAndVerify(e, false));
+            }
+
+            //the last of an elections tasks closes and tallies it, while other elections are still voting
+            AtomicInteger left = new AtomicInteger(own.size());  //tasks left before it closes
+            for(Runnable task : own) {
+                tasks.add(() -> {
+                    try {
+                        task.run();
+                    } catch (RuntimeException ex) {
+                        violation(e, "task failed: " + ex);
+                    } finally {
+                        if(left.decrementAndGet() == 0) {
+                            pool.submit(() -> {
+                                try {
+                                    closeAndTally(e);
+                                } catch (RuntimeException ex) {
+                                    violation(e, "tally failed: " + ex);
+                                } finally {
+                                    closed.countDown();
+                                }
+                            });
+                        }
+                    }
+                });
+            }
+        }
+
+        Collections.shuffle(tasks, new Random(42));
+        long began = System.nanoTime();
+        for(Runnable task : tasks) {
+            pool.submit(task);
+        }
+        closed.await();
+        double seconds = (System.nanoTime() - began) / 1e9;
+        pool.shutdown();
+
+        for(Election e : elections.values()) {
+            check(e);
+        }
+
+        System.out.printf("%nFinished in %.1fs%n", seconds);
+        for(Stat stat : Arrays.asList(joins, casts, mixes, tallies)) {
+            stat.print(seconds);
+        }
+
+        if(violations.isEmpty()) {
+            System.out.println("\nEvery invariant held");
+            return true;
+        }
+        System.out.println("\n" + violations.size() + " violations:");
+        violations.stream().limit(MAX_VIOLATIONS).forEach(v -> System.out.println("  " + v));
+        return false;
+    }
+
+    //gets or makes a user the way the home page does
+    private User user(int i) {
+        String email = "voter" + i + "@stress.test";
+        return users.computeIfAbsent(email, k -> new User("Voter " + i, email, Integer.toString(i)));
+    }
+
+    /**
+     * Join and vote method
+     * Joins as the join page does, then casts a random ballot as the vote page does
+     */
+    private void joinAndVote(Election e, User u) {
+        long start = System.nanoTime();
+        if(e.join(u)) {
+            u.addJoined(e);
+        }
+        joins.add(System.nanoTime() - start);
+
+        if(!e.getParticipants().containsKey(u)) {
+            return;
+        }
+
+        //some blank ballots, the rest one or two distinct candidates
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<Integer> selections = new ArrayList<>();
+        int count = random.nextInt(MAX_SELECTIONS + 1);
+        while(selections.size() < count) {
+            int c = random.nextInt(e.getCandidates().size());
+            if(!selections.contains(c)) {
+                selections.add(c);
+            }
+        }
+
+        start = System.nanoTime();
+        VoteAdmission.Permit permit;
+        while((permit = voteAdmission.acquire(e.getEid())) == null) {
+            casts.throttled.increment();
+            Thread.yield();
+        }
+        try {
+            BigInteger cipherText = e.getCipher().encrypt(e.encodeBallot(selections));
+            if(e.cast(u, cipherText) == null) {
+                expected.get(e.getEid()).cast(u, cipherText, selections);
+                mixPipeline.ballotsAdded(e);
+            }
+        } finally {
+            permit.release();
+        }
+        casts.add(System.nanoTime() - start);
+    }
+
+    /**
+     * Mix and verify method
+     * Mixes as the owner does while votes arrive, then checks the proof against the ballots it took
+     * @param closing true for the last mix of a closed election, as the tally runs it
+     */
+    private void mixAndVerify(Election e, boolean closing) {
+        long start = System.nanoTime();
+        List<BigInteger> output;
+        List<Proof> proof;
+        //hold the mix lock so this mixes output and proof are read together
+        synchronized (e.getMixNet()) {
+            e.mix(mixScheduler, rounds, closing);
+            output = e.getBoard().getShuffledBallots();
+            proof = e.getProofs().get(e.getProofs().size() - 1);
+        }
+        mixes.add(System.nanoTime() - start);
+
+        //the ballots cast before the mix, the board may have grown since
+        List<BigInteger> board = e.getBoard().getBallots();
+        List<BigInteger> input = new ArrayList<>();
+        for(int i=0; i<output.size(); i++) {
+            input.add(board.get(i));
+        }
+        if(!MixNet.verify(e.getCipher(), input, output, proof)) {
+            violation(e, "mix proof over " + output.size() + " ballots does not hold");
+        }
+    }
+
+    /**
+     * Close and tally method
+     * Closes, mixes every ballot and tallies as the owner does, from several threads at once
+     * as an owner clicking tally repeatedly would, which must count only once
+     */
+    private void closeAndTally(Election e) {
+        e.setClosed(true);
+        mixAndVerify(e, true);
+
+        AtomicInteger counted = new AtomicInteger();    //tallies that actually counted
+        AtomicReference<TallyEngine.Counts> result = new AtomicReference<>();
+        Set<Map<String, String>> seen = Collections.newSetFromMap(new IdentityHashMap<>());   //results each racer got
+        List<Thread> racers = new ArrayList<>();
+        for(int i=0; i<TALLY_RACERS; i++) {
+            Thread racer = new Thread(() -> {
+                Map<String, String> results = e.tallyOnce(() -> {
+                    counted.incrementAndGet();
+                    long start = System.nanoTime();
+                    TallyEngine.Counts counts = tallyEngine.count(e, e.getBoard().getShuffledBallots());
+                    tallies.add(System.nanoTime() - start);
+                    result.set(counts);
+                    return counts.results(e);
+                }, () -> {});
+                synchronized (seen) {
+                    seen.add(results);
+                }
+            });
+            racers.add(racer);
+            racer.start();
+        }
+        for(Thread racer : racers) {
+            try {
+                racer.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if(counted.get() != 1) {
+            violation(e, TALLY_RACERS + " tallies at once counted " + counted.get() + " times");
+        }
+        if(seen.size() != 1 || seen.contains(null)) {
+            violation(e, TALLY_RACERS + " tallies at once got " + seen.size() + " different results");
+        }
+        TallyEngine.Counts counts = result.get();
+        if(counts == null) {
+            return;
+        }
+
+        Expected exp = expected.get(e.getEid());
+        if(counts.getInvalid() > 0) {
+            violation(e, counts.getInvalid() + " ballots don't decrypt to a valid ballot under this elections key");
+        }
+        for(int c=0; c<e.getCandidates().size(); c++) {
+            if(counts.votes(c) != exp.votes.get(c)) {
+                violation(e, e.getCandidates().get(c) + " tallied " + counts.votes(c) + " but was voted for " + exp.votes.get(c) + " times");
+            }
+        }
+    }
+
+    /**
+     * Check method
+     * Checks the participants and board against every cast that succeeded
+     */
+    private void check(Election e) {
+        Expected exp = expected.get(e.getEid());
+        List<BigInteger> board = e.getBoard().getBallots();
+
+        if(e.getParticipants().size() > e.getMaxVoters()) {
+            violation(e, e.getParticipants().size() + " participants joined, only " + e.getMaxVoters() + " fit");
+        }
+
+        //no double votes
+        long voted = e.getParticipants().values().stream().filter(Boolean::booleanValue).count();
+        for(Map.Entry<User, Integer> entry : exp.castsBy.entrySet()) {
+            if(entry.getValue() > 1) {
+                violation(e, entry.getKey().getEmail() + " cast " + entry.getValue() + " ballots");
+            }
+        }
+        if(voted != exp.cast.size()) {
+            violation(e, voted + " participants are marked voted but " + exp.cast.size() + " ballots were cast");
+        }
+
+        //no lost ballots
+        if(board.size() != exp.cast.size()) {
+            violation(e, board.size() + " ballots on the board but " + exp.cast.size() + " were cast");
+        }
+        for(BigInteger c : exp.cast) {
+            if(e.getBoard().inclusionProof(c) == null) {
+                violation(e, "a cast ballot is missing from the board");
+                break;
+            }
+        }
+        if(e.getBoard().getShuffledBallots().size() != board.size()) {
+            violation(e, "final mix took " + e.getBoard().getShuffledBallots().size() + " of " + board.size() + " ballots");
+        }
+
+        //each joined election listed once for its user
+        for(User u : e.getParticipants().keySet()) {
+            long listed = u.getJoinedElections().stream().filter(j -> j == e).count() + u.getOwnedElections().stream().filter(j -> j == e).count();
+            if(listed != 1) {
+                violation(e, u.getEmail() + " lists the election " + listed + " times");
+            }
+        }
+
+        //no two elections share a key
+        for(Election other : elections.values()) {
+            if(other != e && other.getCipher().getKeyId().equals(e.getCipher().getKeyId())) {
+                violation(e, "shares its key with " + other.getEid());
+            }
+        }
+    }
+
+    private void violation(Election e, String message) {
+        violations.add(e.getTitle() + ": " + message);
+    }
+
+    private static void usage() {
+        System.err.println("Usage: stress [--elections n] [--voters n] [--threads n] [--rounds k] [--candidates n] [--batch n]"
+                + " [--cryptosystem Paillier|EC-ElGamal]");
+        System.exit(2);
+    }
+
+    //what an election should hold, from the casts that succeeded
+    private static class Expected {
+        private final AtomicLongArray votes;    //votes for each candidate
+        private final ConcurrentLinkedQueue<BigInteger> cast = new ConcurrentLinkedQueue<>();  //every ballot cast
+        private final ConcurrentHashMap<User, Integer> castsBy = new ConcurrentHashMap<>();    //successful casts of each voter
+
+        Expected(int candidates) {
+            votes = new AtomicLongArray(candidates);
+        }
+
+        void cast(User u, BigInteger cipherText, List<Integer> selections) {
+            cast.add(cipherText);
+            castsBy.merge(u, 1, Integer::sum);
+            for(int c : selections) {
+                votes.incrementAndGet(c);
+            }
+        }
+    }
+
+    //count and time of one kind of operation
+    private static class Stat {
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder throttled = new LongAdder();    //times turned away by vote admission
+        private final ConcurrentLinkedQueue<Long> samples = new ConcurrentLinkedQueue<>();
+
+        Stat(String n) {
+            name = n;
+        }
+
+        void add(long took) {
+            count.increment();
+            nanos.add(took);
+            samples.add(took);
+        }
+
+        void print(double seconds) {
+            long[] sorted = samples.stream().mapToLong(Long::longValue).sorted().toArray();
+            if(sorted.length == 0) {
+                return;
+            }
+            System.out.printf("%-6s %8d ops %10.1f ops/s   mean %8.2fms   p50 %8.2fms   p99 %8.2fms   max %8.2fms%s%n",
+                    name, count.sum(), count.sum() / seconds, nanos.sum() / 1e6 / count.sum(),
+                    sorted[sorted.length / 2] / 1e6, sorted[(int) (sorted.length * 0.99)] / 1e6, sorted[sorted.length - 1] / 1e6,
+                    throttled.sum() > 0 ? "   throttled " + throttled.sum() : "");
+        }
+    }
+}